@@ -68,6 +68,7 @@ dependencies {
   implementation(libs.commons.text)
   implementation(libs.jtokkit)
   testImplementation(kotlin("test"))
+  testImplementation(libs.okhttp.mockwebserver)
 }
 
 
@@ -162,6 +163,7 @@ tasks {
 
   test {
     exclude("**/testsupport/*")
+    exclude("**/*PipelineBenchmarkTest*")
     useJUnitPlatform()
     testLogging {
       events("started", "passed", "skipped", "failed")
@@ -169,4 +171,20 @@ tasks {
       showStandardStreams = true
     }
   }
+
+  register<Test>("benchmark") {
+    description = "Runs the streaming pipeline benchmarks against their baseline."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    include("**/*PipelineBenchmarkTest*")
+    useJUnitPlatform()
+    listOf("codegpt.benchmark.tokensPerSecond", "codegpt.benchmark.recordBaseline").forEach { key ->
+      System.getProperty(key)?.let { systemProperty(key, it) }
+    }
+    testLogging {
+      events("started", "passed", "skipped", "failed")
+      exceptionFormat = TestExceptionFormat.FULL
+    }
+  }
 }
@@ -33,6 +33,10 @@ public final class CodeGPTPlugin {
     return getPluginOptionsPath() + File.separator + "indexes";
   }
 
+  public static @NotNull Path getResponseCachePath() {
+    return Path.of(PathManager.getSystemPath(), "CodeGPT", "response-cache");
+  }
+
   public static @NotNull String getLlamaSourcePath() {
     return getPluginBasePath() + File.separator + "llama.cpp";
   }
@@ -3,18 +3,20 @@ package ee.carlrobert.codegpt;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
-import com.knuddels.jtokkit.Encodings;
+import com.intellij.openapi.progress.ProgressManager;
 import com.knuddels.jtokkit.api.Encoding;
-import com.knuddels.jtokkit.api.EncodingRegistry;
-import com.knuddels.jtokkit.api.EncodingType;
 import com.knuddels.jtokkit.api.IntArrayList;
 import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.conversations.message.Message;
+import ee.carlrobert.codegpt.conversations.message.TokenCount;
+import ee.carlrobert.codegpt.tokenizer.TokenBoundaries;
+import ee.carlrobert.codegpt.tokenizer.TokenEstimator;
+import ee.carlrobert.codegpt.tokenizer.Tokenizer;
+import ee.carlrobert.codegpt.tokenizer.TokenizerRegistry;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionDetailedMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionStandardMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIMessageTextContent;
-import java.util.List;
 import java.util.stream.Stream;
 
 @Service
@@ -22,12 +24,15 @@ public final class EncodingManager {
 
   private static final String SPECIAL_START = "<|";
   private static final String SPECIAL_END = "|>";
+  // Every message follows <|start|>{role/name}\n{content}<|end|>\n
+  private static final int TOKENS_PER_MESSAGE = 4;
+  // Initial guess of how many characters a token takes, the window grows if it's too small
+  private static final int CHARS_PER_TOKEN_ESTIMATE = 4;
+  // Length of the chunks a cancellable count encodes between the checks for cancellation
+  private static final int CANCELLABLE_CHUNK_LENGTH = 8 * 1024;
 
   private static final Logger LOG = Logger.getInstance(EncodingManager.class);
 
-  private final EncodingRegistry registry = Encodings.newDefaultEncodingRegistry();
-  private final Encoding encoding = registry.getEncoding(EncodingType.CL100K_BASE);
-
   private EncodingManager() {
   }
 
@@ -37,11 +42,48 @@ public final class EncodingManager {
 
   public int countConversationTokens(Conversation conversation) {
     return (conversation == null ? Stream.<Message>empty() : conversation.getMessages().stream())
-        .mapToInt(
-            message -> countTokens(message.getPrompt()) + countTokens(message.getResponse()))
+        .mapToInt(message -> countPromptTokens(message) + countResponseTokens(message))
         .sum();
   }
 
+  /**
+   * Counts the tokens of the message's prompt, the count is stored with the message and reused
+   * until the prompt changes.
+   */
+  public int countPromptTokens(Message message) {
+    var prompt = message.getPrompt();
+    var tokenCount = message.getPromptTokenCount();
+    if (prompt == null) {
+      return 0;
+    }
+    var tokenizer = getTokenizer();
+    if (tokenCount == null || !tokenCount.isValidFor(tokenizer.getName(), prompt)) {
+      tokenCount = new TokenCount(
+          tokenizer.getName(), prompt.hashCode(), countTokens(tokenizer, prompt));
+      message.setPromptTokenCount(tokenCount);
+    }
+    return tokenCount.tokens();
+  }
+
+  /**
+   * Counts the tokens of the message's response, the count is stored with the message and
+   * reused until the response changes.
+   */
+  public int countResponseTokens(Message message) {
+    var response = message.getResponse();
+    var tokenCount = message.getResponseTokenCount();
+    if (response == null) {
+      return 0;
+    }
+    var tokenizer = getTokenizer();
+    if (tokenCount == null || !tokenCount.isValidFor(tokenizer.getName(), response)) {
+      tokenCount = new TokenCount(
+          tokenizer.getName(), response.hashCode(), countTokens(tokenizer, response));
+      message.setResponseTokenCount(tokenCount);
+    }
+    return tokenCount.tokens();
+  }
+
   public int countMessageTokens(OpenAIChatCompletionMessage message) {
     if (message instanceof OpenAIChatCompletionStandardMessage standardMessage) {
       return countMessageTokens(standardMessage.getRole(), standardMessage.getContent());
@@ -56,14 +98,66 @@ public final class EncodingManager {
   }
 
   public int countMessageTokens(String role, String content) {
-    var tokensPerMessage = 4; // every message follows <|start|>{role/name}\n{content}<|end|>\n
-    return countTokens(role + content) + tokensPerMessage;
+    return countTokens(role + content) + TOKENS_PER_MESSAGE;
+  }
+
+  /**
+   * Counts the tokens of a chat message made of the given role and the message's prompt,
+   * reusing the stored count of the prompt.
+   */
+  public int countPromptMessageTokens(String role, Message message) {
+    return countTokens(role) + countPromptTokens(message) + TOKENS_PER_MESSAGE;
   }
 
+  /**
+   * Counts the tokens of a chat message made of the given role and the message's response,
+   * reusing the stored count of the response.
+   */
+  public int countResponseMessageTokens(String role, Message message) {
+    return countTokens(role) + countResponseTokens(message) + TOKENS_PER_MESSAGE;
+  }
+
+  /**
+   * Counts the tokens of the text with the tokenizer of the selected service and model.
+   */
   public int countTokens(String text) {
+    return countTokens(getTokenizer(), text);
+  }
+
+  /**
+   * Counts the tokens of a long text chunk by chunk, checking the current progress indicator for
+   * cancellation in between.
+   *
+   * <p>Chunks end at a {@link TokenBoundaries token boundary} where possible, so the count is the
+   * same as counting the whole text at once.
+   *
+   * @throws com.intellij.openapi.progress.ProcessCanceledException if the count was canceled.
+   */
+  public int countTokensCancellable(CharSequence text) {
+    var tokenizer = getTokenizer();
+    var tokens = 0;
+    var start = 0;
+    while (start < text.length()) {
+      ProgressManager.checkCanceled();
+      var end = findChunkEnd(text, start);
+      tokens += countTokens(tokenizer, text.subSequence(start, end).toString());
+      start = end;
+    }
+    return tokens;
+  }
+
+  /**
+   * Estimates the tokens of the text in constant time, for counters that are updated as the user
+   * types or selects text.
+   */
+  public int estimateTokens(CharSequence text) {
+    return getTokenizer().fromEncodingTokens(TokenEstimator.estimateTokens(text));
+  }
+
+  private static int countTokens(Tokenizer tokenizer, String text) {
     try {
       // #444: Cl100kParser.split() throws AssertionError "Input is not UTF-8: "
-      return encoding.countTokens(text);
+      return tokenizer.countTokens(text);
     } catch (Exception | Error ex) {
       LOG.warn("Could not count tokens for: " + text, ex);
       return 0;
@@ -75,22 +169,119 @@ public final class EncodingManager {
    *
    * @param text      The text to truncate.
    * @param maxTokens The maximum number of tokens to keep.
-   * @param fromStart Whether to truncate from the start or the end of the text.
+   * @param fromStart Whether to keep the start or the end of the text.
    * @return The truncated text.
    */
-  public String truncateText(String text, int maxTokens, boolean fromStart) {
-    var textWithSpecialEncodingsRemoved = text.replace(SPECIAL_START, "").replace(SPECIAL_END, "");
-    var tokens = encoding.encode(textWithSpecialEncodingsRemoved);
-    int tokensToRetrieve = Math.min(maxTokens, tokens.size());
-    int startIndex = fromStart ? 0 : tokens.size() - tokensToRetrieve;
-    var truncatedList =
-        tokens.boxed().subList(startIndex, startIndex + tokensToRetrieve);
-    return encoding.decode(convertToIntArrayList(truncatedList));
-  }
-
-  private IntArrayList convertToIntArrayList(List<Integer> tokens) {
-    var result = new IntArrayList(tokens.size());
-    tokens.forEach(result::add);
-    return result;
+  public String truncateText(CharSequence text, int maxTokens, boolean fromStart) {
+    var offset = findTruncationOffset(text, maxTokens, fromStart);
+    var truncated = fromStart
+        ? text.subSequence(0, offset)
+        : text.subSequence(offset, text.length());
+    return truncated.toString().replace(SPECIAL_START, "").replace(SPECIAL_END, "");
+  }
+
+  /**
+   * Finds where to cut the given text so that the kept part fits into the given number of
+   * tokens.
+   *
+   * <p>The text is encoded with the selected model's encoding. If the model's tokenizer is only
+   * approximated by an encoding, the budget is scaled down by its correction factor.
+   *
+   * <p>Only the kept end of the text is encoded, starting with a window of about as many
+   * characters as the tokens are expected to take and doubling it until the budget is used up, so
+   * the cost depends on the budget rather than on the length of the text. The window is cut at a
+   * {@link TokenBoundaries token boundary}, so it encodes to exactly the tokens the whole text
+   * starts or ends with, and the offset is the same as if the whole text was encoded.
+   *
+   * @param text      The text to truncate.
+   * @param maxTokens The maximum number of tokens to keep.
+   * @param fromStart Whether to keep the start or the end of the text.
+   * @return The end offset of the kept text if the start is kept, otherwise its start offset.
+   */
+  public int findTruncationOffset(CharSequence text, int maxTokens, boolean fromStart) {
+    return findTruncationOffset(getTokenizer(), text, maxTokens, fromStart);
+  }
+
+  static int findTruncationOffset(
+      Tokenizer tokenizer,
+      CharSequence text,
+      int maxTokens,
+      boolean fromStart) {
+    if (maxTokens <= 0) {
+      return fromStart ? 0 : text.length();
+    }
+
+    var encoding = tokenizer.encoding();
+    var budget = Math.max(1, tokenizer.toEncodingTokens(maxTokens));
+    var windowLength = (int) Math.min(text.length(), (long) budget * CHARS_PER_TOKEN_ESTIMATE);
+    while (true) {
+      var windowStart = fromStart
+          ? 0
+          : Math.max(0, TokenBoundaries.findBoundaryBefore(text, text.length() - windowLength, 0));
+      var windowEnd = fromStart
+          ? TokenBoundaries.findBoundaryAfter(text, windowLength)
+          : text.length();
+      var window = text.subSequence(windowStart, windowEnd);
+      var tokens = encoding.encodeOrdinary(window.toString());
+      if (tokens.size() > budget) {
+        if (fromStart) {
+          return getCharCount(window, getByteCount(encoding, tokens, budget), false);
+        }
+        var droppedBytes = getByteCount(encoding, tokens, tokens.size() - budget);
+        return windowStart + getCharCount(window, droppedBytes, true);
+      }
+      if (window.length() == text.length()) {
+        return fromStart ? text.length() : 0;
+      }
+      windowLength = (int) Math.min(text.length(), 2L * window.length());
+    }
+  }
+
+  private static int findChunkEnd(CharSequence text, int start) {
+    var end = start + CANCELLABLE_CHUNK_LENGTH;
+    if (end >= text.length()) {
+      return text.length();
+    }
+    var boundary =
+        TokenBoundaries.findBoundaryBefore(text, end, start + CANCELLABLE_CHUNK_LENGTH / 2);
+    if (boundary != -1) {
+      return boundary;
+    }
+    return Character.isHighSurrogate(text.charAt(end - 1)) ? end + 1 : end;
+  }
+
+  /**
+   * @return The number of UTF-8 bytes the first {@code count} tokens decode to.
+   */
+  private static int getByteCount(Encoding encoding, IntArrayList tokens, int count) {
+    var leadingTokens = new IntArrayList(count);
+    for (int i = 0; i < count; i++) {
+      leadingTokens.add(tokens.get(i));
+    }
+    return encoding.decodeBytes(leadingTokens).length;
+  }
+
+  /**
+   * @param roundUp Whether a character that is only partly covered by the bytes is counted.
+   * @return The number of leading characters of the text which the given UTF-8 bytes cover.
+   */
+  static int getCharCount(CharSequence text, int byteCount, boolean roundUp) {
+    var bytes = 0;
+    var index = 0;
+    while (index < text.length() && bytes < byteCount) {
+      var codePoint = Character.codePointAt(text, index);
+      var codePointBytes =
+          codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+      if (bytes + codePointBytes > byteCount && !roundUp) {
+        break;
+      }
+      bytes += codePointBytes;
+      index += Character.charCount(codePoint);
+    }
+    return index;
+  }
+
+  private static Tokenizer getTokenizer() {
+    return TokenizerRegistry.getInstance().getCurrentTokenizer();
   }
 }
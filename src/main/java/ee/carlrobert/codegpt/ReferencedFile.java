@@ -1,5 +1,7 @@
 package ee.carlrobert.codegpt;
 
+import com.intellij.openapi.vfs.VirtualFile;
+import ee.carlrobert.codegpt.util.file.FileUtil;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -24,6 +26,19 @@ public class ReferencedFile {
     }
   }
 
+  /**
+   * Reads the file's current content, including changes that haven't been saved yet.
+   */
+  public ReferencedFile(VirtualFile file) {
+    this.fileName = file.getName();
+    this.filePath = file.getPath();
+    try {
+      this.fileContent = FileUtil.readContent(file);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   public ReferencedFile(String fileName, String filePath, String fileContent) {
     this.fileName = fileName;
     this.filePath = filePath;
@@ -0,0 +1,58 @@
+package ee.carlrobert.codegpt;
+
+import ee.carlrobert.codegpt.tokenizer.TokenBoundaries;
+import java.util.function.ToIntFunction;
+
+/**
+ * Counts the tokens of a streamed response without encoding the whole response on every chunk.
+ *
+ * <p>Only a trailing window of the text is encoded again when a chunk arrives. Once the window
+ * grows past twice its size, everything before the last {@link TokenBoundaries token boundary}
+ * that is at least a window away from the end is counted one final time and dropped.
+ *
+ * <p>Not thread-safe, chunks are expected to be appended by the thread reading the stream.
+ */
+public class StreamingTokenCounter {
+
+  static final int WINDOW_SIZE = 128;
+
+  private final ToIntFunction<String> tokenCounter;
+  private final StringBuilder window = new StringBuilder();
+  private int committedTokens;
+  private int windowTokens;
+
+  public StreamingTokenCounter(ToIntFunction<String> tokenCounter) {
+    this.tokenCounter = tokenCounter;
+  }
+
+  /**
+   * @return The token count of all the text appended so far.
+   */
+  public int append(String chunk) {
+    if (chunk == null || chunk.isEmpty()) {
+      return getCount();
+    }
+
+    window.append(chunk);
+    if (window.length() > 2 * WINDOW_SIZE) {
+      var boundary =
+          TokenBoundaries.findBoundaryBefore(window, window.length() - WINDOW_SIZE, 0);
+      if (boundary > 0) {
+        committedTokens += tokenCounter.applyAsInt(window.substring(0, boundary));
+        window.delete(0, boundary);
+      }
+    }
+    windowTokens = tokenCounter.applyAsInt(window.toString());
+    return getCount();
+  }
+
+  public int getCount() {
+    return committedTokens + windowTokens;
+  }
+
+  public void reset() {
+    window.setLength(0);
+    committedTokens = 0;
+    windowTokens = 0;
+  }
+}
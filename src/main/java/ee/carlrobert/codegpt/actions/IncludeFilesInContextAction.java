@@ -7,14 +7,17 @@ import static ee.carlrobert.codegpt.settings.IncludedFilesSettingsState.DEFAULT_
 import static java.lang.String.format;
 
 import com.intellij.icons.AllIcons;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogBuilder;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.PsiElement;
 import com.intellij.ui.CheckboxTreeListener;
 import com.intellij.ui.CheckedTreeNode;
 import com.intellij.ui.ScrollPaneFactory;
@@ -25,19 +28,19 @@ import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UI.PanelFactory;
 import ee.carlrobert.codegpt.CodeGPTBundle;
 import ee.carlrobert.codegpt.CodeGPTKeys;
-import ee.carlrobert.codegpt.EncodingManager;
 import ee.carlrobert.codegpt.Icons;
-import ee.carlrobert.codegpt.ReferencedFile;
 import ee.carlrobert.codegpt.settings.IncludedFilesSettings;
+import ee.carlrobert.codegpt.tokenizer.FileTokenCountCache;
 import ee.carlrobert.codegpt.ui.UIUtil;
 import ee.carlrobert.codegpt.ui.checkbox.FileCheckboxTree;
 import ee.carlrobert.codegpt.ui.checkbox.VirtualFileCheckboxTree;
 import ee.carlrobert.codegpt.util.file.FileUtil;
 import java.awt.Dimension;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -46,8 +49,6 @@ import org.jetbrains.annotations.Nullable;
 
 public class IncludeFilesInContextAction extends AnAction {
 
-  private static final Logger LOG = Logger.getInstance(IncludeFilesInContextAction.class);
-
   public IncludeFilesInContextAction() {
     super(Icons.AddFile);
   }
@@ -64,11 +65,12 @@ public class IncludeFilesInContextAction extends AnAction {
       throw new RuntimeException("Could not obtain file tree");
     }
 
-    var totalTokensLabel = new TotalTokensLabel(checkboxTree.getReferencedFiles());
+    var totalTokensLabel = new TotalTokensLabel(project, checkboxTree);
+    Disposer.register(project, totalTokensLabel);
     checkboxTree.addCheckboxTreeListener(new CheckboxTreeListener() {
       @Override
       public void nodeStateChanged(@NotNull CheckedTreeNode node) {
-        totalTokensLabel.updateState(node);
+        totalTokensLabel.scheduleUpdate();
       }
     });
 
@@ -76,17 +78,23 @@ public class IncludeFilesInContextAction extends AnAction {
     var promptTemplateTextArea = UIUtil.createTextArea(includedFilesSettings.getPromptTemplate());
     var repeatableContextTextArea =
         UIUtil.createTextArea(includedFilesSettings.getRepeatableContext());
-    var show = showMultiFilePromptDialog(
-        project,
-        promptTemplateTextArea,
-        repeatableContextTextArea,
-        totalTokensLabel,
-        checkboxTree);
+    int show;
+    try {
+      show = showMultiFilePromptDialog(
+          project,
+          promptTemplateTextArea,
+          repeatableContextTextArea,
+          totalTokensLabel,
+          checkboxTree);
+    } finally {
+      Disposer.dispose(totalTokensLabel);
+    }
     if (show == OK_EXIT_CODE) {
-      project.putUserData(CodeGPTKeys.SELECTED_FILES, checkboxTree.getReferencedFiles());
+      var referencedFiles = checkboxTree.getReferencedFiles();
+      project.putUserData(CodeGPTKeys.SELECTED_FILES, referencedFiles);
       project.getMessageBus()
           .syncPublisher(IncludeFilesInContextNotifier.FILES_INCLUDED_IN_CONTEXT_TOPIC)
-          .filesIncluded(checkboxTree.getReferencedFiles());
+          .filesIncluded(referencedFiles);
       includedFilesSettings.setPromptTemplate(promptTemplateTextArea.getText());
       includedFilesSettings.setRepeatableContext(repeatableContextTextArea.getText());
     }
@@ -101,73 +109,91 @@ public class IncludeFilesInContextAction extends AnAction {
     return null;
   }
 
-  private static class TotalTokensLabel extends JBLabel {
+  /**
+   * Sums the token counts of the checked files. Files that haven't been counted yet are counted
+   * once in the background, the label is updated as they are done.
+   */
+  private static class TotalTokensLabel extends JBLabel implements Disposable {
 
-    private static final EncodingManager encodingManager = EncodingManager.getInstance();
+    private static final Logger LOG = Logger.getInstance(TotalTokensLabel.class);
 
-    private int fileCount;
-    private int totalTokens;
+    private final FileTokenCountCache tokenCountCache;
+    private final FileCheckboxTree checkboxTree;
+    private final ProgressIndicator indicator = new EmptyProgressIndicator();
+    private final Map<VirtualFile, Integer> tokenCounts = new HashMap<>();
+    private final Set<VirtualFile> pendingFiles = new HashSet<>();
+    private final Set<VirtualFile> requestedFiles = new HashSet<>();
+    private boolean updateScheduled;
+    private boolean disposed;
 
-    TotalTokensLabel(List<ReferencedFile> referencedFiles) {
-      fileCount = referencedFiles.size();
-      totalTokens = calculateTotalTokens(referencedFiles);
+    TotalTokensLabel(Project project, FileCheckboxTree checkboxTree) {
+      this.tokenCountCache = FileTokenCountCache.getInstance(project);
+      this.checkboxTree = checkboxTree;
       updateText();
     }
 
-    void updateState(CheckedTreeNode checkedNode) {
-      var fileContent = getNodeFileContent(checkedNode);
-      if (fileContent != null) {
-        int tokenCount = encodingManager.countTokens(fileContent);
-        if (checkedNode.isChecked()) {
-          totalTokens += tokenCount;
-          fileCount++;
-        } else {
-          totalTokens -= tokenCount;
-          fileCount--;
-        }
-
-        SwingUtilities.invokeLater(this::updateText);
-      }
-    }
-
-    private @Nullable String getNodeFileContent(CheckedTreeNode checkedNode) {
-      var userObject = checkedNode.getUserObject();
-      if (userObject instanceof PsiElement psiElement) {
-        var psiFile = psiElement.getContainingFile();
-        if (psiFile != null) {
-          var virtualFile = psiFile.getVirtualFile();
-          if (virtualFile != null) {
-            return getVirtualFileContent(virtualFile);
+    void scheduleUpdate() {
+      // Checking a folder changes the state of every node in it
+      if (!updateScheduled && !disposed) {
+        updateScheduled = true;
+        SwingUtilities.invokeLater(() -> {
+          updateScheduled = false;
+          if (!disposed) {
+            updateText();
           }
-        }
-      }
-      if (userObject instanceof VirtualFile virtualFile) {
-        return getVirtualFileContent(virtualFile);
+        });
       }
-      return null;
     }
 
-    private String getVirtualFileContent(VirtualFile virtualFile) {
-      try {
-        return new String(Files.readAllBytes(Paths.get(virtualFile.getPath())));
-      } catch (IOException ex) {
-        LOG.error(ex);
-      }
-      return null;
+    @Override
+    public void dispose() {
+      disposed = true;
+      indicator.cancel();
     }
 
     private void updateText() {
+      var checkedFiles = checkboxTree.getCheckedFiles();
+      var totalTokens = 0;
+      var uncountedFiles = new ArrayList<VirtualFile>();
+      for (var file : checkedFiles) {
+        var tokenCount = tokenCounts.get(file);
+        if (tokenCount == null && !requestedFiles.contains(file)) {
+          tokenCount = tokenCountCache.getCachedTokenCount(file);
+          if (tokenCount == null) {
+            uncountedFiles.add(file);
+          } else {
+            tokenCounts.put(file, tokenCount);
+          }
+        }
+        if (tokenCount != null) {
+          totalTokens += tokenCount;
+        }
+      }
+
+      // Each file is counted once per dialog, even if it changes or is evicted meanwhile
+      requestedFiles.addAll(uncountedFiles);
+      pendingFiles.addAll(uncountedFiles);
+      var counting = checkedFiles.stream().anyMatch(pendingFiles::contains);
       setText(format(
-          "<html><strong>%d</strong> %s totaling <strong>%s</strong> tokens</html>",
-          fileCount,
-          fileCount == 1 ? "file" : "files",
-          FileUtil.convertLongValue(totalTokens)));
-    }
+          "<html><strong>%d</strong> %s totaling <strong>%s</strong> tokens%s</html>",
+          checkedFiles.size(),
+          checkedFiles.size() == 1 ? "file" : "files",
+          FileUtil.convertLongValue(totalTokens),
+          counting ? " (counting...)" : ""));
 
-    private int calculateTotalTokens(List<ReferencedFile> referencedFiles) {
-      return referencedFiles.stream()
-          .mapToInt(file -> encodingManager.countTokens(file.getFileContent()))
-          .sum();
+      if (!uncountedFiles.isEmpty()) {
+        tokenCountCache.countInBackground(uncountedFiles, indicator)
+            .whenComplete((counts, error) -> SwingUtilities.invokeLater(() -> {
+              if (error != null && !indicator.isCanceled()) {
+                LOG.warn("Could not count the tokens of the checked files", error);
+              }
+              if (counts != null) {
+                tokenCounts.putAll(counts);
+              }
+              uncountedFiles.forEach(pendingFiles::remove);
+              scheduleUpdate();
+            }));
+      }
     }
   }
 
@@ -0,0 +1,50 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the provider clients built by {@link CompletionClientProvider}, so that credentials and
+ * settings are read only once instead of on every request.
+ *
+ * <p>The cached clients are never modified after creation. Whenever provider settings,
+ * credentials or connection settings change, the whole cache is dropped and the clients are
+ * lazily rebuilt on the next request.
+ */
+@Service
+public final class CompletionClientCache implements Disposable {
+
+  private final Map<ServiceType, Object> clients = new ConcurrentHashMap<>();
+
+  public CompletionClientCache() {
+    ApplicationManager.getApplication().getMessageBus()
+        .connect(this)
+        .subscribe(
+            ProviderSettingsChangeNotifier.getPROVIDER_SETTINGS_CHANGE_TOPIC(),
+            (ProviderSettingsChangeNotifier) this::invalidateAll);
+  }
+
+  public static CompletionClientCache getInstance() {
+    return ApplicationManager.getApplication().getService(CompletionClientCache.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getClient(ServiceType serviceType, Supplier<T> clientFactory) {
+    return (T) clients.computeIfAbsent(serviceType, key -> clientFactory.get());
+  }
+
+  public void invalidateAll() {
+    clients.clear();
+  }
+
+  @Override
+  public void dispose() {
+    invalidateAll();
+  }
+}
@@ -4,7 +4,7 @@ import static ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential;
 
 import com.intellij.openapi.application.ApplicationManager;
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey;
-import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
 import ee.carlrobert.codegpt.settings.service.anthropic.AnthropicSettings;
 import ee.carlrobert.codegpt.settings.service.azure.AzureSettings;
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
@@ -18,34 +18,72 @@ import ee.carlrobert.llm.client.google.GoogleClient;
 import ee.carlrobert.llm.client.llama.LlamaClient;
 import ee.carlrobert.llm.client.ollama.OllamaClient;
 import ee.carlrobert.llm.client.openai.OpenAIClient;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.util.concurrent.TimeUnit;
-import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 
 public class CompletionClientProvider {
 
   public static CodeGPTClient getCodeGPTClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.CODEGPT,
+        CompletionClientProvider::createCodeGPTClient);
+  }
+
+  public static OpenAIClient getOpenAIClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.OPENAI,
+        CompletionClientProvider::createOpenAIClient);
+  }
+
+  public static ClaudeClient getClaudeClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.ANTHROPIC,
+        CompletionClientProvider::createClaudeClient);
+  }
+
+  public static AzureClient getAzureClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.AZURE,
+        CompletionClientProvider::createAzureClient);
+  }
+
+  public static LlamaClient getLlamaClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.LLAMA_CPP,
+        CompletionClientProvider::createLlamaClient);
+  }
+
+  public static OllamaClient getOllamaClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.OLLAMA,
+        CompletionClientProvider::createOllamaClient);
+  }
+
+  public static GoogleClient getGoogleClient() {
+    return CompletionClientCache.getInstance().getClient(
+        ServiceType.GOOGLE,
+        CompletionClientProvider::createGoogleClient);
+  }
+
+  private static CodeGPTClient createCodeGPTClient() {
     return new CodeGPTClient(
         getCredential(CredentialKey.CODEGPT_API_KEY),
-        getDefaultClientBuilder());
+        getDefaultClientBuilder(ServiceType.CODEGPT));
   }
 
-  public static OpenAIClient getOpenAIClient() {
+  private static OpenAIClient createOpenAIClient() {
     return new OpenAIClient.Builder(getCredential(CredentialKey.OPENAI_API_KEY))
         .setOrganization(OpenAISettings.getCurrentState().getOrganization())
-        .build(getDefaultClientBuilder());
+        .build(getDefaultClientBuilder(ServiceType.OPENAI));
   }
 
-  public static ClaudeClient getClaudeClient() {
+  private static ClaudeClient createClaudeClient() {
     return new ClaudeClient(
         getCredential(CredentialKey.ANTHROPIC_API_KEY),
         AnthropicSettings.getCurrentState().getApiVersion(),
-        getDefaultClientBuilder());
+        getDefaultClientBuilder(ServiceType.ANTHROPIC));
   }
 
-  public static AzureClient getAzureClient() {
+  private static AzureClient createAzureClient() {
     var settings = AzureSettings.getCurrentState();
     var params = new AzureCompletionRequestParams(
         settings.getResourceName(),
@@ -57,10 +95,10 @@ public class CompletionClientProvider {
         : getCredential(CredentialKey.AZURE_OPENAI_API_KEY);
     return new AzureClient.Builder(credential, params)
         .setActiveDirectoryAuthentication(useAzureActiveDirectoryAuthentication)
-        .build(getDefaultClientBuilder());
+        .build(getDefaultClientBuilder(ServiceType.AZURE));
   }
 
-  public static LlamaClient getLlamaClient() {
+  private static LlamaClient createLlamaClient() {
     var llamaSettings = LlamaSettings.getCurrentState();
     var builder = new LlamaClient.Builder()
         .setPort(llamaSettings.getServerPort());
@@ -71,10 +109,10 @@ public class CompletionClientProvider {
         builder.setApiKey(apiKey);
       }
     }
-    return builder.build(getDefaultClientBuilder());
+    return builder.build(getDefaultClientBuilder(ServiceType.LLAMA_CPP));
   }
 
-  public static OllamaClient getOllamaClient() {
+  private static OllamaClient createOllamaClient() {
     var host = ApplicationManager.getApplication()
         .getService(OllamaSettings.class)
         .getState()
@@ -86,36 +124,26 @@ public class CompletionClientProvider {
     if (apiKey != null && !apiKey.isBlank()) {
       builder.setApiKey(apiKey);
     }
-    return builder.build(getDefaultClientBuilder());
+    return builder.build(getDefaultClientBuilder(ServiceType.OLLAMA));
   }
 
-
-  public static GoogleClient getGoogleClient() {
+  private static GoogleClient createGoogleClient() {
     return new GoogleClient.Builder(getCredential(CredentialKey.GOOGLE_API_KEY))
-        .build(getDefaultClientBuilder());
-  }
-
-  public static OkHttpClient.Builder getDefaultClientBuilder() {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder();
-    var advancedSettings = AdvancedSettings.getCurrentState();
-    var proxyHost = advancedSettings.getProxyHost();
-    var proxyPort = advancedSettings.getProxyPort();
-    if (!proxyHost.isEmpty() && proxyPort != 0) {
-      builder.proxy(
-          new Proxy(advancedSettings.getProxyType(), new InetSocketAddress(proxyHost, proxyPort)));
-      if (advancedSettings.isProxyAuthSelected()) {
-        builder.proxyAuthenticator((route, response) ->
-            response.request()
-                .newBuilder()
-                .header("Proxy-Authorization", Credentials.basic(
-                    advancedSettings.getProxyUsername(),
-                    advancedSettings.getProxyPassword()))
-                .build());
-      }
-    }
+        .build(getDefaultClientBuilder(ServiceType.GOOGLE));
+  }
+
+  /**
+   * Returns the shared, pooled HTTP client of the given provider.
+   */
+  public static OkHttpClient getDefaultClient(ServiceType serviceType) {
+    return HttpClientRegistry.getInstance().getClient(serviceType);
+  }
 
-    return builder
-        .connectTimeout(advancedSettings.getConnectTimeout(), TimeUnit.SECONDS)
-        .readTimeout(advancedSettings.getReadTimeout(), TimeUnit.SECONDS);
+  /**
+   * Returns a builder derived from the provider's shared client. Clients built from it share the
+   * same connection pool and dispatcher.
+   */
+  public static OkHttpClient.Builder getDefaultClientBuilder(ServiceType serviceType) {
+    return getDefaultClient(serviceType).newBuilder();
   }
 }
@@ -1,27 +1,77 @@
 package ee.carlrobert.codegpt.completions;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import ee.carlrobert.codegpt.events.CodeGPTEvent;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
 import ee.carlrobert.codegpt.telemetry.TelemetryAction;
 import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
 import ee.carlrobert.llm.completion.CompletionEventListener;
+import ee.carlrobert.llm.completion.CompletionRequest;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import okhttp3.sse.EventSource;
+import org.jetbrains.annotations.Nullable;
 
+/**
+ * Sends a chat request and retries it with exponential backoff when the connection drops.
+ *
+ * <p>A request that dropped before streaming anything is simply sent again. A request that
+ * dropped mid-stream is resumed by asking the provider to continue the partial response, for
+ * providers which support it, and the continuation is appended to the exact text the provider
+ * was asked to continue. A timeout is only retried if nothing was received yet, since the
+ * provider may still be generating the response.
+ *
+ * <p>Trailing whitespace is only shown once more text follows it or the response ends. A provider
+ * may leave it out of the text it continues, the response shown then still matches the stitched
+ * one.
+ */
 public class CompletionRequestHandler {
 
-  private final StringBuilder messageBuilder = new StringBuilder();
+  private static final Logger LOG = Logger.getInstance(CompletionRequestHandler.class);
+  private static final int MAX_RETRIES = 3;
+  private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+  private final StreamingResponse response = new StreamingResponse();
   private final CompletionResponseEventListener completionResponseEventListener;
-  private EventSource eventSource;
+  private final ChatRequestSender requestSender;
+  private final ScheduledExecutorService retryExecutor;
+  // Whitespace at the end of the response which hasn't been shown yet
+  private final StringBuilder unshownWhitespace = new StringBuilder();
+  private volatile EventSource eventSource;
+  private volatile ServiceType servingService;
+  private volatile boolean cancelled;
+  private RequestCompletionEventListener eventListener;
+  private ScheduledFuture<?> retryTask;
+  private int retries;
 
   public CompletionRequestHandler(CompletionResponseEventListener completionResponseEventListener) {
+    this(
+        completionResponseEventListener,
+        new RoutingRequestSender(),
+        AppExecutorUtil.getAppScheduledExecutorService());
+  }
+
+  CompletionRequestHandler(
+      CompletionResponseEventListener completionResponseEventListener,
+      ChatRequestSender requestSender,
+      ScheduledExecutorService retryExecutor) {
     this.completionResponseEventListener = completionResponseEventListener;
+    this.requestSender = requestSender;
+    this.retryExecutor = retryExecutor;
   }
 
   public void call(CallParameters callParameters) {
     try {
-      eventSource = startCall(callParameters, new RequestCompletionEventListener(callParameters));
+      eventListener = new RequestCompletionEventListener(callParameters);
+      servingService = GeneralSettings.getSelectedService();
+      eventSource = startCall(callParameters, eventListener);
     } catch (TotalUsageExceededException e) {
       completionResponseEventListener.handleTokensExceeded(
           callParameters.getConversation(),
@@ -32,6 +82,14 @@ public class CompletionRequestHandler {
   }
 
   public void cancel() {
+    cancelled = true;
+    synchronized (this) {
+      if (retryTask != null && retryTask.cancel(false)) {
+        // Waiting for a retry, there is no request which would report the cancellation
+        eventListener.onCancelled(new StringBuilder());
+        return;
+      }
+    }
     if (eventSource != null) {
       eventSource.cancel();
     }
@@ -41,14 +99,108 @@ public class CompletionRequestHandler {
       CallParameters callParameters,
       CompletionEventListener<String> eventListener) {
     try {
-      return CompletionRequestService.getInstance()
-          .getChatCompletionAsync(callParameters, eventListener);
+      return routeCall(callParameters, eventListener);
     } catch (Throwable ex) {
       handleCallException(ex);
       throw ex;
     }
   }
 
+  private EventSource routeCall(
+      CallParameters callParameters,
+      CompletionEventListener<String> eventListener) {
+    return requestSender.send(
+        callParameters,
+        eventListener,
+        decision -> {
+          servingService = decision.routedService();
+          completionResponseEventListener.handleRoutingDecision(decision);
+        });
+  }
+
+  /**
+   * Schedules another attempt of a request which failed with the given error.
+   *
+   * @return {@code false} if the request should not be retried.
+   */
+  private boolean scheduleRetry(CallParameters callParameters, @Nullable Throwable ex) {
+    if (cancelled || retries >= MAX_RETRIES || !isRetryableError(ex, response.isEmpty())) {
+      return false;
+    }
+
+    var serviceType = servingService;
+    CompletionRequest continuationRequest = null;
+    if (!response.isEmpty()) {
+      var factory = CompletionRequestFactory.getFactory(serviceType);
+      var partialResponse = response.toString();
+      var prefix = factory.getContinuationPrefix(partialResponse);
+      // Only the whitespace that hasn't been shown yet may be left out
+      if (prefix.length() < partialResponse.stripTrailing().length()) {
+        return false;
+      }
+      continuationRequest = factory.createChatContinuationRequest(callParameters, prefix);
+      if (continuationRequest == null) {
+        return false;
+      }
+      response.truncate(prefix.length());
+      unshownWhitespace.setLength(0);
+      unshownWhitespace.append(prefix, prefix.stripTrailing().length(), prefix.length());
+    }
+
+    var backoffMillis = INITIAL_BACKOFF_MILLIS << retries++;
+    LOG.info("Connection to " + serviceType + " dropped, retrying in " + backoffMillis + "ms", ex);
+    var request = continuationRequest;
+    synchronized (this) {
+      if (cancelled) {
+        return false;
+      }
+      retryTask = retryExecutor.schedule(
+          () -> retry(callParameters, serviceType, request),
+          backoffMillis,
+          TimeUnit.MILLISECONDS);
+    }
+    return true;
+  }
+
+  private void retry(
+      CallParameters callParameters,
+      ServiceType serviceType,
+      @Nullable CompletionRequest continuationRequest) {
+    if (cancelled) {
+      return;
+    }
+    try {
+      if (continuationRequest == null) {
+        servingService = GeneralSettings.getSelectedService();
+        eventSource = routeCall(callParameters, eventListener);
+      } else {
+        eventSource = requestSender.resume(
+            serviceType,
+            callParameters,
+            continuationRequest,
+            eventListener);
+      }
+    } catch (Throwable ex) {
+      eventListener.onError(new ErrorDetails("Something went wrong"), ex);
+      return;
+    }
+    if (cancelled) {
+      eventSource.cancel();
+    }
+  }
+
+  private static boolean isRetryableError(@Nullable Throwable ex, boolean nothingReceived) {
+    for (var cause = ex; cause != null; cause = cause.getCause()) {
+      if (cause instanceof InterruptedIOException) {
+        return nothingReceived;
+      }
+      if (cause instanceof IOException) {
+        return !"Canceled".equals(cause.getMessage());
+      }
+    }
+    return false;
+  }
+
   private void handleCallException(Throwable ex) {
     var errorMessage = "Something went wrong";
     if (ex instanceof TotalUsageExceededException) {
@@ -70,7 +222,7 @@ public class CompletionRequestHandler {
     @Override
     public void onEvent(String data) {
       try {
-        var event = new ObjectMapper().readValue(data, CodeGPTEvent.class);
+        var event = JsonCodec.read(data, CodeGPTEvent.class);
         completionResponseEventListener.handleCodeGPTEvent(event);
       } catch (JsonProcessingException e) {
         // ignore
@@ -79,23 +231,33 @@ public class CompletionRequestHandler {
 
     @Override
     public void onMessage(String message, EventSource eventSource) {
-      messageBuilder.append(message);
-      callParameters.getMessage().setResponse(messageBuilder.toString());
-      completionResponseEventListener.handleMessage(message);
+      response.append(message);
+      if (response.checkpoint()) {
+        callParameters.getMessage().setResponse(response.toString());
+      }
+      showMessage(message);
     }
 
+    // The response of a resumed request only holds the continuation, use the stitched one
     @Override
-    public void onComplete(StringBuilder messageBuilder) {
-      completionResponseEventListener.handleCompleted(messageBuilder.toString(), callParameters);
+    public void onComplete(StringBuilder builder) {
+      handleCompleted();
     }
 
     @Override
-    public void onCancelled(StringBuilder messageBuilder) {
-      completionResponseEventListener.handleCompleted(messageBuilder.toString(), callParameters);
+    public void onCancelled(StringBuilder builder) {
+      handleCompleted();
     }
 
     @Override
     public void onError(ErrorDetails error, Throwable ex) {
+      if (scheduleRetry(callParameters, ex)) {
+        return;
+      }
+      if (!response.isEmpty()) {
+        callParameters.getMessage().setResponse(response.toString());
+      }
+      showUnshownWhitespace();
       try {
         completionResponseEventListener.handleError(error, ex);
       } finally {
@@ -103,6 +265,32 @@ public class CompletionRequestHandler {
       }
     }
 
+    private void showMessage(String message) {
+      var visibleLength = message.stripTrailing().length();
+      if (visibleLength == 0) {
+        unshownWhitespace.append(message);
+        return;
+      }
+      var visibleMessage = unshownWhitespace + message.substring(0, visibleLength);
+      unshownWhitespace.setLength(0);
+      unshownWhitespace.append(message, visibleLength, message.length());
+      completionResponseEventListener.handleMessage(visibleMessage);
+    }
+
+    private void showUnshownWhitespace() {
+      if (!unshownWhitespace.isEmpty()) {
+        completionResponseEventListener.handleMessage(unshownWhitespace.toString());
+        unshownWhitespace.setLength(0);
+      }
+    }
+
+    private void handleCompleted() {
+      showUnshownWhitespace();
+      var completedResponse = response.toString();
+      callParameters.getMessage().setResponse(completedResponse);
+      completionResponseEventListener.handleCompleted(completedResponse, callParameters);
+    }
+
     private void sendError(ErrorDetails error, Throwable ex) {
       var telemetryMessage = TelemetryAction.COMPLETION_ERROR.createActionMessage();
       if ("insufficient_quota".equals(error.getCode())) {
@@ -126,4 +314,46 @@ public class CompletionRequestHandler {
         .property("service", GeneralSettings.getSelectedService().getCode().toLowerCase())
         .send();
   }
+
+  /**
+   * Sends the requests of a chat.
+   */
+  interface ChatRequestSender {
+
+    EventSource send(
+        CallParameters callParameters,
+        CompletionEventListener<String> eventListener,
+        Consumer<RoutingDecision> routingListener);
+
+    EventSource resume(
+        ServiceType serviceType,
+        CallParameters callParameters,
+        CompletionRequest continuationRequest,
+        CompletionEventListener<String> eventListener);
+  }
+
+  private static final class RoutingRequestSender implements ChatRequestSender {
+
+    @Override
+    public EventSource send(
+        CallParameters callParameters,
+        CompletionEventListener<String> eventListener,
+        Consumer<RoutingDecision> routingListener) {
+      return CompletionRequestRouter.getInstance()
+          .getChatCompletionAsync(callParameters, eventListener, routingListener);
+    }
+
+    @Override
+    public EventSource resume(
+        ServiceType serviceType,
+        CallParameters callParameters,
+        CompletionRequest continuationRequest,
+        CompletionEventListener<String> eventListener) {
+      return CompletionRequestRouter.getInstance().getChatContinuationAsync(
+          serviceType,
+          callParameters,
+          continuationRequest,
+          eventListener);
+    }
+  }
 }
@@ -0,0 +1,285 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import ee.carlrobert.codegpt.completions.ProviderHealthTracker.CircuitState;
+import ee.carlrobert.codegpt.completions.ProviderHealthTracker.Permit;
+import ee.carlrobert.codegpt.completions.RoutingDecision.Reason;
+import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
+import ee.carlrobert.llm.completion.CompletionEventListener;
+import ee.carlrobert.llm.completion.CompletionRequest;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import okhttp3.Request;
+import okhttp3.sse.EventSource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Routes chat completion requests between the selected provider and the optional fallback
+ * provider configured in the general settings.
+ *
+ * <p>Every request feeds the {@link ProviderHealthTracker}. When a fallback provider is
+ * configured, requests skip the selected provider while its circuit is open, and requests that
+ * fail before producing any output are retried once against the fallback provider.
+ */
+@Service
+public final class CompletionRequestRouter {
+
+  private static final Logger LOG = Logger.getInstance(CompletionRequestRouter.class);
+
+  private final ProviderHealthTracker healthTracker;
+  private final ChatCompletionSender sender;
+
+  CompletionRequestRouter() {
+    this(ProviderHealthTracker.getInstance(), CompletionRequestRouter::sendToProvider);
+  }
+
+  @NonInjectable
+  CompletionRequestRouter(ProviderHealthTracker healthTracker, ChatCompletionSender sender) {
+    this.healthTracker = healthTracker;
+    this.sender = sender;
+  }
+
+  public static CompletionRequestRouter getInstance() {
+    return ApplicationManager.getApplication().getService(CompletionRequestRouter.class);
+  }
+
+  /**
+   * @param callParameters  The chat request parameters.
+   * @param eventListener   The listener of the request, regardless of which provider serves it.
+   * @param routingListener Notified whenever the request is routed away from the selected
+   *                        provider.
+   */
+  public EventSource getChatCompletionAsync(
+      CallParameters callParameters,
+      CompletionEventListener<String> eventListener,
+      Consumer<RoutingDecision> routingListener) {
+    var selectedService = GeneralSettings.getSelectedService();
+    var fallbackService = GeneralSettings.getCurrentState().getFallbackService();
+    var routedRequest = new RoutedRequest(callParameters, null, eventListener, routingListener);
+    if (fallbackService == null || fallbackService == selectedService) {
+      routedRequest.start(healthTracker.acquire(selectedService), null);
+      return routedRequest;
+    }
+
+    var permit = healthTracker.tryAcquire(selectedService);
+    if (permit == null) {
+      routingListener.accept(
+          new RoutingDecision(selectedService, fallbackService, Reason.CIRCUIT_OPEN));
+      routedRequest.start(healthTracker.acquire(fallbackService), null);
+      return routedRequest;
+    }
+
+    routedRequest.start(permit, fallbackService);
+    return routedRequest;
+  }
+
+  /**
+   * Sends a request continuing a partial response to the provider which streamed it. There is no
+   * fallback, another provider can't continue the response.
+   *
+   * @param continuationRequest The request continuing the partial response.
+   * @param eventListener       The listener of the request.
+   */
+  public EventSource getChatContinuationAsync(
+      ServiceType serviceType,
+      CallParameters callParameters,
+      CompletionRequest continuationRequest,
+      CompletionEventListener<String> eventListener) {
+    var routedRequest = new RoutedRequest(
+        callParameters, continuationRequest, eventListener, decision -> {});
+    routedRequest.start(healthTracker.acquire(serviceType), null);
+    return routedRequest;
+  }
+
+  private boolean canFallBackTo(@Nullable ServiceType fallbackService) {
+    return fallbackService != null
+        && healthTracker.getState(fallbackService) != CircuitState.OPEN;
+  }
+
+  private static EventSource sendToProvider(
+      ServiceType serviceType,
+      CallParameters callParameters,
+      @Nullable CompletionRequest continuationRequest,
+      CompletionEventListener<String> eventListener) {
+    var requestService = CompletionRequestService.getInstance();
+    return continuationRequest == null
+        ? requestService.getChatCompletionAsync(serviceType, callParameters, eventListener)
+        : requestService.getChatCompletionAsync(serviceType, continuationRequest, eventListener);
+  }
+
+  /**
+   * Sends a chat request to the given provider.
+   */
+  @FunctionalInterface
+  interface ChatCompletionSender {
+
+    /**
+     * @param continuationRequest The request continuing a partial response, or {@code null} to
+     *                            send the request built from the call parameters.
+     */
+    EventSource send(
+        ServiceType serviceType,
+        CallParameters callParameters,
+        @Nullable CompletionRequest continuationRequest,
+        CompletionEventListener<String> eventListener);
+  }
+
+  private final class RoutedRequest implements EventSource {
+
+    private final CallParameters callParameters;
+    private final @Nullable CompletionRequest continuationRequest;
+    private final CompletionEventListener<String> eventListener;
+    private final Consumer<RoutingDecision> routingListener;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile EventSource delegate;
+
+    RoutedRequest(
+        CallParameters callParameters,
+        @Nullable CompletionRequest continuationRequest,
+        CompletionEventListener<String> eventListener,
+        Consumer<RoutingDecision> routingListener) {
+      this.callParameters = callParameters;
+      this.continuationRequest = continuationRequest;
+      this.eventListener = eventListener;
+      this.routingListener = routingListener;
+    }
+
+    void start(Permit permit, @Nullable ServiceType fallbackService) {
+      var serviceType = permit.serviceType();
+      var trackingListener = new TrackingEventListener(this, permit, fallbackService);
+      EventSource eventSource;
+      try {
+        eventSource =
+            sender.send(serviceType, callParameters, continuationRequest, trackingListener);
+      } catch (TotalUsageExceededException ex) {
+        healthTracker.recordCancelled(permit);
+        throw ex;
+      } catch (RuntimeException ex) {
+        healthTracker.recordFailure(permit);
+        if (!canFallBackTo(fallbackService)) {
+          throw ex;
+        }
+        LOG.warn("Unable to start the request with " + serviceType, ex);
+        routingListener.accept(
+            new RoutingDecision(serviceType, fallbackService, Reason.REQUEST_FAILED));
+        start(healthTracker.acquire(fallbackService), null);
+        return;
+      }
+
+      delegate = eventSource;
+      if (cancelled.get()) {
+        eventSource.cancel();
+      }
+    }
+
+    void failOver(ServiceType serviceType, ServiceType fallbackService) {
+      routingListener.accept(
+          new RoutingDecision(serviceType, fallbackService, Reason.REQUEST_FAILED));
+      try {
+        start(healthTracker.acquire(fallbackService), null);
+      } catch (Throwable ex) {
+        eventListener.onError(new ErrorDetails("Something went wrong"), ex);
+      }
+    }
+
+    @Override
+    public @NotNull Request request() {
+      var eventSource = delegate;
+      if (eventSource == null) {
+        throw new IllegalStateException("Request has not been started yet");
+      }
+      return eventSource.request();
+    }
+
+    @Override
+    public void cancel() {
+      if (!cancelled.compareAndSet(false, true)) {
+        return;
+      }
+      var eventSource = delegate;
+      if (eventSource != null) {
+        eventSource.cancel();
+      }
+    }
+  }
+
+  /**
+   * Reports the outcome of a single attempt to the {@link ProviderHealthTracker} and hands over
+   * to the fallback provider when the attempt fails before producing any output.
+   */
+  private final class TrackingEventListener implements CompletionEventListener<String> {
+
+    private final RoutedRequest routedRequest;
+    private final Permit permit;
+    private final ServiceType serviceType;
+    private final @Nullable ServiceType fallbackService;
+    private final long startedAtNanos = System.nanoTime();
+    private volatile long timeToFirstTokenMillis = -1;
+
+    TrackingEventListener(
+        RoutedRequest routedRequest,
+        Permit permit,
+        @Nullable ServiceType fallbackService) {
+      this.routedRequest = routedRequest;
+      this.permit = permit;
+      this.serviceType = permit.serviceType();
+      this.fallbackService = fallbackService;
+    }
+
+    @Override
+    public void onOpen() {
+      routedRequest.eventListener.onOpen();
+    }
+
+    @Override
+    public void onEvent(String data) {
+      routedRequest.eventListener.onEvent(data);
+    }
+
+    @Override
+    public void onMessage(String message, EventSource eventSource) {
+      if (timeToFirstTokenMillis == -1) {
+        timeToFirstTokenMillis = getElapsedMillis();
+      }
+      routedRequest.eventListener.onMessage(message, eventSource);
+    }
+
+    @Override
+    public void onComplete(StringBuilder messageBuilder) {
+      healthTracker.recordSuccess(
+          permit,
+          timeToFirstTokenMillis == -1 ? getElapsedMillis() : timeToFirstTokenMillis);
+      routedRequest.eventListener.onComplete(messageBuilder);
+    }
+
+    @Override
+    public void onCancelled(StringBuilder messageBuilder) {
+      healthTracker.recordCancelled(permit);
+      routedRequest.eventListener.onCancelled(messageBuilder);
+    }
+
+    @Override
+    public void onError(ErrorDetails error, Throwable ex) {
+      healthTracker.recordFailure(permit);
+      if (timeToFirstTokenMillis == -1
+          && !routedRequest.cancelled.get()
+          && canFallBackTo(fallbackService)) {
+        LOG.warn("Request to " + serviceType + " failed: " + error.getMessage(), ex);
+        routedRequest.failOver(serviceType, fallbackService);
+        return;
+      }
+      routedRequest.eventListener.onError(error, ex);
+    }
+
+    private long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos);
+    }
+  }
+}
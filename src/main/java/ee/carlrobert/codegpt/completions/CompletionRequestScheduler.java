@@ -0,0 +1,445 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
+import ee.carlrobert.llm.completion.CompletionEventListener;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import okhttp3.Request;
+import okhttp3.sse.EventSource;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Coordinates all outgoing completion requests, so that concurrent features don't compete for
+ * the same provider uncontrolled.
+ *
+ * <p>Each provider has its own queue with:
+ * <ul>
+ *     <li>a limit of concurrently running requests,</li>
+ *     <li>a token-bucket request budget (remote providers only),</li>
+ *     <li>a block period set by the provider's {@code Retry-After} responses.</li>
+ * </ul>
+ * Waiting requests are started in {@link RequestPriority} order. Requests that have been waiting
+ * for longer than their priority allows are dropped as stale.
+ */
+@Service
+public final class CompletionRequestScheduler {
+
+  private static final Logger LOG = Logger.getInstance(CompletionRequestScheduler.class);
+
+  private static final int MAX_CONCURRENT_REQUESTS = 4;
+  private static final int MAX_CONCURRENT_LOCAL_REQUESTS = 2;
+  private static final double BUCKET_CAPACITY = 20;
+  private static final double BUCKET_REFILL_PER_SECOND = 1;
+
+  private final Map<ServiceType, ProviderQueue> queues = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final ScheduledExecutorService executor;
+  private final LongSupplier nanoTime;
+
+  CompletionRequestScheduler() {
+    this(AppExecutorUtil.getAppScheduledExecutorService(), System::nanoTime);
+  }
+
+  @NonInjectable
+  CompletionRequestScheduler(ScheduledExecutorService executor, LongSupplier nanoTime) {
+    this.executor = executor;
+    this.nanoTime = nanoTime;
+  }
+
+  public static CompletionRequestScheduler getInstance() {
+    return ApplicationManager.getApplication().getService(CompletionRequestScheduler.class);
+  }
+
+  /**
+   * Schedules a streaming request. The request is started right away when the provider has
+   * capacity, otherwise the returned event source acts as a placeholder until it is.
+   *
+   * @param serviceType   The provider the request is sent to.
+   * @param priority      The priority class of the request.
+   * @param eventListener The listener of the request.
+   * @param call          Starts the actual request with the given listener.
+   * @return The event source which can be used to cancel the request, whether it has already
+   *     been started or not.
+   */
+  public EventSource schedule(
+      ServiceType serviceType,
+      RequestPriority priority,
+      CompletionEventListener<String> eventListener,
+      Function<CompletionEventListener<String>, EventSource> call) {
+    var queue = getQueue(serviceType);
+    var eventSource = new ScheduledEventSource(queue, priority, eventListener, call);
+    queue.submit(eventSource);
+
+    var failure = eventSource.returnToCaller();
+    if (failure != null) {
+      // The request failed before the caller got hold of it, let the caller handle it as before
+      if (failure instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new RuntimeException(failure);
+    }
+    return eventSource;
+  }
+
+  /**
+   * Executes a blocking request once the provider has capacity for it.
+   *
+   * @throws CancellationException if the request went stale before it could be started.
+   */
+  public <T> T execute(ServiceType serviceType, RequestPriority priority, Supplier<T> call) {
+    var queue = getQueue(serviceType);
+    var task = new BlockingTask(queue, priority);
+    queue.submit(task);
+    task.awaitStart();
+
+    try {
+      return call.get();
+    } finally {
+      queue.release();
+    }
+  }
+
+  /**
+   * Blocks the provider's queue until the given period is over.
+   */
+  public void onRetryAfter(ServiceType serviceType, Duration retryAfter) {
+    LOG.info("Provider " + serviceType + " asked to retry after " + retryAfter);
+    getQueue(serviceType).blockFor(retryAfter);
+  }
+
+  private ProviderQueue getQueue(ServiceType serviceType) {
+    return queues.computeIfAbsent(serviceType, ProviderQueue::new);
+  }
+
+  private static boolean isLocal(ServiceType serviceType) {
+    return serviceType == ServiceType.LLAMA_CPP || serviceType == ServiceType.OLLAMA;
+  }
+
+  private final class ProviderQueue {
+
+    private final PriorityQueue<Task> pending = new PriorityQueue<>(
+        Comparator.<Task, RequestPriority>comparing(task -> task.priority)
+            .thenComparingLong(task -> task.sequence));
+    private final int maxConcurrentRequests;
+    private final boolean rateLimited;
+    private int running;
+    private double tokens = BUCKET_CAPACITY;
+    private long lastRefillNanos = nanoTime.getAsLong();
+    private long blockedUntilNanos = lastRefillNanos;
+    private boolean drainScheduled;
+
+    ProviderQueue(ServiceType serviceType) {
+      maxConcurrentRequests = isLocal(serviceType)
+          ? MAX_CONCURRENT_LOCAL_REQUESTS
+          : MAX_CONCURRENT_REQUESTS;
+      rateLimited = !isLocal(serviceType);
+    }
+
+    void submit(Task task) {
+      synchronized (this) {
+        pending.add(task);
+      }
+      drain();
+    }
+
+    void cancel(Task task) {
+      boolean removed;
+      synchronized (this) {
+        removed = pending.remove(task);
+      }
+      if (removed) {
+        task.drop();
+      }
+    }
+
+    void release() {
+      synchronized (this) {
+        running--;
+      }
+      drain();
+    }
+
+    void blockFor(Duration duration) {
+      synchronized (this) {
+        blockedUntilNanos = Math.max(blockedUntilNanos, nanoTime.getAsLong() + duration.toNanos());
+      }
+      drain();
+    }
+
+    private void drain() {
+      var tasksToStart = new ArrayList<Task>();
+      var tasksToDrop = new ArrayList<Task>();
+      synchronized (this) {
+        refill();
+        long delayNanos = 0;
+        while (!pending.isEmpty() && running < maxConcurrentRequests) {
+          var task = pending.peek();
+          if (task.isStale()) {
+            tasksToDrop.add(pending.poll());
+            continue;
+          }
+
+          var now = nanoTime.getAsLong();
+          if (now < blockedUntilNanos) {
+            delayNanos = blockedUntilNanos - now;
+            break;
+          }
+          if (rateLimited && tokens < 1) {
+            delayNanos = (long) ((1 - tokens) / BUCKET_REFILL_PER_SECOND * 1_000_000_000L);
+            break;
+          }
+
+          if (rateLimited) {
+            tokens--;
+          }
+          running++;
+          tasksToStart.add(pending.poll());
+        }
+
+        if (delayNanos > 0 && !drainScheduled) {
+          drainScheduled = true;
+          executor.schedule(() -> {
+            synchronized (this) {
+              drainScheduled = false;
+            }
+            drain();
+          }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+
+      tasksToDrop.forEach(Task::drop);
+      tasksToStart.forEach(Task::start);
+    }
+
+    private void refill() {
+      var now = nanoTime.getAsLong();
+      var elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000.0;
+      tokens = Math.min(BUCKET_CAPACITY, tokens + elapsedSeconds * BUCKET_REFILL_PER_SECOND);
+      lastRefillNanos = now;
+    }
+  }
+
+  private abstract class Task {
+
+    final RequestPriority priority;
+    final long sequence = CompletionRequestScheduler.this.sequence.incrementAndGet();
+    final long enqueuedAtNanos = nanoTime.getAsLong();
+
+    Task(RequestPriority priority) {
+      this.priority = priority;
+    }
+
+    boolean isStale() {
+      var maxQueueTime = priority.getMaxQueueTimeMillis();
+      return maxQueueTime > 0
+          && TimeUnit.NANOSECONDS.toMillis(nanoTime.getAsLong() - enqueuedAtNanos) > maxQueueTime;
+    }
+
+    /**
+     * Called once the task has acquired a slot from its queue.
+     */
+    abstract void start();
+
+    /**
+     * Called when the task is removed from the queue without being started.
+     */
+    abstract void drop();
+  }
+
+  private final class BlockingTask extends Task {
+
+    private final ProviderQueue queue;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile boolean dropped;
+
+    BlockingTask(ProviderQueue queue, RequestPriority priority) {
+      super(priority);
+      this.queue = queue;
+    }
+
+    void awaitStart() {
+      try {
+        var maxQueueTime = priority.getMaxQueueTimeMillis();
+        if (maxQueueTime > 0 && !latch.await(maxQueueTime, TimeUnit.MILLISECONDS)) {
+          queue.cancel(this);
+        }
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        queue.cancel(this);
+        if (!dropped) {
+          // The slot was acquired in the meantime, give it back
+          queue.release();
+        }
+        throw new CancellationException("Interrupted while waiting for the provider");
+      }
+
+      if (dropped) {
+        throw new CancellationException("Request went stale before it could be sent");
+      }
+    }
+
+    @Override
+    void start() {
+      latch.countDown();
+    }
+
+    @Override
+    void drop() {
+      dropped = true;
+      latch.countDown();
+    }
+  }
+
+  private final class ScheduledEventSource extends Task implements EventSource {
+
+    private final ProviderQueue queue;
+    private final CompletionEventListener<String> eventListener;
+    private final Function<CompletionEventListener<String>, EventSource> call;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile EventSource delegate;
+    private boolean returnedToCaller;
+    private Throwable failure;
+
+    ScheduledEventSource(
+        ProviderQueue queue,
+        RequestPriority priority,
+        CompletionEventListener<String> eventListener,
+        Function<CompletionEventListener<String>, EventSource> call) {
+      super(priority);
+      this.queue = queue;
+      this.eventListener = eventListener;
+      this.call = call;
+    }
+
+    @Override
+    void start() {
+      if (cancelled.get()) {
+        queue.release();
+        return;
+      }
+
+      try {
+        delegate = call.apply(new ReleasingEventListener(eventListener, queue::release));
+      } catch (Throwable ex) {
+        queue.release();
+        synchronized (this) {
+          if (!returnedToCaller) {
+            failure = ex;
+            return;
+          }
+        }
+        eventListener.onError(new ErrorDetails("Something went wrong"), ex);
+        return;
+      }
+      if (cancelled.get()) {
+        delegate.cancel();
+      }
+    }
+
+    @Override
+    void drop() {
+      eventListener.onCancelled(new StringBuilder());
+    }
+
+    synchronized Throwable returnToCaller() {
+      returnedToCaller = true;
+      return failure;
+    }
+
+    @Override
+    public @NotNull Request request() {
+      var eventSource = delegate;
+      if (eventSource == null) {
+        throw new IllegalStateException("Request has not been started yet");
+      }
+      return eventSource.request();
+    }
+
+    @Override
+    public void cancel() {
+      if (!cancelled.compareAndSet(false, true)) {
+        return;
+      }
+      var eventSource = delegate;
+      if (eventSource != null) {
+        eventSource.cancel();
+      } else {
+        queue.cancel(this);
+      }
+    }
+  }
+
+  /**
+   * Returns the acquired slot to the queue as soon as the request finishes, whatever the outcome.
+   */
+  private static final class ReleasingEventListener implements CompletionEventListener<String> {
+
+    private final CompletionEventListener<String> delegate;
+    private final Runnable onRelease;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    ReleasingEventListener(CompletionEventListener<String> delegate, Runnable onRelease) {
+      this.delegate = delegate;
+      this.onRelease = onRelease;
+    }
+
+    @Override
+    public void onOpen() {
+      delegate.onOpen();
+    }
+
+    @Override
+    public void onEvent(String data) {
+      delegate.onEvent(data);
+    }
+
+    @Override
+    public void onMessage(String message, EventSource eventSource) {
+      delegate.onMessage(message, eventSource);
+    }
+
+    @Override
+    public void onComplete(StringBuilder messageBuilder) {
+      release();
+      delegate.onComplete(messageBuilder);
+    }
+
+    @Override
+    public void onCancelled(StringBuilder messageBuilder) {
+      release();
+      delegate.onCancelled(messageBuilder);
+    }
+
+    @Override
+    public void onError(ErrorDetails error, Throwable ex) {
+      release();
+      delegate.onError(error, ex);
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        onRelease.run();
+      }
+    }
+  }
+}
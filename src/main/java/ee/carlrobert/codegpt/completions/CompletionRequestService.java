@@ -10,14 +10,14 @@ import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
 import ee.carlrobert.codegpt.settings.service.ServiceType;
 import ee.carlrobert.codegpt.settings.service.azure.AzureSettings;
+import ee.carlrobert.codegpt.settings.service.custom.CustomServiceSettings;
+import ee.carlrobert.codegpt.settings.service.custom.CustomServiceState;
 import ee.carlrobert.codegpt.settings.service.google.GoogleSettings;
 import ee.carlrobert.llm.client.DeserializationUtil;
 import ee.carlrobert.llm.client.anthropic.completion.ClaudeCompletionRequest;
 import ee.carlrobert.llm.client.google.completion.GoogleCompletionRequest;
 import ee.carlrobert.llm.client.llama.completion.LlamaCompletionRequest;
 import ee.carlrobert.llm.client.ollama.completion.request.OllamaChatCompletionRequest;
-import ee.carlrobert.llm.client.openai.completion.OpenAIChatCompletionEventSourceListener;
-import ee.carlrobert.llm.client.openai.completion.OpenAITextCompletionEventSourceListener;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionRequest;
 import ee.carlrobert.llm.client.openai.completion.response.OpenAIChatCompletionResponse;
 import ee.carlrobert.llm.client.openai.completion.response.OpenAIChatCompletionResponseChoice;
@@ -48,61 +48,157 @@ public final class CompletionRequestService {
   public EventSource getCustomOpenAICompletionAsync(
       Request customRequest,
       CompletionEventListener<String> eventListener) {
-    var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+    return getCustomOpenAICompletionAsync(
+        customRequest,
+        getCustomServiceSettings().getCodeCompletionSettings().getResponsePath(),
+        eventListener);
+  }
+
+  /**
+   * @param responsePath Location of the content in each streamed chunk, falls back to the
+   *                     OpenAI text completion format if blank or malformed.
+   */
+  public EventSource getCustomOpenAICompletionAsync(
+      Request customRequest,
+      String responsePath,
+      CompletionEventListener<String> eventListener) {
+    var httpClient = CompletionClientProvider.getDefaultClient(ServiceType.CUSTOM_OPENAI);
     return EventSources.createFactory(httpClient).newEventSource(
         customRequest,
-        new OpenAITextCompletionEventSourceListener(eventListener));
+        new CustomServiceEventSourceListener(
+            JsonCodec.getResponsePath(responsePath, JsonCodec.TEXT_CONTENT),
+            eventListener));
   }
 
   public EventSource getCustomOpenAIChatCompletionAsync(
       Request customRequest,
       CompletionEventListener<String> eventListener) {
-    var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+    return getCustomOpenAIChatCompletionAsync(
+        customRequest,
+        getCustomServiceSettings().getChatCompletionSettings().getResponsePath(),
+        eventListener);
+  }
+
+  /**
+   * @param responsePath Location of the content in each streamed chunk, falls back to the
+   *                     OpenAI chat completion format if blank or malformed.
+   */
+  public EventSource getCustomOpenAIChatCompletionAsync(
+      Request customRequest,
+      String responsePath,
+      CompletionEventListener<String> eventListener) {
+    var httpClient = CompletionClientProvider.getDefaultClient(ServiceType.CUSTOM_OPENAI);
     return EventSources.createFactory(httpClient).newEventSource(
         customRequest,
-        new OpenAIChatCompletionEventSourceListener(eventListener));
+        new CustomServiceEventSourceListener(
+            JsonCodec.getResponsePath(responsePath, JsonCodec.CHAT_DELTA_CONTENT),
+            eventListener));
+  }
+
+  private static CustomServiceState getCustomServiceSettings() {
+    return ApplicationManager.getApplication().getService(CustomServiceSettings.class).getState();
   }
 
   public String getLookupCompletion(String prompt) {
-    return getChatCompletion(
-        CompletionRequestFactory.getFactory(GeneralSettings.getSelectedService())
-            .createLookupRequest(prompt));
+    var serviceType = GeneralSettings.getSelectedService();
+    return SingleFlightRequests.getInstance().execute(
+        SingleFlightRequests.hash("lookup", serviceType, prompt),
+        () -> {
+          var request = CompletionRequestFactory.getFactory(serviceType)
+              .createLookupRequest(prompt);
+          var responseCache = ResponseCache.getInstance();
+          return responseCache.getOrCompute(
+              responseCache.getKey("lookup", serviceType, request),
+              () -> CompletionRequestScheduler.getInstance().execute(
+                  serviceType,
+                  RequestPriority.BACKGROUND,
+                  () -> getChatCompletion(request)));
+        });
   }
 
   public EventSource getCommitMessageAsync(
       String systemPrompt,
       String gitDiff,
       CompletionEventListener<String> eventListener) {
-    return getChatCompletionAsync(
-        CompletionRequestFactory.getFactory(GeneralSettings.getSelectedService())
-            .createCommitMessageRequest(systemPrompt, gitDiff),
-        eventListener);
+    var serviceType = GeneralSettings.getSelectedService();
+    var request = CompletionRequestFactory.getFactory(serviceType)
+        .createCommitMessageRequest(systemPrompt, gitDiff);
+    var responseCache = ResponseCache.getInstance();
+    return responseCache.getOrStream(
+        responseCache.getKey("commitMessage", serviceType, request),
+        eventListener,
+        listener -> getChatCompletionAsync(
+            serviceType,
+            request,
+            RequestPriority.BACKGROUND,
+            listener));
   }
 
   public EventSource getEditCodeCompletionAsync(
       EditCodeRequestParams params,
       CompletionEventListener<String> eventListener) {
     var input = "%s\n\n%s".formatted(params.getPrompt(), params.getSelectedText());
+    var serviceType = GeneralSettings.getSelectedService();
+    var request = CompletionRequestFactory.getFactory(serviceType).createEditCodeRequest(input);
+    var responseCache = ResponseCache.getInstance();
+    return responseCache.getOrStream(
+        responseCache.getKey("editCode", serviceType, request),
+        eventListener,
+        listener -> getChatCompletionAsync(
+            serviceType,
+            request,
+            RequestPriority.EDIT_CODE,
+            listener));
+  }
+
+  public EventSource getChatCompletionAsync(
+      CallParameters callParameters,
+      CompletionEventListener<String> eventListener) {
     return getChatCompletionAsync(
-        CompletionRequestFactory.getFactory(GeneralSettings.getSelectedService())
-            .createEditCodeRequest(input),
+        GeneralSettings.getSelectedService(),
+        callParameters,
         eventListener);
   }
 
   public EventSource getChatCompletionAsync(
+      ServiceType serviceType,
       CallParameters callParameters,
       CompletionEventListener<String> eventListener) {
     return getChatCompletionAsync(
-        CompletionRequestFactory.getFactory(GeneralSettings.getSelectedService())
-            .createChatRequest(callParameters),
+        serviceType,
+        CompletionRequestFactory.getFactory(serviceType).createChatRequest(callParameters),
+        RequestPriority.CHAT,
         eventListener);
   }
 
+  /**
+   * Sends an already built chat request, e.g. one continuing a partial response.
+   */
+  public EventSource getChatCompletionAsync(
+      ServiceType serviceType,
+      CompletionRequest request,
+      CompletionEventListener<String> eventListener) {
+    return getChatCompletionAsync(serviceType, request, RequestPriority.CHAT, eventListener);
+  }
+
   private EventSource getChatCompletionAsync(
+      ServiceType serviceType,
+      CompletionRequest request,
+      RequestPriority priority,
+      CompletionEventListener<String> eventListener) {
+    return CompletionRequestScheduler.getInstance().schedule(
+        serviceType,
+        priority,
+        eventListener,
+        listener -> startChatCompletion(serviceType, request, listener));
+  }
+
+  private EventSource startChatCompletion(
+      ServiceType serviceType,
       CompletionRequest request,
       CompletionEventListener<String> eventListener) {
     if (request instanceof OpenAIChatCompletionRequest completionRequest) {
-      return switch (GeneralSettings.getSelectedService()) {
+      return switch (serviceType) {
         case CODEGPT -> CompletionClientProvider.getCodeGPTClient()
             .getChatCompletionAsync(completionRequest, eventListener);
         case OPENAI -> CompletionClientProvider.getOpenAIClient()
@@ -156,7 +252,7 @@ public final class CompletionRequestService {
       return tryExtractContent(response).orElseThrow();
     }
     if (request instanceof CustomOpenAIRequest completionRequest) {
-      var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+      var httpClient = CompletionClientProvider.getDefaultClient(ServiceType.CUSTOM_OPENAI);
       try (var response = httpClient.newCall(completionRequest.getRequest()).execute()) {
         return DeserializationUtil.mapResponse(response, OpenAIChatCompletionResponse.class)
             .getChoices().get(0)
@@ -21,4 +21,7 @@ public interface CompletionResponseEventListener {
 
   default void handleCodeGPTEvent(CodeGPTEvent event) {
   }
+
+  default void handleRoutingDecision(RoutingDecision decision) {
+  }
 }
@@ -0,0 +1,127 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings;
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettingsState;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Holds one long-lived {@link OkHttpClient} per provider, so that every request made against the
+ * same provider reuses the same connection pool and dispatcher instead of paying for a new
+ * TCP/TLS handshake.
+ *
+ * <p>A client is rebuilt only when the proxy or timeout configuration it was created with no
+ * longer matches the current {@link AdvancedSettings}.
+ */
+@Service
+public final class HttpClientRegistry implements Disposable {
+
+  private static final int MAX_IDLE_CONNECTIONS = 5;
+  private static final int KEEP_ALIVE_MINUTES = 5;
+  // Streaming responses hold their slot for the whole answer, the default of 5 would make
+  // inline completions queue up behind long-running chat responses.
+  private static final int MAX_REQUESTS_PER_HOST = 16;
+
+  private final Map<ServiceType, PooledClient> clients = new ConcurrentHashMap<>();
+
+  public static HttpClientRegistry getInstance() {
+    return ApplicationManager.getApplication().getService(HttpClientRegistry.class);
+  }
+
+  public OkHttpClient getClient(ServiceType serviceType) {
+    var settings = ClientSettings.of(AdvancedSettings.getCurrentState());
+    return clients.compute(serviceType, (key, existing) -> {
+      if (existing != null && existing.settings().equals(settings)) {
+        return existing;
+      }
+      if (existing != null) {
+        release(existing.client());
+      }
+      return new PooledClient(settings, createClient(serviceType, settings));
+    }).client();
+  }
+
+  /**
+   * Drops all pooled clients. Calls that are already in flight are allowed to finish, the
+   * dispatcher threads of the released clients terminate on their own once idle.
+   */
+  public void invalidateAll() {
+    clients.values().forEach(it -> release(it.client()));
+    clients.clear();
+  }
+
+  @Override
+  public void dispose() {
+    invalidateAll();
+  }
+
+  private static OkHttpClient createClient(ServiceType serviceType, ClientSettings settings) {
+    var dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+    var builder = new OkHttpClient.Builder()
+        .connectionPool(
+            new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .dispatcher(dispatcher)
+        .addInterceptor(new RetryAfterInterceptor(serviceType))
+        .connectTimeout(settings.connectTimeout(), TimeUnit.SECONDS)
+        .readTimeout(settings.readTimeout(), TimeUnit.SECONDS);
+
+    if (!settings.proxyHost().isEmpty() && settings.proxyPort() != 0) {
+      builder.proxy(new Proxy(
+          settings.proxyType(),
+          new InetSocketAddress(settings.proxyHost(), settings.proxyPort())));
+      if (settings.proxyAuthSelected()) {
+        builder.proxyAuthenticator((route, response) ->
+            response.request()
+                .newBuilder()
+                .header("Proxy-Authorization", Credentials.basic(
+                    settings.proxyUsername(),
+                    settings.proxyPassword()))
+                .build());
+      }
+    }
+    return builder.build();
+  }
+
+  private static void release(OkHttpClient client) {
+    client.connectionPool().evictAll();
+  }
+
+  private record PooledClient(ClientSettings settings, OkHttpClient client) {
+  }
+
+  private record ClientSettings(
+      Proxy.Type proxyType,
+      String proxyHost,
+      int proxyPort,
+      boolean proxyAuthSelected,
+      String proxyUsername,
+      String proxyPassword,
+      int connectTimeout,
+      int readTimeout) {
+
+    static ClientSettings of(AdvancedSettingsState state) {
+      return new ClientSettings(
+          state.getProxyType(),
+          state.getProxyHost() == null ? "" : state.getProxyHost(),
+          state.getProxyPort(),
+          state.isProxyAuthSelected(),
+          state.getProxyUsername(),
+          state.getProxyPassword(),
+          state.getConnectTimeout(),
+          state.getReadTimeout());
+    }
+  }
+}
@@ -17,6 +17,7 @@ import ee.carlrobert.codegpt.Icons;
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import org.jetbrains.annotations.Nullable;
 
 public class MethodNameLookupListener implements LookupManagerListener {
@@ -67,6 +68,8 @@ public class MethodNameLookupListener implements LookupManagerListener {
           }));
         }
       }
+    } catch (CancellationException e) {
+      LOG.debug("Lookup completion was dropped by the scheduler", e);
     } catch (Exception e) {
       throw new RuntimeException("Failed to add completion lookup values", e);
     }
@@ -0,0 +1,218 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps a rolling window of request outcomes per provider and acts as a circuit breaker on top of
+ * it.
+ *
+ * <p>The circuit of a provider opens after {@value #MAX_CONSECUTIVE_FAILURES} consecutive
+ * failures, or once at least half of the recent requests either failed or took longer than
+ * {@value #SLOW_TIME_TO_FIRST_TOKEN_MILLIS} ms to produce their first token. While open, no
+ * requests are allowed. After {@value #OPEN_DURATION_MILLIS} ms a single trial request is let
+ * through, and only its outcome decides whether the circuit closes again. Outcomes of other
+ * requests, e.g. ones started before the circuit opened, are ignored until it does.
+ */
+@Service
+public final class ProviderHealthTracker {
+
+  private static final Logger LOG = Logger.getInstance(ProviderHealthTracker.class);
+
+  private static final int WINDOW_SIZE = 20;
+  private static final int MIN_WINDOW_SIZE = 5;
+  private static final double MAX_UNHEALTHY_RATE = 0.5;
+  private static final int MAX_CONSECUTIVE_FAILURES = 3;
+  private static final long SLOW_TIME_TO_FIRST_TOKEN_MILLIS = 20_000;
+  private static final long OPEN_DURATION_MILLIS = 30_000;
+
+  private final Map<ServiceType, ProviderHealth> providers = new ConcurrentHashMap<>();
+  private final LongSupplier currentTimeMillis;
+
+  ProviderHealthTracker() {
+    this(System::currentTimeMillis);
+  }
+
+  @NonInjectable
+  ProviderHealthTracker(LongSupplier currentTimeMillis) {
+    this.currentTimeMillis = currentTimeMillis;
+  }
+
+  public static ProviderHealthTracker getInstance() {
+    return ApplicationManager.getApplication().getService(ProviderHealthTracker.class);
+  }
+
+  /**
+   * Checks whether a request may be sent to the given provider. When the circuit is half-open,
+   * only the first caller is allowed through, with the trial permit.
+   *
+   * @return The permit the outcome of the request is recorded with, or {@code null} if the
+   *     request isn't allowed.
+   */
+  public @Nullable Permit tryAcquire(ServiceType serviceType) {
+    return getHealth(serviceType).tryAcquire(false);
+  }
+
+  /**
+   * Acquires a permit for a request that is sent regardless of the circuit, e.g. when there is
+   * no provider to fall back to. It is the trial permit if the circuit is half-open and no trial
+   * is in flight yet.
+   */
+  public Permit acquire(ServiceType serviceType) {
+    return Objects.requireNonNull(getHealth(serviceType).tryAcquire(true));
+  }
+
+  public void recordSuccess(Permit permit, long timeToFirstTokenMillis) {
+    getHealth(permit.serviceType()).record(permit, false, timeToFirstTokenMillis);
+  }
+
+  public void recordFailure(Permit permit) {
+    getHealth(permit.serviceType()).record(permit, true, -1);
+  }
+
+  /**
+   * Releases the permit without recording an outcome, e.g. when the request was cancelled by the
+   * user. A cancelled trial lets the next request through as the trial.
+   */
+  public void recordCancelled(Permit permit) {
+    getHealth(permit.serviceType()).release(permit);
+  }
+
+  public CircuitState getState(ServiceType serviceType) {
+    return getHealth(serviceType).getState();
+  }
+
+  /**
+   * @return The median time to first token of the recent successful requests, or {@code -1} if
+   *     there are none.
+   */
+  public long getMedianTimeToFirstToken(ServiceType serviceType) {
+    return getHealth(serviceType).getMedianTimeToFirstToken();
+  }
+
+  private ProviderHealth getHealth(ServiceType serviceType) {
+    return providers.computeIfAbsent(serviceType, ProviderHealth::new);
+  }
+
+  public enum CircuitState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /**
+   * Permission to send a request to a provider, its outcome is recorded with it.
+   *
+   * @param trial Whether it is the single request let through while the circuit is half-open.
+   */
+  public record Permit(ServiceType serviceType, boolean trial) {
+  }
+
+  private record Outcome(boolean failed, long timeToFirstTokenMillis) {
+
+    boolean isUnhealthy() {
+      return failed || timeToFirstTokenMillis > SLOW_TIME_TO_FIRST_TOKEN_MILLIS;
+    }
+  }
+
+  private final class ProviderHealth {
+
+    private final ServiceType serviceType;
+    private final ArrayDeque<Outcome> outcomes = new ArrayDeque<>(WINDOW_SIZE);
+    private int consecutiveFailures;
+    private long openedAtMillis = -1;
+    private boolean trialInFlight;
+
+    ProviderHealth(ServiceType serviceType) {
+      this.serviceType = serviceType;
+    }
+
+    synchronized @Nullable Permit tryAcquire(boolean force) {
+      var state = getState();
+      if (state == CircuitState.HALF_OPEN && !trialInFlight) {
+        trialInFlight = true;
+        return new Permit(serviceType, true);
+      }
+      return state == CircuitState.CLOSED || force ? new Permit(serviceType, false) : null;
+    }
+
+    synchronized void release(Permit permit) {
+      if (permit.trial()) {
+        trialInFlight = false;
+      }
+    }
+
+    synchronized void record(Permit permit, boolean failed, long timeToFirstTokenMillis) {
+      var outcome = new Outcome(failed, timeToFirstTokenMillis);
+      if (permit.trial()) {
+        trialInFlight = false;
+        if (outcome.isUnhealthy()) {
+          open();
+        } else {
+          close();
+        }
+        return;
+      }
+      if (openedAtMillis != -1) {
+        return;
+      }
+
+      if (outcomes.size() == WINDOW_SIZE) {
+        outcomes.removeFirst();
+      }
+      outcomes.addLast(outcome);
+      consecutiveFailures = failed ? consecutiveFailures + 1 : 0;
+
+      if (consecutiveFailures >= MAX_CONSECUTIVE_FAILURES || isUnhealthyRateExceeded()) {
+        open();
+      }
+    }
+
+    synchronized CircuitState getState() {
+      if (openedAtMillis == -1) {
+        return CircuitState.CLOSED;
+      }
+      return currentTimeMillis.getAsLong() - openedAtMillis < OPEN_DURATION_MILLIS
+          ? CircuitState.OPEN
+          : CircuitState.HALF_OPEN;
+    }
+
+    synchronized long getMedianTimeToFirstToken() {
+      var samples = outcomes.stream()
+          .filter(outcome -> !outcome.failed())
+          .mapToLong(Outcome::timeToFirstTokenMillis)
+          .sorted()
+          .toArray();
+      return samples.length == 0 ? -1 : samples[samples.length / 2];
+    }
+
+    private boolean isUnhealthyRateExceeded() {
+      if (outcomes.size() < MIN_WINDOW_SIZE) {
+        return false;
+      }
+      var unhealthy = outcomes.stream().filter(Outcome::isUnhealthy).count();
+      return (double) unhealthy / outcomes.size() >= MAX_UNHEALTHY_RATE;
+    }
+
+    private void open() {
+      LOG.info("Opening the circuit of " + serviceType);
+      openedAtMillis = currentTimeMillis.getAsLong();
+    }
+
+    private void close() {
+      LOG.info("Closing the circuit of " + serviceType);
+      openedAtMillis = -1;
+      consecutiveFailures = 0;
+      outcomes.clear();
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package ee.carlrobert.codegpt.completions;
+
+/**
+ * Priority classes used by {@link CompletionRequestScheduler}, from the most latency-critical to
+ * the least. Requests of a lower priority that wait in the queue for longer than their
+ * {@code maxQueueTimeMillis} are considered stale and dropped.
+ */
+public enum RequestPriority {
+  INLINE_COMPLETION(3_000),
+  EDIT_CODE(0),
+  CHAT(0),
+  BACKGROUND(10_000);
+
+  private final long maxQueueTimeMillis;
+
+  RequestPriority(long maxQueueTimeMillis) {
+    this.maxQueueTimeMillis = maxQueueTimeMillis;
+  }
+
+  /**
+   * @return How long a request may wait before it is dropped, or {@code 0} if it never goes
+   *     stale.
+   */
+  public long getMaxQueueTimeMillis() {
+    return maxQueueTimeMillis;
+  }
+}
@@ -0,0 +1,424 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.completions.factory.CustomOpenAIRequest;
+import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.settings.service.google.GoogleSettings;
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
+import ee.carlrobert.llm.completion.CompletionEventListener;
+import ee.carlrobert.llm.completion.CompletionRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import okhttp3.Request;
+import okhttp3.sse.EventSource;
+import okio.Buffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the responses of non-chat requests (commit messages, method name lookups and edit code
+ * requests), so that re-sending the same input doesn't hit the provider again.
+ *
+ * <p>Responses are keyed by the provider, the model and the serialized request, which includes
+ * the temperature. Above temperature 0, sending a request again is how users ask for a different
+ * response, which the cache prevents, so it is only used once enabled in the settings.
+ *
+ * <p>Responses are kept in an in-memory LRU tier and in an on-disk tier under the IDE system
+ * directory, both expiring after {@link #TTL}. The disk tier is capped at
+ * {@value #MAX_DISK_BYTES} bytes, the least recently written entries are removed first.
+ *
+ * <p>Cached responses are replayed through the regular {@link CompletionEventListener}
+ * callbacks, line by line, so callers can't tell them apart from a streamed response.
+ */
+@Service
+public final class ResponseCache {
+
+  private static final Logger LOG = Logger.getInstance(ResponseCache.class);
+
+  private static final int MAX_MEMORY_ENTRIES = 64;
+  private static final long MAX_DISK_BYTES = 10L * 1024 * 1024;
+  private static final Duration TTL = Duration.ofDays(7);
+  private static final String FILE_EXTENSION = ".txt";
+
+  private final Map<String, Entry> memoryEntries = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_MEMORY_ENTRIES;
+    }
+  };
+  // Keys of the entries on disk, so that a cache miss never touches the file system
+  private final Set<String> diskKeys = ConcurrentHashMap.newKeySet();
+  private final Path cacheDirectory;
+  private final Executor executor;
+  private final LongSupplier currentTimeMillis;
+
+  public ResponseCache() {
+    this(
+        CodeGPTPlugin.getResponseCachePath(),
+        AppExecutorUtil.getAppExecutorService(),
+        System::currentTimeMillis);
+  }
+
+  @NonInjectable
+  ResponseCache(Path cacheDirectory, Executor executor, LongSupplier currentTimeMillis) {
+    this.cacheDirectory = cacheDirectory;
+    this.executor = executor;
+    this.currentTimeMillis = currentTimeMillis;
+    executor.execute(this::loadDiskKeys);
+  }
+
+  public static ResponseCache getInstance() {
+    return ApplicationManager.getApplication().getService(ResponseCache.class);
+  }
+
+  /**
+   * Builds the cache key of a request. The serialized request covers the model, the temperature
+   * and the prompt.
+   *
+   * @return The key, or {@code null} if the request can't be cached or caching is disabled.
+   */
+  public @Nullable String getKey(String kind, ServiceType serviceType, CompletionRequest request) {
+    if (ApplicationManager.getApplication().isUnitTestMode()
+        || !ConfigurationSettings.getState().getResponseCacheEnabled()) {
+      return null;
+    }
+    try {
+      String canonicalRequest;
+      if (request instanceof CustomOpenAIRequest customRequest) {
+        canonicalRequest = serialize(customRequest.getRequest());
+      } else {
+        canonicalRequest = JsonCodec.getWriter().writeValueAsString(request);
+      }
+      // The Google model isn't part of the request body
+      var model = serviceType == ServiceType.GOOGLE
+          ? ApplicationManager.getApplication().getService(GoogleSettings.class)
+          .getState()
+          .getModel()
+          : null;
+      return SingleFlightRequests.hash(kind, serviceType, model, canonicalRequest);
+    } catch (IOException e) {
+      LOG.debug("Unable to build the response cache key", e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the cached response, or computes and caches it. Must not be called on the EDT.
+   */
+  public String getOrCompute(@Nullable String key, Supplier<String> call) {
+    if (key == null) {
+      return call.get();
+    }
+    var cached = get(key);
+    if (cached != null) {
+      return cached;
+    }
+    var response = call.get();
+    put(key, response);
+    return response;
+  }
+
+  /**
+   * Replays the cached response through the given listener, or starts the request and caches
+   * its response once it completes.
+   */
+  public EventSource getOrStream(
+      @Nullable String key,
+      CompletionEventListener<String> eventListener,
+      Function<CompletionEventListener<String>, EventSource> call) {
+    if (key == null) {
+      return call.apply(eventListener);
+    }
+
+    var memoryEntry = getMemoryEntry(key);
+    if (memoryEntry != null || diskKeys.contains(key)) {
+      var replay = new ReplayEventSource(key, eventListener, call);
+      executor.execute(replay::run);
+      return replay;
+    }
+    return call.apply(new CachingEventListener(key, eventListener));
+  }
+
+  private @Nullable String get(String key) {
+    var memoryEntry = getMemoryEntry(key);
+    if (memoryEntry != null) {
+      return memoryEntry.response();
+    }
+    if (!diskKeys.contains(key)) {
+      return null;
+    }
+
+    var file = getFile(key);
+    try {
+      if (isExpired(Files.getLastModifiedTime(file))) {
+        remove(key);
+        return null;
+      }
+      var response = Files.readString(file, StandardCharsets.UTF_8);
+      putMemoryEntry(key, new Entry(response, Files.getLastModifiedTime(file).toMillis()));
+      return response;
+    } catch (IOException e) {
+      LOG.debug("Unable to read the cached response", e);
+      diskKeys.remove(key);
+      return null;
+    }
+  }
+
+  private void put(String key, String response) {
+    if (response == null || response.isEmpty()) {
+      return;
+    }
+    var entry = new Entry(response, currentTimeMillis.getAsLong());
+    putMemoryEntry(key, entry);
+    executor.execute(() -> {
+      try {
+        Files.createDirectories(cacheDirectory);
+        var file = getFile(key);
+        Files.writeString(file, response, StandardCharsets.UTF_8);
+        // The entry expires and is trimmed by the time it was created, not written
+        Files.setLastModifiedTime(file, FileTime.fromMillis(entry.createdAtMillis()));
+        diskKeys.add(key);
+        trimDiskTier();
+      } catch (IOException e) {
+        LOG.warn("Unable to write the cached response", e);
+      }
+    });
+  }
+
+  private void remove(String key) {
+    synchronized (memoryEntries) {
+      memoryEntries.remove(key);
+    }
+    diskKeys.remove(key);
+    try {
+      Files.deleteIfExists(getFile(key));
+    } catch (IOException e) {
+      LOG.debug("Unable to delete the cached response", e);
+    }
+  }
+
+  private @Nullable Entry getMemoryEntry(String key) {
+    synchronized (memoryEntries) {
+      var entry = memoryEntries.get(key);
+      if (entry != null && isExpired(FileTime.fromMillis(entry.createdAtMillis()))) {
+        memoryEntries.remove(key);
+        return null;
+      }
+      return entry;
+    }
+  }
+
+  private void putMemoryEntry(String key, Entry entry) {
+    synchronized (memoryEntries) {
+      memoryEntries.put(key, entry);
+    }
+  }
+
+  private void loadDiskKeys() {
+    if (!Files.isDirectory(cacheDirectory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      files.forEach(file -> {
+        var fileName = file.getFileName().toString();
+        if (fileName.endsWith(FILE_EXTENSION)) {
+          diskKeys.add(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+        }
+      });
+      trimDiskTier();
+    } catch (IOException e) {
+      LOG.warn("Unable to load the response cache", e);
+    }
+  }
+
+  private synchronized void trimDiskTier() throws IOException {
+    if (!Files.isDirectory(cacheDirectory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      var entries = files
+          .filter(file -> file.getFileName().toString().endsWith(FILE_EXTENSION))
+          .map(DiskEntry::of)
+          .filter(Objects::nonNull)
+          .sorted(Comparator.comparing(DiskEntry::lastModified).reversed())
+          .toList();
+
+      long totalBytes = 0;
+      for (var entry : entries) {
+        totalBytes += entry.size();
+        if (totalBytes > MAX_DISK_BYTES || isExpired(entry.lastModified())) {
+          var fileName = entry.file().getFileName().toString();
+          diskKeys.remove(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+          Files.deleteIfExists(entry.file());
+        }
+      }
+    }
+  }
+
+  private Path getFile(String key) {
+    return cacheDirectory.resolve(key + FILE_EXTENSION);
+  }
+
+  private boolean isExpired(FileTime time) {
+    return currentTimeMillis.getAsLong() - time.toMillis() > TTL.toMillis();
+  }
+
+  private static String serialize(Request request) throws IOException {
+    var body = request.body();
+    if (body == null) {
+      return request.url().toString();
+    }
+    var buffer = new Buffer();
+    body.writeTo(buffer);
+    return request.url() + "\n" + buffer.readUtf8();
+  }
+
+  private record Entry(String response, long createdAtMillis) {
+  }
+
+  private record DiskEntry(Path file, long size, FileTime lastModified) {
+
+    static @Nullable DiskEntry of(Path file) {
+      try {
+        return new DiskEntry(file, Files.size(file), Files.getLastModifiedTime(file));
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Stores the response once the request completes successfully.
+   */
+  private final class CachingEventListener implements CompletionEventListener<String> {
+
+    private final String key;
+    private final CompletionEventListener<String> delegate;
+
+    CachingEventListener(String key, CompletionEventListener<String> delegate) {
+      this.key = key;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onOpen() {
+      delegate.onOpen();
+    }
+
+    @Override
+    public void onEvent(String data) {
+      delegate.onEvent(data);
+    }
+
+    @Override
+    public void onMessage(String message, EventSource eventSource) {
+      delegate.onMessage(message, eventSource);
+    }
+
+    @Override
+    public void onComplete(StringBuilder messageBuilder) {
+      put(key, messageBuilder.toString());
+      delegate.onComplete(messageBuilder);
+    }
+
+    @Override
+    public void onCancelled(StringBuilder messageBuilder) {
+      delegate.onCancelled(messageBuilder);
+    }
+
+    @Override
+    public void onError(ErrorDetails error, Throwable ex) {
+      delegate.onError(error, ex);
+    }
+  }
+
+  /**
+   * Streams a cached response through the listener. Falls back to the actual request if the
+   * entry turns out to be gone by the time it is read.
+   */
+  private final class ReplayEventSource implements EventSource {
+
+    private final String key;
+    private final CompletionEventListener<String> eventListener;
+    private final Function<CompletionEventListener<String>, EventSource> call;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile EventSource delegate;
+
+    ReplayEventSource(
+        String key,
+        CompletionEventListener<String> eventListener,
+        Function<CompletionEventListener<String>, EventSource> call) {
+      this.key = key;
+      this.eventListener = eventListener;
+      this.call = call;
+    }
+
+    void run() {
+      var response = get(key);
+      if (response == null) {
+        try {
+          delegate = call.apply(new CachingEventListener(key, eventListener));
+          if (cancelled.get()) {
+            delegate.cancel();
+          }
+        } catch (Throwable ex) {
+          eventListener.onError(new ErrorDetails("Something went wrong"), ex);
+        }
+        return;
+      }
+
+      eventListener.onOpen();
+      var replayed = new StringBuilder();
+      for (var line : response.split("(?<=\n)")) {
+        if (cancelled.get()) {
+          eventListener.onCancelled(replayed);
+          return;
+        }
+        replayed.append(line);
+        eventListener.onMessage(line, this);
+      }
+      eventListener.onComplete(new StringBuilder(response));
+    }
+
+    @Override
+    public @NotNull Request request() {
+      var eventSource = delegate;
+      if (eventSource == null) {
+        throw new IllegalStateException("Cached responses have no request");
+      }
+      return eventSource.request();
+    }
+
+    @Override
+    public void cancel() {
+      if (cancelled.compareAndSet(false, true)) {
+        var eventSource = delegate;
+        if (eventSource != null) {
+          eventSource.cancel();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package ee.carlrobert.codegpt.completions;
+
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reports rate-limit responses of a provider to the {@link CompletionRequestScheduler}, so that
+ * no further requests are sent to the provider before its {@code Retry-After} period is over.
+ */
+class RetryAfterInterceptor implements Interceptor {
+
+  private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(5);
+
+  private final ServiceType serviceType;
+  private final CompletionRequestScheduler scheduler;
+
+  RetryAfterInterceptor(ServiceType serviceType) {
+    this(serviceType, CompletionRequestScheduler.getInstance());
+  }
+
+  RetryAfterInterceptor(ServiceType serviceType, CompletionRequestScheduler scheduler) {
+    this.serviceType = serviceType;
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  public @NotNull Response intercept(@NotNull Chain chain) throws IOException {
+    var response = chain.proceed(chain.request());
+    if (response.code() == 429 || response.code() == 503) {
+      var retryAfter = parseRetryAfter(response.header("Retry-After"));
+      if (retryAfter != null || response.code() == 429) {
+        scheduler.onRetryAfter(
+            serviceType,
+            retryAfter == null ? DEFAULT_RETRY_AFTER : retryAfter);
+      }
+    }
+    return response;
+  }
+
+  private static Duration parseRetryAfter(String value) {
+    if (value == null || value.isBlank()) {
+      return null;
+    }
+    try {
+      return Duration.ofSeconds(Long.parseLong(value.trim()));
+    } catch (NumberFormatException ignored) {
+      // HTTP-date format
+    }
+    try {
+      var date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+      var delay = Duration.between(Instant.now(), date.toInstant());
+      return delay.isNegative() ? Duration.ZERO : delay;
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+}
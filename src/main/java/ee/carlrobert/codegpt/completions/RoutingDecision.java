@@ -0,0 +1,27 @@
+package ee.carlrobert.codegpt.completions;
+
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+
+/**
+ * Describes a request that was routed away from the selected provider.
+ *
+ * @param requestedService The provider the request was meant for.
+ * @param routedService    The provider that ended up serving the request.
+ * @param reason           Why the request was routed.
+ */
+public record RoutingDecision(
+    ServiceType requestedService,
+    ServiceType routedService,
+    Reason reason) {
+
+  public enum Reason {
+    /**
+     * The requested provider has been failing or slow recently, so it wasn't tried at all.
+     */
+    CIRCUIT_OPEN,
+    /**
+     * The requested provider failed before it produced any output.
+     */
+    REQUEST_FAILED
+  }
+}
@@ -0,0 +1,329 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
+import ee.carlrobert.llm.completion.CompletionEventListener;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import okhttp3.Request;
+import okhttp3.sse.EventSource;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lets concurrent identical requests share a single upstream call.
+ *
+ * <p>Requests are identified by a canonical key, see {@link #hash}. A request that arrives while
+ * another one with the same key is still in flight subscribes to it instead of calling the
+ * provider again. Streamed chunks are fanned out to every subscriber; late subscribers first
+ * receive everything streamed so far. Once a call finishes, the next identical request starts a
+ * new one, nothing is cached.
+ */
+@Service
+public final class SingleFlightRequests {
+
+  private final Map<String, CompletableFuture<Object>> blockingFlights = new ConcurrentHashMap<>();
+  private final Map<String, StreamingFlight> streamingFlights = new ConcurrentHashMap<>();
+
+  public static SingleFlightRequests getInstance() {
+    return ApplicationManager.getApplication().getService(SingleFlightRequests.class);
+  }
+
+  /**
+   * Builds a canonical key from the given request parts.
+   */
+  public static String hash(Object... parts) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      for (var part : parts) {
+        digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+        // Separator, so that ("ab", "c") and ("a", "bc") don't collide
+        digest.update((byte) 0);
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Executes a blocking call, or waits for the identical call that is already in flight.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T execute(String key, Supplier<T> call) {
+    var future = new CompletableFuture<Object>();
+    var existing = blockingFlights.putIfAbsent(key, future);
+    if (existing != null) {
+      try {
+        return (T) existing.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw e;
+      }
+    }
+
+    try {
+      var result = call.get();
+      future.complete(result);
+      return result;
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      blockingFlights.remove(key, future);
+    }
+  }
+
+  /**
+   * Starts a streaming call, or subscribes to the identical call that is already in flight.
+   *
+   * @return The subscription, cancelling it only cancels the upstream call once there are no
+   *     other subscribers left.
+   */
+  public EventSource stream(
+      String key,
+      CompletionEventListener<String> eventListener,
+      Function<CompletionEventListener<String>, EventSource> call) {
+    while (true) {
+      var flight = new StreamingFlight(key);
+      var existing = streamingFlights.putIfAbsent(key, flight);
+      if (existing != null) {
+        var subscription = existing.subscribe(eventListener);
+        if (subscription != null) {
+          return subscription;
+        }
+        // Finished in the meantime
+        streamingFlights.remove(key, existing);
+        continue;
+      }
+
+      var subscription = flight.subscribe(eventListener);
+      try {
+        flight.start(call.apply(flight));
+      } catch (RuntimeException e) {
+        streamingFlights.remove(key, flight);
+        flight.failOthers(subscription, e);
+        throw e;
+      }
+      return subscription;
+    }
+  }
+
+  private final class StreamingFlight implements CompletionEventListener<String> {
+
+    private final String key;
+    private final List<Subscription> subscribers = new ArrayList<>();
+    private final StringBuilder streamed = new StringBuilder();
+    private EventSource upstream;
+    private boolean opened;
+    private boolean finished;
+
+    StreamingFlight(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Adds a subscriber and replays what has been streamed so far to it. The replay is taken
+     * under the lock, so that no chunk is missed or replayed twice, but delivered after releasing
+     * it.
+     */
+    Subscription subscribe(CompletionEventListener<String> eventListener) {
+      var subscription = new Subscription(this, eventListener);
+      synchronized (this) {
+        if (finished) {
+          return null;
+        }
+        subscribers.add(subscription);
+        if (opened) {
+          subscription.enqueue(CompletionEventListener::onOpen);
+        }
+        if (!streamed.isEmpty()) {
+          var replay = streamed.toString();
+          subscription.enqueue(listener -> listener.onMessage(replay, subscription));
+        }
+      }
+      subscription.deliverEnqueued();
+      return subscription;
+    }
+
+    void start(EventSource eventSource) {
+      boolean cancelled;
+      synchronized (this) {
+        upstream = eventSource;
+        cancelled = finished;
+      }
+      if (cancelled) {
+        eventSource.cancel();
+      }
+    }
+
+    void unsubscribe(Subscription subscription) {
+      EventSource eventSourceToCancel = null;
+      String streamedSoFar;
+      synchronized (this) {
+        if (!subscribers.remove(subscription)) {
+          return;
+        }
+        streamedSoFar = streamed.toString();
+        if (subscribers.isEmpty() && !finished) {
+          finished = true;
+          streamingFlights.remove(key, this);
+          eventSourceToCancel = upstream;
+        }
+      }
+      subscription.deliver(listener -> listener.onCancelled(new StringBuilder(streamedSoFar)));
+      if (eventSourceToCancel != null) {
+        eventSourceToCancel.cancel();
+      }
+    }
+
+    void failOthers(Subscription caller, Throwable ex) {
+      for (var subscription : finish()) {
+        if (subscription != caller) {
+          subscription.deliver(
+              listener -> listener.onError(new ErrorDetails("Something went wrong"), ex));
+        }
+      }
+    }
+
+    synchronized EventSource getUpstream() {
+      return upstream;
+    }
+
+    @Override
+    public void onOpen() {
+      List<Subscription> targets;
+      synchronized (this) {
+        opened = true;
+        targets = List.copyOf(subscribers);
+      }
+      targets.forEach(it -> it.deliver(CompletionEventListener::onOpen));
+    }
+
+    @Override
+    public void onEvent(String data) {
+      getSubscribers().forEach(it -> it.deliver(listener -> listener.onEvent(data)));
+    }
+
+    @Override
+    public void onMessage(String message, EventSource eventSource) {
+      List<Subscription> targets;
+      synchronized (this) {
+        streamed.append(message);
+        targets = List.copyOf(subscribers);
+      }
+      targets.forEach(it -> it.deliver(listener -> listener.onMessage(message, it)));
+    }
+
+    @Override
+    public void onComplete(StringBuilder messageBuilder) {
+      var message = messageBuilder.toString();
+      finish().forEach(
+          it -> it.deliver(listener -> listener.onComplete(new StringBuilder(message))));
+    }
+
+    @Override
+    public void onCancelled(StringBuilder messageBuilder) {
+      var message = messageBuilder.toString();
+      finish().forEach(
+          it -> it.deliver(listener -> listener.onCancelled(new StringBuilder(message))));
+    }
+
+    @Override
+    public void onError(ErrorDetails error, Throwable ex) {
+      finish().forEach(it -> it.deliver(listener -> listener.onError(error, ex)));
+    }
+
+    private synchronized List<Subscription> getSubscribers() {
+      return List.copyOf(subscribers);
+    }
+
+    private List<Subscription> finish() {
+      synchronized (this) {
+        finished = true;
+        streamingFlights.remove(key, this);
+        var targets = List.copyOf(subscribers);
+        subscribers.clear();
+        return targets;
+      }
+    }
+  }
+
+  /**
+   * A subscriber of a flight. Its events are delivered one at a time and in order, whichever
+   * thread they come from, and never while the flight's lock is held.
+   */
+  private static final class Subscription implements EventSource {
+
+    private final StreamingFlight flight;
+    private final CompletionEventListener<String> eventListener;
+    private final ArrayDeque<Consumer<CompletionEventListener<String>>> events = new ArrayDeque<>();
+    private boolean delivering;
+
+    Subscription(StreamingFlight flight, CompletionEventListener<String> eventListener) {
+      this.flight = flight;
+      this.eventListener = eventListener;
+    }
+
+    synchronized void enqueue(Consumer<CompletionEventListener<String>> event) {
+      events.add(event);
+    }
+
+    void deliver(Consumer<CompletionEventListener<String>> event) {
+      enqueue(event);
+      deliverEnqueued();
+    }
+
+    /**
+     * Delivers the enqueued events, unless another call is already delivering them, e.g. further
+     * up the stack when a listener cancels its subscription.
+     */
+    void deliverEnqueued() {
+      while (true) {
+        Consumer<CompletionEventListener<String>> event;
+        synchronized (this) {
+          if (delivering || events.isEmpty()) {
+            return;
+          }
+          delivering = true;
+          event = events.poll();
+        }
+        try {
+          event.accept(eventListener);
+        } finally {
+          synchronized (this) {
+            delivering = false;
+          }
+        }
+      }
+    }
+
+    @Override
+    public @NotNull Request request() {
+      var upstream = flight.getUpstream();
+      if (upstream == null) {
+        throw new IllegalStateException("Request has not been started yet");
+      }
+      return upstream.request();
+    }
+
+    @Override
+    public void cancel() {
+      flight.unsubscribe(this);
+    }
+  }
+}
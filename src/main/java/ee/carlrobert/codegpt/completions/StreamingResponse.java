@@ -0,0 +1,70 @@
+package ee.carlrobert.codegpt.completions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The response of a request that is still streaming.
+ *
+ * <p>Appending a chunk only records it, the chunks are joined into a single string when the
+ * response is read and that string is kept until the next append. Reading the response on every
+ * token would still copy it over and over, so {@link #checkpoint()} tells when the response has
+ * grown enough to be worth reading, the total cost of reading at every checkpoint stays linear.
+ */
+public final class StreamingResponse {
+
+  static final int FIRST_CHECKPOINT_LENGTH = 1024;
+
+  private final List<String> chunks = new ArrayList<>();
+  private int length;
+  private int nextCheckpointLength = FIRST_CHECKPOINT_LENGTH;
+  private String materialized = "";
+
+  public synchronized void append(String chunk) {
+    if (chunk == null || chunk.isEmpty()) {
+      return;
+    }
+    chunks.add(chunk);
+    length += chunk.length();
+  }
+
+  public synchronized int length() {
+    return length;
+  }
+
+  public synchronized boolean isEmpty() {
+    return length == 0;
+  }
+
+  /**
+   * @return Whether the response has doubled in length since the previous checkpoint.
+   */
+  public synchronized boolean checkpoint() {
+    if (length < nextCheckpointLength) {
+      return false;
+    }
+    nextCheckpointLength = Math.max(length * 2, FIRST_CHECKPOINT_LENGTH);
+    return true;
+  }
+
+  /**
+   * Drops everything after the first {@code newLength} characters of the response.
+   */
+  public synchronized void truncate(int newLength) {
+    if (newLength < length) {
+      materialized = toString().substring(0, newLength);
+      length = newLength;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    if (!chunks.isEmpty()) {
+      var builder = new StringBuilder(length).append(materialized);
+      chunks.forEach(builder::append);
+      chunks.clear();
+      materialized = builder.toString();
+    }
+    return materialized;
+  }
+}
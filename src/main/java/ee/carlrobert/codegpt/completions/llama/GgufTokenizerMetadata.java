@@ -0,0 +1,174 @@
+package ee.carlrobert.codegpt.completions.llama;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tokenizer details of a GGUF model, read from the metadata in the header of the model file.
+ *
+ * @param model          Tokenizer model, e.g. {@code llama} for SentencePiece or {@code gpt2} for
+ *                       byte-level BPE.
+ * @param vocabularySize Number of tokens in the vocabulary.
+ */
+public record GgufTokenizerMetadata(String model, int vocabularySize) {
+
+  private static final int MAGIC = 0x46554747; // "GGUF" in little-endian
+  private static final String MODEL_KEY = "tokenizer.ggml.model";
+  private static final String TOKENS_KEY = "tokenizer.ggml.tokens";
+
+  private static final int TYPE_UINT8 = 0;
+  private static final int TYPE_INT8 = 1;
+  private static final int TYPE_UINT16 = 2;
+  private static final int TYPE_INT16 = 3;
+  private static final int TYPE_UINT32 = 4;
+  private static final int TYPE_INT32 = 5;
+  private static final int TYPE_FLOAT32 = 6;
+  private static final int TYPE_BOOL = 7;
+  private static final int TYPE_STRING = 8;
+  private static final int TYPE_ARRAY = 9;
+  private static final int TYPE_UINT64 = 10;
+  private static final int TYPE_INT64 = 11;
+  private static final int TYPE_FLOAT64 = 12;
+
+  /**
+   * Reads the metadata key-value pairs until both tokenizer details are found, the tensors after
+   * them are never read.
+   *
+   * @return The tokenizer details, or {@code null} if the file has none.
+   * @throws IOException if the file can't be read or isn't a GGUF file of version 2 or later.
+   */
+  public static @Nullable GgufTokenizerMetadata read(Path modelPath) throws IOException {
+    try (var input = new LittleEndianInput(
+        new BufferedInputStream(Files.newInputStream(modelPath), 64 * 1024))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Not a GGUF file: " + modelPath);
+      }
+      var version = input.readInt();
+      if (version < 2) {
+        throw new IOException("Unsupported GGUF version " + version + ": " + modelPath);
+      }
+      input.readLong(); // tensor count
+      var keyValueCount = input.readLong();
+
+      String model = null;
+      var vocabularySize = -1;
+      for (long i = 0; i < keyValueCount && (model == null || vocabularySize == -1); i++) {
+        var key = input.readString();
+        var type = input.readInt();
+        if (MODEL_KEY.equals(key) && type == TYPE_STRING) {
+          model = input.readString();
+        } else if (TOKENS_KEY.equals(key) && type == TYPE_ARRAY) {
+          var elementType = input.readInt();
+          var length = input.readLong();
+          vocabularySize = (int) length;
+          skipArray(input, elementType, length);
+        } else {
+          skipValue(input, type);
+        }
+      }
+      return model == null || vocabularySize == -1
+          ? null
+          : new GgufTokenizerMetadata(model, vocabularySize);
+    }
+  }
+
+  private static void skipValue(LittleEndianInput input, int type) throws IOException {
+    if (type == TYPE_STRING) {
+      input.skip(input.readLong());
+    } else if (type == TYPE_ARRAY) {
+      var elementType = input.readInt();
+      skipArray(input, elementType, input.readLong());
+    } else {
+      input.skip(getSize(type));
+    }
+  }
+
+  private static void skipArray(LittleEndianInput input, int elementType, long length)
+      throws IOException {
+    if (elementType == TYPE_STRING || elementType == TYPE_ARRAY) {
+      for (long i = 0; i < length; i++) {
+        skipValue(input, elementType);
+      }
+    } else {
+      input.skip(getSize(elementType) * length);
+    }
+  }
+
+  private static long getSize(int type) throws IOException {
+    return switch (type) {
+      case TYPE_UINT8, TYPE_INT8, TYPE_BOOL -> 1;
+      case TYPE_UINT16, TYPE_INT16 -> 2;
+      case TYPE_UINT32, TYPE_INT32, TYPE_FLOAT32 -> 4;
+      case TYPE_UINT64, TYPE_INT64, TYPE_FLOAT64 -> 8;
+      default -> throw new IOException("Unknown GGUF value type " + type);
+    };
+  }
+
+  private static final class LittleEndianInput implements AutoCloseable {
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[8];
+
+    LittleEndianInput(InputStream input) {
+      this.input = input;
+    }
+
+    int readInt() throws IOException {
+      readFully(buffer, 4);
+      return (buffer[0] & 0xFF)
+          | (buffer[1] & 0xFF) << 8
+          | (buffer[2] & 0xFF) << 16
+          | (buffer[3] & 0xFF) << 24;
+    }
+
+    long readLong() throws IOException {
+      return (readInt() & 0xFFFFFFFFL) | (long) readInt() << 32;
+    }
+
+    String readString() throws IOException {
+      var length = readLong();
+      if (length < 0 || length > Integer.MAX_VALUE) {
+        throw new IOException("Invalid GGUF string length " + length);
+      }
+      var bytes = new byte[(int) length];
+      readFully(bytes, bytes.length);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void skip(long count) throws IOException {
+      var remaining = count;
+      while (remaining > 0) {
+        var skipped = input.skip(remaining);
+        if (skipped <= 0) {
+          if (input.read() == -1) {
+            throw new EOFException();
+          }
+          skipped = 1;
+        }
+        remaining -= skipped;
+      }
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+      var offset = 0;
+      while (offset < length) {
+        var read = input.read(bytes, offset, length - offset);
+        if (read == -1) {
+          throw new EOFException();
+        }
+        offset += read;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+}
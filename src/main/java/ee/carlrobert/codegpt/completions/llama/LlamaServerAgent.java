@@ -18,6 +18,7 @@ import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.Key;
 import ee.carlrobert.codegpt.CodeGPTBundle;
 import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier;
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
 import ee.carlrobert.codegpt.settings.service.llama.form.ServerProgressPanel;
 import ee.carlrobert.codegpt.ui.OverlayUtil;
@@ -161,6 +162,7 @@ public final class LlamaServerAgent implements Disposable {
               LOG.info("Server up and running!");
 
               LlamaSettings.getCurrentState().setServerPort(port);
+              notifyServerPortChanged();
               onSuccess.run();
             }
           } catch (Exception ignore) {
@@ -171,6 +173,14 @@ public final class LlamaServerAgent implements Disposable {
     };
   }
 
+  // Drops the cached clients that still point to the previous port
+  private static void notifyServerPortChanged() {
+    var topic = ProviderSettingsChangeNotifier.getPROVIDER_SETTINGS_CHANGE_TOPIC();
+    ApplicationManager.getApplication().getMessageBus()
+        .syncPublisher(topic)
+        .providerSettingsChanged();
+  }
+
   private void showServerError(String errorText, Consumer<ServerProgressPanel> onServerStopped) {
     onServerStopped.accept(activeServerProgressPanel);
     LOG.info("Unable to start llama server:\n" + errorText);
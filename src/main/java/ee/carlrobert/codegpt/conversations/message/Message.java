@@ -22,6 +22,8 @@ public class Message {
   private boolean webSearchIncluded;
   private DocumentationDetails documentationDetails;
   private PersonaDetails personaDetails;
+  private @Nullable TokenCount promptTokenCount;
+  private @Nullable TokenCount responseTokenCount;
 
   public Message(String prompt, String response) {
     this(prompt);
@@ -44,6 +46,7 @@ public class Message {
 
   public void setPrompt(String prompt) {
     this.prompt = prompt;
+    this.promptTokenCount = null;
   }
 
   public String getResponse() {
@@ -52,6 +55,7 @@ public class Message {
 
   public void setResponse(String response) {
     this.response = response;
+    this.responseTokenCount = null;
   }
 
   public String getUserMessage() {
@@ -110,6 +114,22 @@ public class Message {
     this.personaDetails = personaDetails;
   }
 
+  public @Nullable TokenCount getPromptTokenCount() {
+    return promptTokenCount;
+  }
+
+  public void setPromptTokenCount(@Nullable TokenCount promptTokenCount) {
+    this.promptTokenCount = promptTokenCount;
+  }
+
+  public @Nullable TokenCount getResponseTokenCount() {
+    return responseTokenCount;
+  }
+
+  public void setResponseTokenCount(@Nullable TokenCount responseTokenCount) {
+    this.responseTokenCount = responseTokenCount;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj == this) {
@@ -0,0 +1,16 @@
+package ee.carlrobert.codegpt.conversations.message;
+
+/**
+ * Token count of a message's content, valid for as long as the content and the encoding it was
+ * counted with stay the same.
+ *
+ * @param encoding    Name of the encoding the content was counted with.
+ * @param contentHash Hash of the counted content.
+ * @param tokens      Number of tokens of the content.
+ */
+public record TokenCount(String encoding, int contentHash, int tokens) {
+
+  public boolean isValidFor(String encoding, String content) {
+    return this.encoding.equals(encoding) && contentHash == content.hashCode();
+  }
+}
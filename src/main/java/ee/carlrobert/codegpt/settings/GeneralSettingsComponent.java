@@ -1,17 +1,36 @@
 package ee.carlrobert.codegpt.settings;
 
+import static ee.carlrobert.codegpt.ui.UIUtil.createComment;
+
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.ui.SimpleListCellRenderer;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.util.ui.FormBuilder;
 import ee.carlrobert.codegpt.CodeGPTBundle;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 
 public class GeneralSettingsComponent {
 
   private final JBTextField displayNameField;
+  private final ComboBox<ServiceType> fallbackServiceComboBox;
 
   public GeneralSettingsComponent(GeneralSettings settings) {
     displayNameField = new JBTextField(settings.getState().getDisplayName(), 20);
+
+    var fallbackServices = new ArrayList<ServiceType>();
+    fallbackServices.add(null);
+    fallbackServices.addAll(Arrays.asList(ServiceType.values()));
+    fallbackServiceComboBox = new ComboBox<>(
+        new DefaultComboBoxModel<>(fallbackServices.toArray(new ServiceType[0])));
+    fallbackServiceComboBox.setRenderer(SimpleListCellRenderer.create(
+        CodeGPTBundle.get("settingsConfigurable.fallbackService.none"),
+        ServiceType::getLabel));
+    fallbackServiceComboBox.setSelectedItem(settings.getState().getFallbackService());
   }
 
   public JPanel getPanel() {
@@ -19,6 +38,11 @@ public class GeneralSettingsComponent {
         .addLabeledComponent(
             CodeGPTBundle.get("settingsConfigurable.displayName.label"),
             displayNameField)
+        .addLabeledComponent(
+            CodeGPTBundle.get("settingsConfigurable.fallbackService.label"),
+            fallbackServiceComboBox)
+        .addComponentToRightColumn(
+            createComment("settingsConfigurable.fallbackService.comment"))
         .addComponentFillVertically(new JPanel(), 0)
         .getPanel();
   }
@@ -34,4 +58,12 @@ public class GeneralSettingsComponent {
   public void setDisplayName(String displayName) {
     displayNameField.setText(displayName);
   }
+
+  public ServiceType getFallbackService() {
+    return (ServiceType) fallbackServiceComboBox.getSelectedItem();
+  }
+
+  public void setFallbackService(ServiceType fallbackService) {
+    fallbackServiceComboBox.setSelectedItem(fallbackService);
+  }
 }
@@ -31,16 +31,21 @@ public class GeneralSettingsConfigurable implements Configurable {
   @Override
   public boolean isModified() {
     var settings = GeneralSettings.getCurrentState();
-    return !component.getDisplayName().equals(settings.getDisplayName());
+    return !component.getDisplayName().equals(settings.getDisplayName())
+        || component.getFallbackService() != settings.getFallbackService();
   }
 
   @Override
   public void apply() {
-    GeneralSettings.getCurrentState().setDisplayName(component.getDisplayName());
+    var settings = GeneralSettings.getCurrentState();
+    settings.setDisplayName(component.getDisplayName());
+    settings.setFallbackService(component.getFallbackService());
   }
 
   @Override
   public void reset() {
-    component.setDisplayName(GeneralSettings.getCurrentState().getDisplayName());
+    var settings = GeneralSettings.getCurrentState();
+    component.setDisplayName(settings.getDisplayName());
+    component.setFallbackService(settings.getFallbackService());
   }
 }
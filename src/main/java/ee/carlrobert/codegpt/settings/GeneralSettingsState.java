@@ -8,6 +8,7 @@ public class GeneralSettingsState {
 
   private String displayName = "";
   private ServiceType selectedService = ServiceType.CUSTOM_OPENAI;
+  private ServiceType fallbackService;
 
   public String getDisplayName() {
     if (displayName == null || displayName.isEmpty()) {
@@ -36,4 +37,12 @@ public class GeneralSettingsState {
         .syncPublisher(ProviderChangeNotifier.getTOPIC())
         .providerChanged(selectedService);
   }
+
+  public ServiceType getFallbackService() {
+    return fallbackService;
+  }
+
+  public void setFallbackService(ServiceType fallbackService) {
+    this.fallbackService = fallbackService;
+  }
 }
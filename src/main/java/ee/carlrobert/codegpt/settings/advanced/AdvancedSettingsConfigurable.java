@@ -1,7 +1,9 @@
 package ee.carlrobert.codegpt.settings.advanced;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.options.Configurable;
 import ee.carlrobert.codegpt.CodeGPTBundle;
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier;
 import javax.swing.JComponent;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.Nullable;
@@ -31,6 +33,9 @@ public class AdvancedSettingsConfigurable implements Configurable {
   @Override
   public void apply() {
     AdvancedSettings.getInstance().loadState(component.getCurrentFormState());
+    ApplicationManager.getApplication().getMessageBus()
+        .syncPublisher(ProviderSettingsChangeNotifier.getPROVIDER_SETTINGS_CHANGE_TOPIC())
+        .providerSettingsChanged();
   }
 
   @Override
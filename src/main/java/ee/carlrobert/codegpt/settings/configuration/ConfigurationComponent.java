@@ -1,6 +1,7 @@
 package ee.carlrobert.codegpt.settings.configuration;
 
 import static ee.carlrobert.codegpt.actions.editor.EditorActionsUtil.DEFAULT_ACTIONS_ARRAY;
+import static ee.carlrobert.codegpt.ui.UIUtil.createComment;
 
 import com.intellij.icons.AllIcons;
 import com.intellij.icons.AllIcons.Nodes;
@@ -45,10 +46,14 @@ public class ConfigurationComponent {
   private final JBCheckBox checkForNewScreenshotsCheckBox;
   private final JBCheckBox openNewTabCheckBox;
   private final JBCheckBox methodNameGenerationCheckBox;
+  private final JBCheckBox responseCacheCheckBox;
   private final JBCheckBox autoFormattingCheckBox;
   private final JBCheckBox autocompletionPostProcessingCheckBox;
   private final JBCheckBox autocompletionContextAwareCheckBox;
   private final JBCheckBox autocompletionGitContextCheckBox;
+  private final JBCheckBox autocompletionHedgingCheckBox;
+  private final IntegerField autocompletionHedgingPercentileField;
+  private final IntegerField chatRenderIntervalField;
   private final JTextArea commitMessagePromptTextArea;
   private final IntegerField maxTokensField;
   private final JBTextField temperatureField;
@@ -112,6 +117,9 @@ public class ConfigurationComponent {
     methodNameGenerationCheckBox = new JBCheckBox(
         CodeGPTBundle.get("configurationConfigurable.enableMethodNameGeneration.label"),
         configuration.getMethodNameGenerationEnabled());
+    responseCacheCheckBox = new JBCheckBox(
+        CodeGPTBundle.get("configurationConfigurable.responseCache.label"),
+        configuration.getResponseCacheEnabled());
     autoFormattingCheckBox = new JBCheckBox(
         CodeGPTBundle.get("configurationConfigurable.autoFormatting.label"),
         configuration.getAutoFormattingEnabled());
@@ -127,6 +135,17 @@ public class ConfigurationComponent {
         CodeGPTBundle.get("configurationConfigurable.autocompletionGitContextCheckBox.label"),
         configuration.getAutocompletionGitContextEnabled()
     );
+    autocompletionHedgingCheckBox = new JBCheckBox(
+        CodeGPTBundle.get("configurationConfigurable.autocompletionHedgingCheckBox.label"),
+        configuration.getAutocompletionHedgingEnabled()
+    );
+    autocompletionHedgingPercentileField = new IntegerField(null, 50, 99);
+    autocompletionHedgingPercentileField.setColumns(12);
+    autocompletionHedgingPercentileField.setValue(
+        configuration.getAutocompletionHedgingPercentile());
+    chatRenderIntervalField = new IntegerField(null, 16, 100);
+    chatRenderIntervalField.setColumns(12);
+    chatRenderIntervalField.setValue(configuration.getChatRenderIntervalMillis());
 
     mainPanel = FormBuilder.createFormBuilder()
         .addComponent(tablePanel)
@@ -135,10 +154,23 @@ public class ConfigurationComponent {
         .addComponent(checkForNewScreenshotsCheckBox)
         .addComponent(openNewTabCheckBox)
         .addComponent(methodNameGenerationCheckBox)
+        .addComponent(responseCacheCheckBox)
+        .addComponentToRightColumn(createComment("configurationConfigurable.responseCache.comment"))
         .addComponent(autoFormattingCheckBox)
         .addComponent(autocompletionPostProcessingCheckBox)
         .addComponent(autocompletionContextAwareCheckBox)
         .addComponent(autocompletionGitContextCheckBox)
+        .addComponent(autocompletionHedgingCheckBox)
+        .addLabeledComponent(
+            CodeGPTBundle.get("configurationConfigurable.autocompletionHedgingPercentile.label"),
+            autocompletionHedgingPercentileField)
+        .addComponentToRightColumn(
+            createComment("configurationConfigurable.autocompletionHedgingPercentile.comment"))
+        .addLabeledComponent(
+            CodeGPTBundle.get("configurationConfigurable.chatRenderInterval.label"),
+            chatRenderIntervalField)
+        .addComponentToRightColumn(
+            createComment("configurationConfigurable.chatRenderInterval.comment"))
         .addVerticalGap(4)
         .addComponent(new TitledSeparator(
             CodeGPTBundle.get("configurationConfigurable.section.assistant.title")))
@@ -164,10 +196,14 @@ public class ConfigurationComponent {
     state.setCheckForNewScreenshots(checkForNewScreenshotsCheckBox.isSelected());
     state.setCreateNewChatOnEachAction(openNewTabCheckBox.isSelected());
     state.setMethodNameGenerationEnabled(methodNameGenerationCheckBox.isSelected());
+    state.setResponseCacheEnabled(responseCacheCheckBox.isSelected());
     state.setAutoFormattingEnabled(autoFormattingCheckBox.isSelected());
     state.setAutocompletionPostProcessingEnabled(autocompletionPostProcessingCheckBox.isSelected());
     state.setAutocompletionContextAwareEnabled(autocompletionContextAwareCheckBox.isSelected());
     state.setAutocompletionGitContextEnabled(autocompletionGitContextCheckBox.isSelected());
+    state.setAutocompletionHedgingEnabled(autocompletionHedgingCheckBox.isSelected());
+    state.setAutocompletionHedgingPercentile(autocompletionHedgingPercentileField.getValue());
+    state.setChatRenderIntervalMillis(chatRenderIntervalField.getValue());
     return state;
   }
 
@@ -181,6 +217,7 @@ public class ConfigurationComponent {
     checkForNewScreenshotsCheckBox.setSelected(configuration.getCheckForNewScreenshots());
     openNewTabCheckBox.setSelected(configuration.getCreateNewChatOnEachAction());
     methodNameGenerationCheckBox.setSelected(configuration.getMethodNameGenerationEnabled());
+    responseCacheCheckBox.setSelected(configuration.getResponseCacheEnabled());
     autoFormattingCheckBox.setSelected(configuration.getAutoFormattingEnabled());
     autocompletionPostProcessingCheckBox.setSelected(
         configuration.getAutocompletionPostProcessingEnabled());
@@ -189,6 +226,10 @@ public class ConfigurationComponent {
     autocompletionGitContextCheckBox.setSelected(
         configuration.getAutocompletionGitContextEnabled()
     );
+    autocompletionHedgingCheckBox.setSelected(configuration.getAutocompletionHedgingEnabled());
+    autocompletionHedgingPercentileField.setValue(
+        configuration.getAutocompletionHedgingPercentile());
+    chatRenderIntervalField.setValue(configuration.getChatRenderIntervalMillis());
   }
 
   private Map<String, String> getTableData() {
@@ -0,0 +1,210 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import ee.carlrobert.codegpt.EncodingManager;
+import ee.carlrobert.codegpt.util.file.FileUtil;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the token counts of files, so that files referenced in the chat are only read and
+ * encoded again once their content or the selected tokenizer changes.
+ *
+ * <p>Files are counted with their current content, including unsaved changes. A count is valid
+ * for the modification stamp of the content it was counted for, or for the exact content when
+ * the caller already holds it. Entries are dropped as documents are edited and as the VFS
+ * reports changed and deleted files, the least recently used ones are evicted once there are
+ * more than {@link #MAX_ENTRIES}.
+ */
+@Service(Service.Level.PROJECT)
+public final class FileTokenCountCache implements Disposable {
+
+  static final int MAX_ENTRIES = 20_000;
+  // Stamp of counts whose content was read by the caller, they are only valid for that content
+  private static final long UNKNOWN_STAMP = -1;
+
+  private static final Logger LOG = Logger.getInstance(FileTokenCountCache.class);
+
+  private final Map<VirtualFile, FileTokenCount> entries =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<VirtualFile, FileTokenCount> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private final ExecutorService executor =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("CodeGPT File Token Counter", 2);
+
+  public FileTokenCountCache(Project project) {
+    project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES,
+        new BulkFileListener() {
+          @Override
+          public void after(@NotNull List<? extends VFileEvent> events) {
+            for (var event : events) {
+              var file = event.getFile();
+              if (file != null && !(event instanceof VFileCreateEvent)) {
+                invalidate(file);
+              }
+            }
+          }
+        });
+    EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
+      @Override
+      public void documentChanged(@NotNull DocumentEvent event) {
+        var file = FileDocumentManager.getInstance().getFile(event.getDocument());
+        if (file != null) {
+          invalidate(file);
+        }
+      }
+    }, this);
+  }
+
+  public static FileTokenCountCache getInstance(Project project) {
+    return project.getService(FileTokenCountCache.class);
+  }
+
+  /**
+   * @return The token count of the file's current content with the selected tokenizer, or
+   * {@code null} if it hasn't been counted yet.
+   */
+  public @Nullable Integer getCachedTokenCount(VirtualFile file) {
+    var modificationStamp = FileUtil.getContentModificationStamp(file);
+    var tokenizerName = getTokenizerName();
+    synchronized (entries) {
+      var entry = entries.get(file);
+      return entry != null
+          && entry.modificationStamp() == modificationStamp
+          && entry.tokenizerName().equals(tokenizerName)
+          && file.isValid()
+          ? entry.tokens()
+          : null;
+    }
+  }
+
+  /**
+   * @return The token count of the given content of the file, or {@code null} if it hasn't been
+   * counted yet.
+   */
+  public @Nullable Integer getCachedTokenCount(VirtualFile file, String content) {
+    var tokenizerName = getTokenizerName();
+    synchronized (entries) {
+      var entry = entries.get(file);
+      return entry != null
+          && entry.contentHash() == content.hashCode()
+          && entry.tokenizerName().equals(tokenizerName)
+          ? entry.tokens()
+          : null;
+    }
+  }
+
+  /**
+   * Counts the given content of the file, which the caller has already read, and caches the
+   * count for it.
+   *
+   * @throws com.intellij.openapi.progress.ProcessCanceledException if the count was canceled.
+   */
+  public int getTokenCount(VirtualFile file, String content) {
+    var cached = getCachedTokenCount(file, content);
+    return cached == null ? count(file, content, UNKNOWN_STAMP) : cached;
+  }
+
+  /**
+   * Reads and counts the files that aren't cached yet on a pooled thread. Unreadable and binary
+   * files count as empty.
+   *
+   * @param indicator Cancels the count, the future then completes exceptionally.
+   * @return A future of the token counts of all the given files.
+   */
+  public CompletableFuture<Map<VirtualFile, Integer>> countInBackground(
+      Collection<VirtualFile> files,
+      ProgressIndicator indicator) {
+    return CompletableFuture.supplyAsync(() -> ProgressManager.getInstance().runProcess(() -> {
+      var tokenCounts = new HashMap<VirtualFile, Integer>();
+      for (var file : files) {
+        ProgressManager.checkCanceled();
+        var cached = getCachedTokenCount(file);
+        if (cached == null) {
+          // Taken first, a change made while reading leaves the entry stale rather than wrong
+          var modificationStamp = FileUtil.getContentModificationStamp(file);
+          cached = count(file, loadText(file), modificationStamp);
+        }
+        tokenCounts.put(file, cached);
+      }
+      return tokenCounts;
+    }, indicator), executor);
+  }
+
+  public void invalidate(VirtualFile file) {
+    synchronized (entries) {
+      if (!file.isDirectory()) {
+        entries.remove(file);
+        return;
+      }
+      entries.keySet().removeIf(entry -> VfsUtilCore.isAncestor(file, entry, false));
+    }
+  }
+
+  @Override
+  public void dispose() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  private int count(VirtualFile file, String content, long modificationStamp) {
+    var tokenizerName = getTokenizerName();
+    var tokens = EncodingManager.getInstance().countTokensCancellable(content);
+    synchronized (entries) {
+      entries.put(file, new FileTokenCount(
+          modificationStamp, content.hashCode(), tokenizerName, tokens));
+    }
+    return tokens;
+  }
+
+  private static String loadText(VirtualFile file) {
+    if (file.isDirectory() || file.getFileType().isBinary()) {
+      return "";
+    }
+    try {
+      return FileUtil.readContent(file);
+    } catch (IOException ex) {
+      LOG.warn("Could not read " + file.getPath(), ex);
+      return "";
+    }
+  }
+
+  private static String getTokenizerName() {
+    return TokenizerRegistry.getInstance().getCurrentTokenizer().getName();
+  }
+
+  private record FileTokenCount(
+      long modificationStamp,
+      int contentHash,
+      String tokenizerName,
+      int tokens) {
+  }
+}
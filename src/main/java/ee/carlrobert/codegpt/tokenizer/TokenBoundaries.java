@@ -0,0 +1,49 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+/**
+ * Finds the places where a text can be split without changing how it is tokenized.
+ *
+ * <p>The pre-tokenization of the BPE encodings splits a text into words, numbers, punctuation
+ * and whitespace before encoding each part on its own, and none of these parts runs from a
+ * non-whitespace character into a following space. A text split in front of a space that follows
+ * a non-whitespace character therefore encodes to the same tokens on both sides as the whole text
+ * does, no token spans the boundary.
+ */
+public final class TokenBoundaries {
+
+  private TokenBoundaries() {
+  }
+
+  public static boolean isBoundary(CharSequence text, int index) {
+    return index > 0
+        && index < text.length()
+        && text.charAt(index) == ' '
+        && !Character.isWhitespace(text.charAt(index - 1));
+  }
+
+  /**
+   * @return The first boundary at or after the index, or the length of the text if there is
+   * none.
+   */
+  public static int findBoundaryAfter(CharSequence text, int index) {
+    for (int i = Math.max(index, 1); i < text.length(); i++) {
+      if (isBoundary(text, i)) {
+        return i;
+      }
+    }
+    return text.length();
+  }
+
+  /**
+   * @return The last boundary at or before the index and after {@code min}, or {@code -1} if
+   * there is none.
+   */
+  public static int findBoundaryBefore(CharSequence text, int index, int min) {
+    for (int i = Math.min(index, text.length() - 1); i > min; i--) {
+      if (isBoundary(text, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,75 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+/**
+ * Estimates the cl100k token count of a text from its character classes and UTF-8 byte length,
+ * without encoding it.
+ *
+ * <p>Long texts are estimated from a fixed number of samples spread over the text, so the cost
+ * doesn't depend on the length of the text. The estimate is only meant for live counters until
+ * the exact count is known.
+ */
+public final class TokenEstimator {
+
+  static final int SAMPLE_LENGTH = 1024;
+  static final int SAMPLE_COUNT = 4;
+
+  // Average tokens per character of each class, words take about four letters per token
+  private static final double LETTER = 0.25;
+  private static final double DIGIT = 0.4;
+  private static final double SPACE = 0.1;
+  private static final double OTHER_WHITESPACE = 0.5;
+  private static final double PUNCTUATION = 0.7;
+  // Non-ASCII characters mostly take a token per two or three UTF-8 bytes
+  private static final double TWO_BYTE_CHAR = 0.5;
+  private static final double THREE_BYTE_CHAR = 1.0;
+  private static final double FOUR_BYTE_CHAR = 1.5;
+
+  private TokenEstimator() {
+  }
+
+  public static int estimateTokens(CharSequence text) {
+    var length = text.length();
+    if (length <= SAMPLE_LENGTH * SAMPLE_COUNT) {
+      return (int) Math.ceil(estimateTokens(text, 0, length));
+    }
+
+    var stride = length / SAMPLE_COUNT;
+    var sampledTokens = 0.0;
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      var start = i * stride;
+      sampledTokens += estimateTokens(text, start, start + SAMPLE_LENGTH);
+    }
+    return (int) Math.ceil(sampledTokens * length / (SAMPLE_LENGTH * SAMPLE_COUNT));
+  }
+
+  private static double estimateTokens(CharSequence text, int start, int end) {
+    var tokens = 0.0;
+    for (int i = start; i < end; i++) {
+      tokens += getTokensPerChar(text.charAt(i));
+    }
+    return tokens;
+  }
+
+  private static double getTokensPerChar(char c) {
+    if (c < 0x80) {
+      if (Character.isLetter(c)) {
+        return LETTER;
+      }
+      if (Character.isDigit(c)) {
+        return DIGIT;
+      }
+      if (c == ' ') {
+        return SPACE;
+      }
+      return Character.isWhitespace(c) ? OTHER_WHITESPACE : PUNCTUATION;
+    }
+    if (c < 0x800) {
+      return TWO_BYTE_CHAR;
+    }
+    if (Character.isHighSurrogate(c)) {
+      return FOUR_BYTE_CHAR;
+    }
+    // Counted with the high surrogate in front of it
+    return Character.isLowSurrogate(c) ? 0 : THREE_BYTE_CHAR;
+  }
+}
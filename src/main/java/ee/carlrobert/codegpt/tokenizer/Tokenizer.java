@@ -0,0 +1,48 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.knuddels.jtokkit.api.Encoding;
+
+/**
+ * Counts tokens the way a model does, either with the model's own BPE encoding or, for models
+ * whose tokenizer isn't public, with the closest public encoding and a correction factor.
+ *
+ * @param encoding         Encoding the counts are based on.
+ * @param correctionFactor Ratio of the model's token count to the encoding's token count.
+ */
+public record Tokenizer(Encoding encoding, double correctionFactor) {
+
+  public Tokenizer(Encoding encoding) {
+    this(encoding, 1.0);
+  }
+
+  /**
+   * @return The name of the encoding, followed by the correction factor if there is one.
+   */
+  public String getName() {
+    return isExact() ? encoding.getName() : encoding.getName() + "*" + correctionFactor;
+  }
+
+  public boolean isExact() {
+    return correctionFactor == 1.0;
+  }
+
+  public int countTokens(String text) {
+    return fromEncodingTokens(encoding.countTokens(text));
+  }
+
+  /**
+   * Converts a number of the encoding's tokens into the number of the model's tokens they
+   * correspond to.
+   */
+  public int fromEncodingTokens(int tokens) {
+    return isExact() ? tokens : (int) Math.ceil(tokens * correctionFactor);
+  }
+
+  /**
+   * Converts a number of the model's tokens into the number of the encoding's tokens they
+   * correspond to.
+   */
+  public int toEncodingTokens(int tokens) {
+    return isExact() ? tokens : (int) (tokens / correctionFactor);
+  }
+}
@@ -0,0 +1,185 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import ee.carlrobert.codegpt.completions.llama.GgufTokenizerMetadata;
+import ee.carlrobert.codegpt.conversations.ConversationService;
+import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.settings.service.custom.CustomServiceSettings;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Picks the tokenizer of the selected provider and model.
+ *
+ * <p>OpenAI models use their own encoding. Models whose tokenizer isn't public are counted with
+ * the closest public encoding scaled by a correction factor. The factors are rough estimates of
+ * how many more tokens those tokenizers produce for English text and code, not measurements, so
+ * their counts are approximate. Local llama.cpp models are calibrated by the tokenizer type and
+ * vocabulary size found in the metadata of the GGUF file.
+ *
+ * <p>Encodings are loaded on first use and tokenizers are cached per provider and model. The GGUF
+ * metadata is never read on the EDT, the llama.cpp tokenizer is estimated by default until it has
+ * been read in the background.
+ */
+@Service
+public final class TokenizerRegistry {
+
+  // Claude's tokenizer is estimated to produce about 15% more tokens than cl100k
+  static final double CLAUDE_CORRECTION_FACTOR = 1.15;
+  // Gemini's SentencePiece vocabulary is close to o200k in size and efficiency
+  static final double GEMINI_CORRECTION_FACTOR = 1.05;
+  // Smaller SentencePiece vocabularies, e.g. Llama 2, Mistral and CodeLlama
+  static final double SMALL_VOCABULARY_CORRECTION_FACTOR = 1.25;
+  // Smaller byte-level BPE vocabularies, e.g. StarCoder and DeepSeek Coder
+  static final double SMALL_BPE_VOCABULARY_CORRECTION_FACTOR = 1.1;
+  static final int LARGE_VOCABULARY_SIZE = 100_000;
+
+  private static final Logger LOG = Logger.getInstance(TokenizerRegistry.class);
+
+  private final EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+  private final Map<String, Tokenizer> tokenizers = new ConcurrentHashMap<>();
+  private final Set<String> pendingTokenizers = ConcurrentHashMap.newKeySet();
+
+  TokenizerRegistry() {
+  }
+
+  public static TokenizerRegistry getInstance() {
+    return ApplicationManager.getApplication().getService(TokenizerRegistry.class);
+  }
+
+  public Encoding getEncoding(EncodingType encodingType) {
+    return registry.getEncoding(encodingType);
+  }
+
+  /**
+   * @return The tokenizer of the selected service and its selected model.
+   */
+  public Tokenizer getCurrentTokenizer() {
+    var serviceType = GeneralSettings.getSelectedService();
+    return getTokenizer(serviceType, getSelectedModel(serviceType));
+  }
+
+  public Tokenizer getTokenizer(ServiceType serviceType, @Nullable String model) {
+    var key = serviceType + ":" + model;
+    var tokenizer = tokenizers.get(key);
+    if (tokenizer != null) {
+      return tokenizer;
+    }
+
+    if (serviceType == ServiceType.LLAMA_CPP) {
+      var modelPath = Path.of(LlamaSettings.getInstance().getActualModelPath());
+      // The model may still be downloading, try again once it's there
+      if (!Files.isRegularFile(modelPath)) {
+        return getDefaultLlamaTokenizer();
+      }
+      if (ApplicationManager.getApplication().isDispatchThread()) {
+        loadLlamaTokenizer(key, modelPath);
+        return getDefaultLlamaTokenizer();
+      }
+      tokenizer = createLlamaTokenizer(modelPath);
+    } else {
+      tokenizer = createTokenizer(serviceType, model);
+    }
+    tokenizers.put(key, tokenizer);
+    return tokenizer;
+  }
+
+  private Tokenizer createTokenizer(ServiceType serviceType, @Nullable String model) {
+    return switch (serviceType) {
+      case ANTHROPIC -> scaled(EncodingType.CL100K_BASE, CLAUDE_CORRECTION_FACTOR);
+      case GOOGLE -> scaled(EncodingType.O200K_BASE, GEMINI_CORRECTION_FACTOR);
+      case OLLAMA -> createTokenizerByModelName(model, SMALL_VOCABULARY_CORRECTION_FACTOR);
+      default -> createTokenizerByModelName(model, 1.0);
+    };
+  }
+
+  private Tokenizer createTokenizerByModelName(@Nullable String model, double defaultFactor) {
+    var name = model == null ? "" : model.toLowerCase(Locale.ROOT);
+    if (name.startsWith("gpt-4o") || name.startsWith("chatgpt-4o")
+        || name.matches("^o\\d.*") || name.contains("gpt-4.1") || name.contains("gpt-5")) {
+      return new Tokenizer(getEncoding(EncodingType.O200K_BASE));
+    }
+    if (name.contains("gpt-")) {
+      return new Tokenizer(getEncoding(EncodingType.CL100K_BASE));
+    }
+    if (name.contains("claude")) {
+      return scaled(EncodingType.CL100K_BASE, CLAUDE_CORRECTION_FACTOR);
+    }
+    if (name.contains("gemini") || name.contains("gemma")) {
+      return scaled(EncodingType.O200K_BASE, GEMINI_CORRECTION_FACTOR);
+    }
+    // Families with vocabularies of over 100k tokens
+    if (name.contains("llama3") || name.contains("llama-3") || name.contains("qwen")) {
+      return new Tokenizer(getEncoding(EncodingType.CL100K_BASE));
+    }
+    return scaled(EncodingType.CL100K_BASE, defaultFactor);
+  }
+
+  private void loadLlamaTokenizer(String key, Path modelPath) {
+    if (pendingTokenizers.add(key)) {
+      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        try {
+          tokenizers.put(key, createLlamaTokenizer(modelPath));
+        } finally {
+          pendingTokenizers.remove(key);
+        }
+      });
+    }
+  }
+
+  private Tokenizer createLlamaTokenizer(Path modelPath) {
+    try {
+      var metadata = GgufTokenizerMetadata.read(modelPath);
+      if (metadata != null) {
+        return scaled(EncodingType.CL100K_BASE, getCorrectionFactor(metadata));
+      }
+    } catch (IOException ex) {
+      LOG.warn("Could not read the tokenizer metadata of " + modelPath, ex);
+    }
+    return getDefaultLlamaTokenizer();
+  }
+
+  private Tokenizer getDefaultLlamaTokenizer() {
+    return scaled(EncodingType.CL100K_BASE, SMALL_VOCABULARY_CORRECTION_FACTOR);
+  }
+
+  private static double getCorrectionFactor(GgufTokenizerMetadata metadata) {
+    if (metadata.vocabularySize() >= LARGE_VOCABULARY_SIZE) {
+      return 1.0;
+    }
+    // SentencePiece models are tagged "llama", byte-level BPE models "gpt2"
+    return "llama".equals(metadata.model())
+        ? SMALL_VOCABULARY_CORRECTION_FACTOR
+        : SMALL_BPE_VOCABULARY_CORRECTION_FACTOR;
+  }
+
+  private Tokenizer scaled(EncodingType encodingType, double correctionFactor) {
+    return new Tokenizer(getEncoding(encodingType), correctionFactor);
+  }
+
+  private static @Nullable String getSelectedModel(ServiceType serviceType) {
+    if (serviceType == ServiceType.CUSTOM_OPENAI) {
+      var model = ApplicationManager.getApplication().getService(CustomServiceSettings.class)
+          .getState()
+          .getChatCompletionSettings()
+          .getBody()
+          .get("model");
+      return model == null ? null : model.toString();
+    }
+    return ConversationService.getModelForSelectedService(serviceType);
+  }
+}
@@ -5,9 +5,11 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.JBMenuItem;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.ui.AnimatedIcon;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBTabbedPane;
 import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
 import ee.carlrobert.codegpt.conversations.ConversationService;
 import ee.carlrobert.codegpt.conversations.ConversationsState;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
@@ -21,6 +23,7 @@ import java.util.TreeMap;
 import java.util.UUID;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.SwingUtilities;
@@ -90,6 +93,27 @@ public class ChatToolWindowTabbedPane extends JBTabbedPane {
     return Optional.ofNullable(activeTabMapping.get(getTitleAt(selectedIndex)));
   }
 
+  /**
+   * Shows a progress indicator next to the title of the tab containing the given component, for
+   * responses that are streamed without being rendered.
+   */
+  public void setStreamingInBackground(Component component, boolean streaming) {
+    for (int i = 0; i < getTabCount(); i++) {
+      if (SwingUtilities.isDescendingFrom(component, getComponentAt(i))) {
+        var icon = streaming ? new AnimatedIcon.Default() : null;
+        if (getTabComponentAt(i) instanceof JComponent tabComponent) {
+          var titleLabel = UIUtil.findComponentOfType(tabComponent, JBLabel.class);
+          if (titleLabel != null) {
+            titleLabel.setIcon(icon);
+          }
+        } else {
+          setIconAt(i, icon);
+        }
+        return;
+      }
+    }
+  }
+
   public void clearAll() {
     removeAll();
     activeTabMapping.clear();
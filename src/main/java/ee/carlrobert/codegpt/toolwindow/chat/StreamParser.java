@@ -1,55 +1,224 @@
 package ee.carlrobert.codegpt.toolwindow.chat;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Splits a streamed markdown response into text and fenced code segments.
+ *
+ * <p>The parser is a line based state machine that keeps its state between chunks, so every
+ * character is looked at once regardless of how the response is chunked. Fences are recognized
+ * at the start of a line, optionally indented, with at least three backticks or tildes and an
+ * optional info string, e.g. {@code ```java:src/Main.java}. A code block is only closed by a
+ * fence of the same character that is at least as long as the opening one, which allows fences
+ * to be nested by making the outer one longer, and that is indented by at most three columns
+ * more than the opening one, as in CommonMark. More indented fences are part of the code.
+ *
+ * <p>Each call returns the text appended to the segments that changed, in order, so nothing is
+ * copied twice. Segments of the same type never follow each other, a response of the same type
+ * as the previous one extends its segment and a response of the other type starts a new one,
+ * even if it's empty. A line that could still turn out to be a fence is held back until it's
+ * complete, or until {@link #flush()} is called.
+ */
 public class StreamParser {
 
-  private static final String CODE_BLOCK_STARTING_REGEX = "```[a-zA-Z]*\n";
-  private final StringBuilder messageBuilder = new StringBuilder();
+  private static final int MAX_FENCE_INDENT = 3;
+
+  // Complete lines of the current segment that haven't been returned yet
+  private final StringBuilder segmentBuilder = new StringBuilder();
+  private final StringBuilder lineBuilder = new StringBuilder();
+  // Length of the incomplete line that has already been returned
+  private int returnedLineLength;
+  private boolean segmentStarted;
   private boolean isProcessingCode;
+  private char fenceChar;
+  private int fenceLength;
+  private int fenceIndent;
 
   public List<StreamParseResponse> parse(String message) {
-    message = message.replace("\r", "");
-    messageBuilder.append(message);
+    var responses = new ArrayList<StreamParseResponse>();
+    for (int i = 0; i < message.length(); i++) {
+      var c = message.charAt(i);
+      if (c == '\r') {
+        continue;
+      }
+      lineBuilder.append(c);
+      if (c == '\n') {
+        completeLine(responses);
+      }
+    }
+    addCurrentSegment(responses, !couldBecomeFence(lineBuilder));
+    return responses;
+  }
 
-    Pattern pattern = Pattern.compile(CODE_BLOCK_STARTING_REGEX);
-    Matcher matcher = pattern.matcher(messageBuilder.toString());
-    if (!isProcessingCode && matcher.find()) {
-      isProcessingCode = true;
+  /**
+   * Completes the response, including a trailing line that was held back.
+   *
+   * @return The rest of the current segment, or nothing if no line was held back.
+   */
+  public List<StreamParseResponse> flush() {
+    if (lineBuilder.isEmpty()) {
+      return List.of();
+    }
+    appendLine();
+    var responses = new ArrayList<StreamParseResponse>(1);
+    addCurrentSegment(responses, false);
+    return responses;
+  }
 
-      var startingIndex = messageBuilder.indexOf(matcher.group());
-      var prevMessage = messageBuilder.substring(0, startingIndex);
-      messageBuilder.delete(0, messageBuilder.indexOf(matcher.group()));
+  public void clear() {
+    segmentBuilder.setLength(0);
+    lineBuilder.setLength(0);
+    returnedLineLength = 0;
+    segmentStarted = false;
+    isProcessingCode = false;
+  }
 
-      return List.of(
-          new StreamParseResponse(StreamResponseType.TEXT, prevMessage),
-          new StreamParseResponse(StreamResponseType.CODE, messageBuilder.toString()));
+  private void completeLine(List<StreamParseResponse> responses) {
+    if (isProcessingCode) {
+      appendLine();
+      if (isClosingFence(lineBuilder)) {
+        addCurrentSegment(responses, false);
+        startSegment(false);
+      }
+    } else if (isOpeningFence(lineBuilder)) {
+      addCurrentSegment(responses, false);
+      startSegment(true);
+      appendLine();
+    } else {
+      appendLine();
     }
+    lineBuilder.setLength(0);
+  }
+
+  private void appendLine() {
+    segmentBuilder.append(lineBuilder, returnedLineLength, lineBuilder.length());
+    returnedLineLength = 0;
+  }
 
-    var endingIndex = messageBuilder.indexOf("```\n", 1);
-    if (isProcessingCode && endingIndex > 0) {
-      isProcessingCode = false;
+  private void startSegment(boolean code) {
+    segmentBuilder.setLength(0);
+    segmentStarted = false;
+    isProcessingCode = code;
+  }
 
-      var codeResponse = messageBuilder.substring(0, endingIndex + 3);
-      messageBuilder.delete(0, endingIndex + 3);
+  /**
+   * Adds the text of the current segment that hasn't been returned yet, unless there is none and
+   * the segment has already been started.
+   */
+  private void addCurrentSegment(List<StreamParseResponse> responses, boolean includeLine) {
+    var lineLength = includeLine ? lineBuilder.length() - returnedLineLength : 0;
+    if (segmentStarted && segmentBuilder.isEmpty() && lineLength <= 0) {
+      return;
+    }
+    var text = new StringBuilder(segmentBuilder.length() + Math.max(lineLength, 0))
+        .append(segmentBuilder);
+    if (lineLength > 0) {
+      text.append(lineBuilder, returnedLineLength, lineBuilder.length());
+      returnedLineLength = lineBuilder.length();
+    }
+    segmentBuilder.setLength(0);
+    segmentStarted = true;
+    responses.add(new StreamParseResponse(
+        isProcessingCode ? StreamResponseType.CODE : StreamResponseType.TEXT,
+        text.toString()));
+  }
 
-      return List.of(
-          new StreamParseResponse(StreamResponseType.CODE, codeResponse),
-          new StreamParseResponse(StreamResponseType.TEXT, messageBuilder.toString()));
+  private boolean isOpeningFence(CharSequence line) {
+    var start = skipIndent(line);
+    var fenceEnd = skipFence(line, start);
+    if (fenceEnd - start < 3) {
+      return false;
     }
+    var c = line.charAt(start);
+    if (c == '`' && indexOf(line, '`', fenceEnd) != -1) {
+      return false;
+    }
+    fenceChar = c;
+    fenceLength = fenceEnd - start;
+    fenceIndent = getIndentWidth(line, start);
+    return true;
+  }
 
-    return List.of(new StreamParseResponse(
-        isProcessingCode
-            ? StreamResponseType.CODE
-            : StreamResponseType.TEXT,
-        messageBuilder.toString()));
+  private boolean isClosingFence(CharSequence line) {
+    var start = skipIndent(line);
+    var fenceEnd = skipFence(line, start);
+    return fenceEnd - start >= fenceLength
+        && line.charAt(start) == fenceChar
+        && isClosingFenceIndent(line, start)
+        && isBlank(line, fenceEnd);
   }
 
-  public void clear() {
-    messageBuilder.setLength(0);
-    isProcessingCode = false;
+  private boolean isClosingFenceIndent(CharSequence line, int indentEnd) {
+    return getIndentWidth(line, indentEnd) <= fenceIndent + MAX_FENCE_INDENT;
+  }
+
+  /**
+   * Tells whether an incomplete line may still turn out to be a fence once it's complete.
+   */
+  private boolean couldBecomeFence(CharSequence line) {
+    var start = skipIndent(line);
+    if (start == line.length()) {
+      return true;
+    }
+    var c = line.charAt(start);
+    var fenceEnd = skipFence(line, start);
+    if (fenceEnd == start) {
+      return false;
+    }
+    if (isProcessingCode) {
+      return c == fenceChar && isClosingFenceIndent(line, start) && (fenceEnd == line.length()
+          || fenceEnd - start >= fenceLength && isBlank(line, fenceEnd));
+    }
+    return fenceEnd == line.length()
+        || fenceEnd - start >= 3 && (c == '~' || indexOf(line, '`', fenceEnd) == -1);
+  }
+
+  private static int skipIndent(CharSequence line) {
+    var index = 0;
+    while (index < line.length() && (line.charAt(index) == ' ' || line.charAt(index) == '\t')) {
+      index++;
+    }
+    return index;
+  }
+
+  // Tabs advance to the next multiple of four columns
+  private static int getIndentWidth(CharSequence line, int indentEnd) {
+    var width = 0;
+    for (int i = 0; i < indentEnd; i++) {
+      width = line.charAt(i) == '\t' ? width + 4 - width % 4 : width + 1;
+    }
+    return width;
+  }
+
+  private static int skipFence(CharSequence line, int start) {
+    if (start == line.length() || (line.charAt(start) != '`' && line.charAt(start) != '~')) {
+      return start;
+    }
+    var c = line.charAt(start);
+    var index = start;
+    while (index < line.length() && line.charAt(index) == c) {
+      index++;
+    }
+    return index;
+  }
+
+  private static boolean isBlank(CharSequence line, int from) {
+    for (int i = from; i < line.length(); i++) {
+      if (!Character.isWhitespace(line.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(CharSequence line, char c, int from) {
+    for (int i = from; i < line.length(); i++) {
+      if (line.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
   }
 
   public record StreamParseResponse(StreamResponseType type, String response) {
@@ -5,8 +5,10 @@ import static com.intellij.openapi.ui.Messages.OK;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import ee.carlrobert.codegpt.EncodingManager;
+import ee.carlrobert.codegpt.StreamingTokenCounter;
 import ee.carlrobert.codegpt.completions.CallParameters;
 import ee.carlrobert.codegpt.completions.CompletionResponseEventListener;
+import ee.carlrobert.codegpt.completions.RoutingDecision;
 import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.conversations.ConversationService;
 import ee.carlrobert.codegpt.conversations.message.Message;
@@ -14,6 +16,7 @@ import ee.carlrobert.codegpt.events.CodeGPTEvent;
 import ee.carlrobert.codegpt.telemetry.TelemetryAction;
 import ee.carlrobert.codegpt.toolwindow.chat.ui.ChatMessageResponseBody;
 import ee.carlrobert.codegpt.toolwindow.chat.ui.ResponsePanel;
+import ee.carlrobert.codegpt.toolwindow.chat.ui.StreamingRenderScheduler;
 import ee.carlrobert.codegpt.toolwindow.chat.ui.textarea.TotalTokensPanel;
 import ee.carlrobert.codegpt.ui.OverlayUtil;
 import ee.carlrobert.codegpt.ui.textarea.UserInputPanel;
@@ -25,27 +28,29 @@ abstract class ToolWindowCompletionResponseEventListener implements
   private static final Logger LOG = Logger.getInstance(
       ToolWindowCompletionResponseEventListener.class);
 
-  private final StringBuilder messageBuilder = new StringBuilder();
-  private final EncodingManager encodingManager;
+  private final StreamingTokenCounter tokenCounter;
   private final ConversationService conversationService;
   private final ResponsePanel responsePanel;
   private final ChatMessageResponseBody responseContainer;
   private final TotalTokensPanel totalTokensPanel;
   private final UserInputPanel textArea;
+  private final StreamingRenderScheduler tokensRenderScheduler;
 
   private volatile boolean completed;
+  private volatile int ongoingTokens;
 
   public ToolWindowCompletionResponseEventListener(
       ConversationService conversationService,
       ResponsePanel responsePanel,
       TotalTokensPanel totalTokensPanel,
       UserInputPanel textArea) {
-    this.encodingManager = EncodingManager.getInstance();
+    this.tokenCounter = new StreamingTokenCounter(EncodingManager.getInstance()::countTokens);
     this.conversationService = conversationService;
     this.responsePanel = responsePanel;
     this.responseContainer = (ChatMessageResponseBody) responsePanel.getContent();
     this.totalTokensPanel = totalTokensPanel;
     this.textArea = textArea;
+    this.tokensRenderScheduler = new StreamingRenderScheduler(this::updateOngoingTokens);
   }
 
   public abstract void handleTokensExceededPolicyAccepted();
@@ -54,14 +59,10 @@ abstract class ToolWindowCompletionResponseEventListener implements
   public void handleMessage(String partialMessage) {
     try {
       responseContainer.update(partialMessage);
-      messageBuilder.append(partialMessage);
 
       if (!completed) {
-        var ongoingTokens = encodingManager.countTokens(messageBuilder.toString());
-        ApplicationManager.getApplication().invokeLater(() -> {
-          totalTokensPanel.update(
-              totalTokensPanel.getTokenDetails().getTotal() + ongoingTokens);
-        });
+        ongoingTokens = tokenCounter.append(partialMessage);
+        tokensRenderScheduler.request();
       }
     } catch (Exception e) {
       responseContainer.displayError("Something went wrong.");
@@ -71,7 +72,7 @@ abstract class ToolWindowCompletionResponseEventListener implements
 
   @Override
   public void handleError(ErrorDetails error, Throwable ex) {
-    ApplicationManager.getApplication().invokeLater(() -> {
+    responseContainer.finish(() -> {
       try {
         if ("insufficient_quota".equals(error.getCode())) {
           responseContainer.displayQuotaExceeded();
@@ -108,7 +109,7 @@ abstract class ToolWindowCompletionResponseEventListener implements
   public void handleCompleted(String fullMessage, CallParameters callParameters) {
     conversationService.saveMessage(fullMessage, callParameters);
 
-    ApplicationManager.getApplication().invokeLater(() -> {
+    responseContainer.finish(() -> {
       try {
         responsePanel.enableActions();
         responseContainer.enableActions();
@@ -125,6 +126,17 @@ abstract class ToolWindowCompletionResponseEventListener implements
     responseContainer.handleCodeGPTEvent(event);
   }
 
+  @Override
+  public void handleRoutingDecision(RoutingDecision decision) {
+    responseContainer.displayRoutingDecision(decision);
+  }
+
+  private void updateOngoingTokens() {
+    if (!completed) {
+      totalTokensPanel.update(totalTokensPanel.getTokenDetails().getTotal() + ongoingTokens);
+    }
+  }
+
   private void stopStreaming(ChatMessageResponseBody responseContainer) {
     completed = true;
     textArea.setSubmitEnabled(true);
@@ -1,13 +1,13 @@
 package ee.carlrobert.codegpt.toolwindow.chat.ui;
 
 import static ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE;
-import static ee.carlrobert.codegpt.util.MarkdownUtil.convertMdToHtml;
 import static java.lang.String.format;
 import static javax.swing.event.HyperlinkEvent.EventType.ACTIVATED;
 
 import com.intellij.icons.AllIcons.General;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.options.ShowSettingsUtil;
 import com.intellij.openapi.project.Project;
@@ -15,6 +15,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.components.JBLabel;
+import com.intellij.util.concurrency.SequentialTaskExecutor;
 import com.intellij.util.ui.AsyncProcessIcon;
 import com.intellij.util.ui.JBFont;
 import com.intellij.util.ui.JBUI;
@@ -23,6 +24,7 @@ import com.vladsch.flexmark.parser.Parser;
 import ee.carlrobert.codegpt.CodeGPTBundle;
 import ee.carlrobert.codegpt.Icons;
 import ee.carlrobert.codegpt.actions.ActionType;
+import ee.carlrobert.codegpt.completions.RoutingDecision;
 import ee.carlrobert.codegpt.events.AnalysisCompletedEventDetails;
 import ee.carlrobert.codegpt.events.AnalysisFailedEventDetails;
 import ee.carlrobert.codegpt.events.CodeGPTEvent;
@@ -30,7 +32,10 @@ import ee.carlrobert.codegpt.events.EventDetails;
 import ee.carlrobert.codegpt.events.WebSearchEventDetails;
 import ee.carlrobert.codegpt.settings.GeneralSettingsConfigurable;
 import ee.carlrobert.codegpt.telemetry.TelemetryAction;
+import ee.carlrobert.codegpt.toolwindow.chat.ChatToolWindowTabbedPane;
 import ee.carlrobert.codegpt.toolwindow.chat.StreamParser;
+import ee.carlrobert.codegpt.toolwindow.chat.StreamParser.StreamParseResponse;
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.ResponseEditorPanel;
 import ee.carlrobert.codegpt.toolwindow.ui.WebpageList;
 import ee.carlrobert.codegpt.ui.UIUtil;
@@ -39,7 +44,12 @@ import ee.carlrobert.codegpt.util.MarkdownUtil;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.FlowLayout;
+import java.awt.event.HierarchyEvent;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.DefaultListModel;
@@ -47,10 +57,18 @@ import javax.swing.Icon;
 import javax.swing.JPanel;
 import javax.swing.JTextPane;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import org.jetbrains.annotations.Nullable;
 
 public class ChatMessageResponseBody extends JPanel {
 
+  private static final Logger LOG = Logger.getInstance(ChatMessageResponseBody.class);
+  private static final int UPDATE_QUEUE_CAPACITY = 256;
+  private static final Parser CODE_BLOCK_PARSER = Parser.builder().build();
+  // Parses streamed chunks off the EDT, so that the threads reading the responses never wait
+  private static final ExecutorService STREAM_CONSUMER =
+      SequentialTaskExecutor.createSequentialApplicationPoolExecutor("CodeGPT Chat Stream");
+
   private final Project project;
   private final Disposable parentDisposable;
   private final StreamParser streamParser;
@@ -60,10 +78,24 @@ public class ChatMessageResponseBody extends JPanel {
   private final JPanel webDocProgressContainer = new JPanel();
   private final AsyncProcessIcon spinner = new AsyncProcessIcon("sign_in_spinner");
   private final @Nullable String highlightedText;
+  private final StreamingUpdateQueue updateQueue =
+      new StreamingUpdateQueue(UPDATE_QUEUE_CAPACITY);
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  // Text appended to the segments since they were last rendered, guarded by itself
+  private final List<PendingSegment> pendingSegments = new ArrayList<>();
+  // The segment being rendered, up to the text rendered last
+  private final StringBuilder renderedSegment = new StringBuilder();
+  private @Nullable StreamResponseType renderedSegmentType;
+  private final StreamingRenderScheduler renderScheduler =
+      new StreamingRenderScheduler(this::renderPendingSegmentsIfShowing);
+  private volatile @Nullable Runnable onStreamFinished;
   private ResponseEditorPanel currentlyProcessedEditorPanel;
   private JTextPane currentlyProcessedTextPane;
+  private IncrementalMarkdownRenderer currentlyProcessedTextRenderer;
   private JPanel webpageListPanel;
   private boolean responseReceived;
+  // Whether streamed segments are held back because the response isn't showing
+  private boolean detached;
 
   public ChatMessageResponseBody(Project project, Disposable parentDisposable) {
     this(project, null, false, false, false, false, parentDisposable);
@@ -85,6 +117,13 @@ public class ChatMessageResponseBody extends JPanel {
     this.readOnly = readOnly;
     setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
     setOpaque(false);
+    addHierarchyListener(event -> {
+      if ((event.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0
+          && detached
+          && isShowing()) {
+        renderPendingSegments();
+      }
+    });
 
     if (webSearchIncluded) {
       webpageListPanel = createWebpageListPanel(webpageList);
@@ -122,10 +161,22 @@ public class ChatMessageResponseBody extends JPanel {
     return this;
   }
 
+  /**
+   * Queues a streamed chunk, never blocks. The queued chunks are parsed in the background and
+   * rendered together once per frame. While the response isn't showing, e.g. in a background tab
+   * or a collapsed tool window, nothing is rendered until it shows again or the stream finishes.
+   */
   public void update(String partialMessage) {
-    for (var item : streamParser.parse(partialMessage)) {
-      processResponse(item.response(), CODE.equals(item.type()), true);
-    }
+    updateQueue.offer(partialMessage);
+    scheduleDrain();
+  }
+
+  /**
+   * Renders the remaining chunks of the stream and then runs the given callback on the EDT.
+   */
+  public void finish(Runnable onRendered) {
+    onStreamFinished = onRendered;
+    scheduleDrain();
   }
 
   public void displayMissingCredential() {
@@ -216,6 +267,27 @@ public class ChatMessageResponseBody extends JPanel {
         });
   }
 
+  public void displayRoutingDecision(RoutingDecision decision) {
+    ApplicationManager.getApplication().invokeLater(() -> {
+      var messageKey = decision.reason() == RoutingDecision.Reason.CIRCUIT_OPEN
+          ? "chatMessageResponseBody.routing.circuitOpen.label"
+          : "chatMessageResponseBody.routing.requestFailed.label";
+      var label = new JBLabel(
+          CodeGPTBundle.get(
+              messageKey,
+              decision.requestedService().getLabel(),
+              decision.routedService().getLabel()),
+          General.Warning,
+          SwingConstants.LEADING).withFont(JBFont.small());
+      var panel = JBUI.Panels.simplePanel(label);
+      panel.setOpaque(false);
+      panel.setBorder(JBUI.Borders.emptyBottom(8));
+      add(panel, 0);
+      revalidate();
+      repaint();
+    });
+  }
+
   public void hideCaret() {
     if (currentlyProcessedTextPane != null) {
       currentlyProcessedTextPane.getCaret().setVisible(false);
@@ -225,7 +297,14 @@ public class ChatMessageResponseBody extends JPanel {
   public void clear() {
     removeAll();
 
-    streamParser.clear();
+    updateQueue.clear();
+    synchronized (pendingSegments) {
+      pendingSegments.clear();
+    }
+    renderedSegment.setLength(0);
+    renderedSegmentType = null;
+    setDetached(false);
+    STREAM_CONSUMER.execute(streamParser::clear);
     // TODO: First message might be code block
     prepareProcessingText(true);
     currentlyProcessedTextPane.setText(
@@ -235,6 +314,93 @@ public class ChatMessageResponseBody extends JPanel {
     revalidate();
   }
 
+  private void scheduleDrain() {
+    if (drainScheduled.compareAndSet(false, true)) {
+      STREAM_CONSUMER.execute(this::drainUpdates);
+    }
+  }
+
+  private void drainUpdates() {
+    drainScheduled.set(false);
+    // Read before draining, the chunks offered before finishing must be part of this drain
+    var onFinished = onStreamFinished;
+    var message = updateQueue.drain();
+    if (!message.isEmpty()) {
+      addPendingSegments(streamParser.parse(message));
+      renderScheduler.request();
+    }
+
+    if (onFinished != null) {
+      onStreamFinished = null;
+      addPendingSegments(streamParser.flush());
+      LOG.debug("Chat response stream finished: " + updateQueue.getStats());
+      ApplicationManager.getApplication().invokeLater(() -> {
+        renderPendingSegments();
+        onFinished.run();
+      });
+    }
+  }
+
+  /**
+   * Consecutive responses of the same type extend the same segment, their text is appended to
+   * it until it is rendered.
+   */
+  private void addPendingSegments(List<StreamParseResponse> parsed) {
+    synchronized (pendingSegments) {
+      for (var segment : parsed) {
+        var lastIndex = pendingSegments.size() - 1;
+        if (lastIndex >= 0 && pendingSegments.get(lastIndex).type() == segment.type()) {
+          pendingSegments.get(lastIndex).text().append(segment.response());
+        } else {
+          pendingSegments.add(
+              new PendingSegment(segment.type(), new StringBuilder(segment.response())));
+        }
+      }
+    }
+  }
+
+  private void renderPendingSegmentsIfShowing() {
+    if (isShowing()) {
+      renderPendingSegments();
+    } else {
+      synchronized (pendingSegments) {
+        if (!pendingSegments.isEmpty()) {
+          // The pending text is accumulated until the response shows again
+          setDetached(true);
+        }
+      }
+    }
+  }
+
+  private void renderPendingSegments() {
+    setDetached(false);
+    List<PendingSegment> segments;
+    synchronized (pendingSegments) {
+      segments = List.copyOf(pendingSegments);
+      pendingSegments.clear();
+    }
+    for (var segment : segments) {
+      if (segment.type() != renderedSegmentType) {
+        renderedSegment.setLength(0);
+        renderedSegmentType = segment.type();
+      }
+      renderedSegment.append(segment.text());
+      processResponse(renderedSegment.toString(), CODE.equals(segment.type()), true);
+    }
+  }
+
+  private void setDetached(boolean detached) {
+    if (this.detached == detached) {
+      return;
+    }
+    this.detached = detached;
+    var tabbedPane = (ChatToolWindowTabbedPane) SwingUtilities.getAncestorOfClass(
+        ChatToolWindowTabbedPane.class, this);
+    if (tabbedPane != null) {
+      tabbedPane.setStreamingInBackground(this, detached);
+    }
+  }
+
   private void processResponse(String markdownInput, boolean codeResponse, boolean caretVisible) {
     responseReceived = true;
 
@@ -246,16 +412,18 @@ public class ChatMessageResponseBody extends JPanel {
   }
 
   private void processCode(String markdownCode) {
-    var document = Parser.builder().build().parse(markdownCode);
+    if (!markdownCode.isEmpty() && Character.isWhitespace(markdownCode.charAt(0))) {
+      // Fences indented within list items would otherwise be parsed as indented code
+      markdownCode = markdownCode.stripIndent();
+    }
+    var document = CODE_BLOCK_PARSER.parse(markdownCode);
     var child = document.getChildOfType(FencedCodeBlock.class);
     if (child != null) {
       var codeBlock = ((FencedCodeBlock) child);
       var code = codeBlock.getContentChars().unescape();
       if (!code.isEmpty()) {
         if (currentlyProcessedEditorPanel == null) {
-          ApplicationManager.getApplication().invokeAndWait(() -> {
-            prepareProcessingCode(code, codeBlock.getInfo().unescape());
-          });
+          prepareProcessingCode(code, getLanguage(codeBlock.getInfo().unescape()));
         }
         EditorUtil.updateEditorDocument(currentlyProcessedEditorPanel.getEditor(), code);
       }
@@ -263,12 +431,19 @@ public class ChatMessageResponseBody extends JPanel {
   }
 
   private void processText(String markdownText, boolean caretVisible) {
-    ApplicationManager.getApplication().invokeLater(() -> {
-      if (currentlyProcessedTextPane == null) {
-        prepareProcessingText(caretVisible);
-      }
-      currentlyProcessedTextPane.setText(convertMdToHtml(markdownText));
-    });
+    if (currentlyProcessedTextPane == null) {
+      prepareProcessingText(caretVisible);
+    }
+    currentlyProcessedTextRenderer.render(markdownText);
+  }
+
+  /**
+   * Extracts the language of an info string, which may be followed by a file path, e.g.
+   * {@code java:src/Main.java}.
+   */
+  private static String getLanguage(String info) {
+    var separatorIndex = info.indexOf(':');
+    return (separatorIndex == -1 ? info : info.substring(0, separatorIndex)).trim();
   }
 
   private void prepareProcessingText(boolean caretVisible) {
@@ -279,6 +454,7 @@ public class ChatMessageResponseBody extends JPanel {
 
     currentlyProcessedEditorPanel = null;
     currentlyProcessedTextPane = createTextPane("", caretVisible);
+    currentlyProcessedTextRenderer = new IncrementalMarkdownRenderer(currentlyProcessedTextPane);
     add(currentlyProcessedTextPane);
   }
 
@@ -362,4 +538,7 @@ public class ChatMessageResponseBody extends JPanel {
     panel.add(listPanel, BorderLayout.CENTER);
     return panel;
   }
+
+  private record PendingSegment(StreamResponseType type, StringBuilder text) {
+  }
 }
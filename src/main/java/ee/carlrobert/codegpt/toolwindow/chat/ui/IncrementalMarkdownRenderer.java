@@ -0,0 +1,116 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui;
+
+import static ee.carlrobert.codegpt.util.MarkdownUtil.convertMdToHtml;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.IOException;
+import java.util.regex.Pattern;
+import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.html.HTMLDocument;
+
+/**
+ * Renders the growing markdown of a streamed response into a text pane.
+ *
+ * <p>The markdown is split into finalized blocks and the open block after them. A block is
+ * finalized once it's followed by a blank line and the start of a new top-level block, so that
+ * nothing streamed later can change how it renders. Finalized blocks are rendered once and
+ * appended to the document, only the open block is rendered again on every update.
+ *
+ * <p>Reference links are resolved against definitions anywhere in the document, so nothing is
+ * finalized from the first block that uses or defines a link reference on, all of it is rendered
+ * together as the open block.
+ */
+final class IncrementalMarkdownRenderer {
+
+  private static final Logger LOG = Logger.getInstance(IncrementalMarkdownRenderer.class);
+  private static final String OPEN_BLOCK_ID = "open-block";
+  private static final Pattern CODE_SPAN = Pattern.compile("`+[^`]*`+");
+  // [text][id], [text][], [id] and [id]: url, anything in brackets but an inline link
+  private static final Pattern LINK_REFERENCE = Pattern.compile("\\[[^\\[\\]\n]+](?!\\()");
+
+  private final JTextPane textPane;
+  private String finalizedMarkdown = "";
+  private boolean initialized;
+
+  IncrementalMarkdownRenderer(JTextPane textPane) {
+    this.textPane = textPane;
+  }
+
+  /**
+   * @param markdown The whole markdown received so far, usually extending the previous one.
+   */
+  void render(String markdown) {
+    if (!initialized || !markdown.startsWith(finalizedMarkdown)) {
+      renderAll(markdown);
+      return;
+    }
+
+    var boundary = findFinalizedBoundary(markdown, finalizedMarkdown.length());
+    var openBlockHtml = convertMdToHtml(markdown.substring(boundary));
+    if (openBlockHtml.isBlank()) {
+      renderAll(markdown);
+      return;
+    }
+
+    var document = (HTMLDocument) textPane.getDocument();
+    var openBlock = document.getElement(OPEN_BLOCK_ID);
+    if (openBlock == null) {
+      renderAll(markdown);
+      return;
+    }
+    try {
+      if (boundary > finalizedMarkdown.length()) {
+        document.insertBeforeStart(
+            openBlock,
+            convertMdToHtml(markdown.substring(finalizedMarkdown.length(), boundary)));
+        finalizedMarkdown = markdown.substring(0, boundary);
+      }
+      document.setInnerHTML(openBlock, openBlockHtml);
+    } catch (BadLocationException | IOException e) {
+      LOG.debug("Unable to update the response incrementally", e);
+      renderAll(markdown);
+    }
+  }
+
+  private void renderAll(String markdown) {
+    var boundary = findFinalizedBoundary(markdown, 0);
+    finalizedMarkdown = markdown.substring(0, boundary);
+    textPane.setText(convertMdToHtml(finalizedMarkdown)
+        + "<div id=\"" + OPEN_BLOCK_ID + "\">"
+        + convertMdToHtml(markdown.substring(boundary))
+        + "</div>");
+    initialized = true;
+  }
+
+  /**
+   * @return The end of the last finalized block, which is at least {@code from}.
+   */
+  private static int findFinalizedBoundary(String markdown, int from) {
+    var boundary = from;
+    var index = markdown.indexOf("\n\n", from);
+    while (index != -1) {
+      var blockStart = index + 2;
+      while (blockStart < markdown.length() && markdown.charAt(blockStart) == '\n') {
+        blockStart++;
+      }
+      if (blockStart < markdown.length() && startsTopLevelBlock(markdown.charAt(blockStart))) {
+        if (containsLinkReference(markdown.substring(boundary, blockStart))) {
+          break;
+        }
+        boundary = blockStart;
+      }
+      index = markdown.indexOf("\n\n", blockStart);
+    }
+    return boundary;
+  }
+
+  private static boolean containsLinkReference(String markdown) {
+    return LINK_REFERENCE.matcher(CODE_SPAN.matcher(markdown).replaceAll("")).find();
+  }
+
+  // Indented lines and list items may still belong to the previous block
+  private static boolean startsTopLevelBlock(char c) {
+    return !Character.isWhitespace(c) && !Character.isDigit(c) && c != '-' && c != '*' && c != '+';
+  }
+}
@@ -0,0 +1,64 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces streamed updates into at most one flush on the EDT per frame interval.
+ *
+ * <p>The interval starts at the configured value. While flushes wait on the EDT for longer than
+ * the interval itself, the interval doubles up to {@link #MAX_INTERVAL_MILLIS}, and it shrinks
+ * back once the EDT keeps up again.
+ */
+public final class StreamingRenderScheduler {
+
+  private static final long MAX_INTERVAL_MILLIS = 500;
+
+  private final Runnable flush;
+  private final long minIntervalMillis;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private volatile long intervalMillis;
+  private volatile long lastFlushNanos;
+
+  /**
+   * @param flush Applies the buffered updates, always called on the EDT.
+   */
+  public StreamingRenderScheduler(Runnable flush) {
+    this.flush = flush;
+    this.minIntervalMillis = ConfigurationSettings.getState().getChatRenderIntervalMillis();
+    this.intervalMillis = minIntervalMillis;
+  }
+
+  /**
+   * Requests a flush, can be called from any thread.
+   */
+  public void request() {
+    if (!scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    var sinceLastFlush = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastFlushNanos);
+    var delay = Math.max(0, intervalMillis - sinceLastFlush);
+    AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+      var postedAtNanos = System.nanoTime();
+      ApplicationManager.getApplication().invokeLater(() -> flush(postedAtNanos));
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void flush(long postedAtNanos) {
+    var now = System.nanoTime();
+    var edtLatencyMillis = TimeUnit.NANOSECONDS.toMillis(now - postedAtNanos);
+    if (edtLatencyMillis > intervalMillis) {
+      intervalMillis = Math.min(intervalMillis * 2, MAX_INTERVAL_MILLIS);
+    } else if (edtLatencyMillis < intervalMillis / 2) {
+      intervalMillis = Math.max(intervalMillis / 2, minIntervalMillis);
+    }
+
+    // Updates arriving while flushing schedule the next flush
+    scheduled.set(false);
+    lastFlushNanos = now;
+    flush.run();
+  }
+}
@@ -0,0 +1,92 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands streamed chunks from a single producer thread over to a consumer without either of them
+ * waiting on the other while the queue has room.
+ *
+ * <p>The queue holds at most {@code capacity} chunks. When it is full, chunks are appended to an
+ * overflow buffer instead, and everything offered afterwards goes there too until the consumer
+ * has taken it, so the order is kept. Nothing is ever dropped. The overflow buffer is guarded by
+ * a lock which is only held to append a chunk or to take the buffer.
+ */
+final class StreamingUpdateQueue {
+
+  private final int capacity;
+  private final Queue<String> chunks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final Object overflowLock = new Object();
+  private StringBuilder overflow = new StringBuilder();
+  private volatile boolean overflowing;
+  private final AtomicLong offered = new AtomicLong();
+  private final AtomicLong overflowed = new AtomicLong();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+
+  StreamingUpdateQueue(int capacity) {
+    this.capacity = capacity;
+  }
+
+  void offer(String chunk) {
+    offered.incrementAndGet();
+    if (!overflowing && size.get() < capacity) {
+      chunks.offer(chunk);
+      maxDepth.accumulateAndGet(size.incrementAndGet(), Math::max);
+      return;
+    }
+
+    overflowed.incrementAndGet();
+    synchronized (overflowLock) {
+      overflow.append(chunk);
+      overflowing = true;
+    }
+  }
+
+  /**
+   * Takes everything offered so far, in order.
+   *
+   * @return The concatenated chunks, or an empty string if there were none.
+   */
+  String drain() {
+    var builder = new StringBuilder();
+    String chunk;
+    while ((chunk = chunks.poll()) != null) {
+      size.decrementAndGet();
+      builder.append(chunk);
+    }
+    synchronized (overflowLock) {
+      if (overflowing) {
+        builder.append(overflow);
+        overflow = new StringBuilder();
+        overflowing = false;
+      }
+    }
+    return builder.toString();
+  }
+
+  void clear() {
+    drain();
+  }
+
+  Stats getStats() {
+    return new Stats(offered.get(), overflowed.get(), maxDepth.get(), capacity);
+  }
+
+  /**
+   * @param offered    Chunks offered by the producer.
+   * @param overflowed Chunks which found the queue full, or behind chunks which did.
+   * @param maxDepth   Most chunks waiting for the consumer at once.
+   * @param capacity   Most chunks the queue holds.
+   */
+  record Stats(long offered, long overflowed, int maxDepth, int capacity) {
+
+    @Override
+    public String toString() {
+      return "%d chunks streamed, %d overflowed, max queue depth %d/%d"
+          .formatted(offered, overflowed, maxDepth, capacity);
+    }
+  }
+}
@@ -4,13 +4,23 @@ import static java.lang.String.format;
 
 import com.intellij.icons.AllIcons.General;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.editor.event.EditorFactoryEvent;
 import com.intellij.openapi.editor.event.EditorFactoryListener;
 import com.intellij.openapi.editor.event.SelectionEvent;
 import com.intellij.openapi.editor.event.SelectionListener;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.components.JBLabel;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.JBUI;
 import ee.carlrobert.codegpt.CodeGPTKeys;
 import ee.carlrobert.codegpt.EncodingManager;
@@ -19,12 +29,17 @@ import ee.carlrobert.codegpt.actions.IncludeFilesInContextNotifier;
 import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
 import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.tokenizer.FileTokenCountCache;
 import java.awt.FlowLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
 import javax.swing.Box;
 import javax.swing.JPanel;
@@ -33,9 +48,16 @@ import org.jetbrains.annotations.Nullable;
 
 public class TotalTokensPanel extends JPanel {
 
+  // Texts up to this length are counted right away, longer ones are estimated first
+  private static final int EXACT_COUNT_MAX_LENGTH = 4 * 1024;
+
   private final EncodingManager encodingManager = EncodingManager.getInstance();
+  private final FileTokenCountCache fileTokenCountCache;
   private final TotalTokensDetails totalTokensDetails;
   private final JBLabel label;
+  private final TokenCountUpdater userPromptTokenCount;
+  private final TokenCountUpdater highlightedTokenCount;
+  private final TokenCountUpdater referencedFilesTokenCount;
 
   public TotalTokensPanel(
       @NotNull Project project,
@@ -43,11 +65,23 @@ public class TotalTokensPanel extends JPanel {
       @Nullable String highlightedText,
       Disposable parentDisposable) {
     super(new FlowLayout(FlowLayout.LEADING, 0, 0));
-    this.totalTokensDetails = createTokenDetails(
-        conversation,
-        project.getUserData(CodeGPTKeys.SELECTED_FILES),
-        highlightedText);
+    this.fileTokenCountCache = FileTokenCountCache.getInstance(project);
+    this.totalTokensDetails = createTokenDetails(conversation);
     this.label = getLabel(totalTokensDetails);
+    this.userPromptTokenCount =
+        new TokenCountUpdater(totalTokensDetails::setUserPromptTokens, parentDisposable);
+    this.highlightedTokenCount =
+        new TokenCountUpdater(totalTokensDetails::setHighlightedTokens, parentDisposable);
+    this.referencedFilesTokenCount =
+        new TokenCountUpdater(totalTokensDetails::setReferencedFilesTokens, parentDisposable);
+
+    var includedFiles = project.getUserData(CodeGPTKeys.SELECTED_FILES);
+    if (includedFiles != null) {
+      updateReferencedFilesTokens(includedFiles);
+    }
+    if (highlightedText != null) {
+      updateHighlightedTokens(highlightedText);
+    }
 
     setBorder(JBUI.Borders.empty(4));
     setOpaque(false);
@@ -79,7 +113,9 @@ public class TotalTokensPanel extends JPanel {
     return new SelectionListener() {
       @Override
       public void selectionChanged(@NotNull SelectionEvent e) {
-        updateHighlightedTokens(e.getEditor().getDocument().getText(e.getNewRange()));
+        var range = e.getNewRange();
+        updateHighlightedTokens(e.getEditor().getDocument().getImmutableCharSequence()
+            .subSequence(range.getStartOffset(), range.getEndOffset()));
       }
     };
   }
@@ -106,36 +142,52 @@ public class TotalTokensPanel extends JPanel {
   }
 
   public void updateUserPromptTokens(String userPrompt) {
-    totalTokensDetails.setUserPromptTokens(encodingManager.countTokens(userPrompt));
-    update();
+    userPromptTokenCount.update(List.of(userPrompt));
   }
 
-  public void updateHighlightedTokens(String highlightedText) {
-    totalTokensDetails.setHighlightedTokens(encodingManager.countTokens(highlightedText));
-    update();
+  public void updateHighlightedTokens(CharSequence highlightedText) {
+    highlightedTokenCount.update(List.of(highlightedText));
   }
 
+  /**
+   * Sums the cached token counts of the files' contents. The contents that aren't cached yet are
+   * counted and cached, in the background if they are long.
+   */
   public void updateReferencedFilesTokens(List<ReferencedFile> includedFiles) {
-    totalTokensDetails.setReferencedFilesTokens(includedFiles.stream()
-        .mapToInt(file -> encodingManager.countTokens(file.getFileContent()))
-        .sum());
-    update();
+    var cachedTokens = 0;
+    var uncachedFiles = new ArrayList<ReferencedFile>();
+    var virtualFiles = new HashMap<ReferencedFile, VirtualFile>();
+    for (var file : includedFiles) {
+      var virtualFile = LocalFileSystem.getInstance().findFileByPath(file.getFilePath());
+      var tokenCount = virtualFile == null
+          ? null
+          : fileTokenCountCache.getCachedTokenCount(virtualFile, file.getFileContent());
+      if (tokenCount == null) {
+        uncachedFiles.add(file);
+        if (virtualFile != null) {
+          virtualFiles.put(file, virtualFile);
+        }
+      } else {
+        cachedTokens += tokenCount;
+      }
+    }
+
+    referencedFilesTokenCount.update(
+        cachedTokens,
+        uncachedFiles.stream().map(file -> (CharSequence) file.getFileContent()).toList(),
+        () -> uncachedFiles.stream()
+            .mapToInt(file -> {
+              var virtualFile = virtualFiles.get(file);
+              return virtualFile == null
+                  ? encodingManager.countTokensCancellable(file.getFileContent())
+                  : fileTokenCountCache.getTokenCount(virtualFile, file.getFileContent());
+            })
+            .sum());
   }
 
-  private TotalTokensDetails createTokenDetails(
-      Conversation conversation,
-      List<ReferencedFile> includedFiles,
-      @Nullable String highlightedText) {
+  private TotalTokensDetails createTokenDetails(Conversation conversation) {
     var tokenDetails = new TotalTokensDetails(encodingManager);
     tokenDetails.setConversationTokens(encodingManager.countConversationTokens(conversation));
-    if (includedFiles != null) {
-      tokenDetails.setReferencedFilesTokens(includedFiles.stream()
-          .mapToInt(file -> encodingManager.countTokens(file.getFileContent()))
-          .sum());
-    }
-    if (highlightedText != null) {
-      tokenDetails.setHighlightedTokens(encodingManager.countTokens(highlightedText));
-    }
     return tokenDetails;
   }
 
@@ -185,4 +237,68 @@ public class TotalTokensPanel extends JPanel {
   private JBLabel getLabel(TotalTokensDetails totalTokensDetails) {
     return new JBLabel(getLabelHtml(totalTokensDetails.getTotal()));
   }
+
+  /**
+   * Keeps one of the token counts up to date. Short texts are counted right away. Long texts
+   * are estimated first and counted exactly in the background, a count that is still running
+   * is canceled when the texts change again.
+   */
+  private final class TokenCountUpdater {
+
+    private final IntConsumer tokensConsumer;
+    private @Nullable ProgressIndicator pendingCount;
+
+    TokenCountUpdater(IntConsumer tokensConsumer, Disposable parentDisposable) {
+      this.tokensConsumer = tokensConsumer;
+      Disposer.register(parentDisposable, this::cancel);
+    }
+
+    void update(List<? extends CharSequence> texts) {
+      update(0, texts, () -> texts.stream()
+          .mapToInt(encodingManager::countTokensCancellable)
+          .sum());
+    }
+
+    /**
+     * @param knownTokens Tokens that are already counted, they are added to the texts' tokens.
+     * @param countTexts  Counts the tokens of the texts exactly.
+     */
+    void update(int knownTokens, List<? extends CharSequence> texts, IntSupplier countTexts) {
+      cancel();
+      var length = texts.stream().mapToLong(CharSequence::length).sum();
+      if (length <= EXACT_COUNT_MAX_LENGTH) {
+        setTokens(knownTokens + countTexts.getAsInt());
+        return;
+      }
+
+      setTokens(knownTokens + texts.stream().mapToInt(encodingManager::estimateTokens).sum());
+      var indicator = new EmptyProgressIndicator();
+      pendingCount = indicator;
+      AppExecutorUtil.getAppExecutorService().execute(() -> {
+        try {
+          var tokens = knownTokens + ProgressManager.getInstance().runProcess(
+              countTexts::getAsInt,
+              indicator);
+          ApplicationManager.getApplication().invokeLater(
+              () -> setTokens(tokens),
+              ModalityState.any(),
+              ignored -> indicator.isCanceled());
+        } catch (ProcessCanceledException ignored) {
+          // The texts have changed, the next count replaces this one
+        }
+      });
+    }
+
+    private void setTokens(int tokens) {
+      tokensConsumer.accept(tokens);
+      TotalTokensPanel.this.update();
+    }
+
+    private void cancel() {
+      if (pendingCount != null) {
+        pendingCount.cancel();
+        pendingCount = null;
+      }
+    }
+  }
 }
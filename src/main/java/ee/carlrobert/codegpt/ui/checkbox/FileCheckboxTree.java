@@ -18,6 +18,11 @@ public abstract class FileCheckboxTree extends CheckboxTree {
 
   public abstract List<ReferencedFile> getReferencedFiles();
 
+  /**
+   * @return The checked files, without reading their contents.
+   */
+  public abstract List<VirtualFile> getCheckedFiles();
+
   protected static void updateFilePresentation(
       ColoredTreeCellRenderer textRenderer,
       @NotNull VirtualFile virtualFile) {
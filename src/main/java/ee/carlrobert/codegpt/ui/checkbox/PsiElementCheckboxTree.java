@@ -2,15 +2,16 @@ package ee.carlrobert.codegpt.ui.checkbox;
 
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.util.Iconable;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.impl.file.PsiDirectoryImpl;
 import com.intellij.ui.CheckedTreeNode;
 import ee.carlrobert.codegpt.ReferencedFile;
-import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import org.jetbrains.annotations.NotNull;
 
@@ -32,8 +33,16 @@ public class PsiElementCheckboxTree extends FileCheckboxTree {
     }
 
     return Arrays.stream(checkedNodes)
-        .map(item -> new ReferencedFile(
-            new File(item.getContainingFile().getVirtualFile().getPath())))
+        .map(item -> new ReferencedFile(item.getContainingFile().getVirtualFile()))
+        .toList();
+  }
+
+  @Override
+  public List<VirtualFile> getCheckedFiles() {
+    var checkedNodes = getCheckedNodes(PsiElement.class, node -> node.getContainingFile() != null);
+    return Arrays.stream(checkedNodes)
+        .map(item -> item.getContainingFile().getVirtualFile())
+        .filter(Objects::nonNull)
         .toList();
   }
 
@@ -5,7 +5,6 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.CheckedTreeNode;
 import com.intellij.util.PlatformIcons;
 import ee.carlrobert.codegpt.ReferencedFile;
-import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
@@ -24,7 +23,13 @@ public class VirtualFileCheckboxTree extends FileCheckboxTree {
     }
 
     return Arrays.stream(checkedNodes)
-        .map(item -> new ReferencedFile(new File(item.getPath())))
+        .map(ReferencedFile::new)
+        .toList();
+  }
+
+  @Override
+  public List<VirtualFile> getCheckedFiles() {
+    return Arrays.stream(getCheckedNodes(VirtualFile.class, file -> !file.isDirectory()))
         .toList();
   }
 
@@ -7,6 +7,7 @@ import com.intellij.openapi.components.service
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.startup.ProjectActivity
 import ee.carlrobert.codegpt.actions.editor.EditorActionsUtil
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService
 import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
@@ -23,6 +24,7 @@ class CodeGPTProjectActivity : ProjectActivity {
 
     override suspend fun execute(project: Project) {
         EditorActionsUtil.refreshActions()
+        service<ConnectionWarmupService>().warmUpAsync()
 
         val settings = service<GeneralSettings>().state
         if (settings.selectedService == ServiceType.CODEGPT) {
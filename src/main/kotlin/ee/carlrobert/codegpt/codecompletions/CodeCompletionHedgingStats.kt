@@ -0,0 +1,177 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.thisLogger
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ceil
+
+/**
+ * Collects the latency samples that drive hedged code completion requests, along with counters
+ * describing what hedging costs and what it brings.
+ *
+ * Times to first token are measured per request from its own start. Requests that were cancelled
+ * before their first token, such as the loser of a hedge race, are kept as censored samples: the
+ * first token would have taken at least as long as they had been waiting. The hedge delay is
+ * estimated with the Kaplan-Meier estimator, so that those slow requests aren't simply dropped,
+ * which would pull the delay down and make hedging fire ever more often.
+ *
+ * The p99 improvement compares the time to first token of the primary requests with the time to
+ * first token the user actually got. Primary requests that lost the race are counted with the
+ * time they had been waiting when they were cancelled, so the improvement is a lower bound.
+ */
+@Service
+class CodeCompletionHedgingStats {
+
+    companion object {
+        private val logger = thisLogger()
+
+        private const val WINDOW_SIZE = 200
+        private const val MIN_SAMPLES = 20
+        private const val MIN_HEDGE_DELAY_MILLIS = 50L
+        private const val LOG_INTERVAL = 100
+    }
+
+    private val timesToFirstToken = ConcurrentHashMap<ServiceType, LatencyWindow>()
+    private val primaryTimesToFirstToken = LatencyWindow()
+    private val effectiveTimesToFirstToken = LatencyWindow()
+    private val requests = AtomicLong()
+    private val hedgedRequests = AtomicLong()
+    private val hedgesWon = AtomicLong()
+
+    /**
+     * @return How long to wait for the first token before a hedged request is sent, or `null`
+     * when there aren't enough samples yet to tell.
+     */
+    fun getHedgeDelayMillis(serviceType: ServiceType, percentile: Int): Long? {
+        val window = timesToFirstToken[serviceType] ?: return null
+        if (window.size() < MIN_SAMPLES) {
+            return null
+        }
+        return window.percentile(percentile)?.coerceAtLeast(MIN_HEDGE_DELAY_MILLIS)
+    }
+
+    fun recordTimeToFirstToken(serviceType: ServiceType, millis: Long) {
+        timesToFirstToken.computeIfAbsent(serviceType) { LatencyWindow() }.add(millis)
+    }
+
+    /**
+     * Records a request that was cancelled after waiting the given time without receiving its
+     * first token.
+     */
+    fun recordCensoredTimeToFirstToken(serviceType: ServiceType, millis: Long) {
+        timesToFirstToken.computeIfAbsent(serviceType) { LatencyWindow() }.add(millis, true)
+    }
+
+    /**
+     * Records a finished hedged request.
+     *
+     * @param primaryMillis   Time to first token of the primary request, or the time it had been
+     * waiting when it was cancelled.
+     * @param effectiveMillis Time to first token of the winning request, measured from the start
+     * of the primary one.
+     * @param hedged          Whether a hedge request was sent.
+     * @param hedgeWon        Whether the hedge request delivered first.
+     */
+    fun recordRequest(primaryMillis: Long, effectiveMillis: Long, hedged: Boolean, hedgeWon: Boolean) {
+        primaryTimesToFirstToken.add(primaryMillis)
+        effectiveTimesToFirstToken.add(effectiveMillis)
+        if (hedged) {
+            hedgedRequests.incrementAndGet()
+        }
+        if (hedgeWon) {
+            hedgesWon.incrementAndGet()
+        }
+
+        if (requests.incrementAndGet() % LOG_INTERVAL == 0L) {
+            logger.info(getSnapshot().toString())
+        }
+    }
+
+    fun getSnapshot(): Snapshot {
+        val primaryP99 = primaryTimesToFirstToken.percentile(99)
+        val effectiveP99 = effectiveTimesToFirstToken.percentile(99)
+        return Snapshot(
+            requests.get(),
+            hedgedRequests.get(),
+            hedgesWon.get(),
+            primaryP99,
+            effectiveP99
+        )
+    }
+
+    data class Snapshot(
+        val requests: Long,
+        val hedgedRequests: Long,
+        val hedgesWon: Long,
+        val primaryP99Millis: Long?,
+        val effectiveP99Millis: Long?
+    ) {
+        /**
+         * Share of requests that were sent twice.
+         */
+        val extraRequestRate: Double
+            get() = if (requests == 0L) 0.0 else hedgedRequests.toDouble() / requests
+
+        val p99ImprovementMillis: Long?
+            get() = if (primaryP99Millis == null || effectiveP99Millis == null) {
+                null
+            } else {
+                primaryP99Millis - effectiveP99Millis
+            }
+
+        override fun toString(): String =
+            "Code completion hedging: $requests requests, $hedgedRequests hedged " +
+                    "(${"%.1f".format(extraRequestRate * 100)}% extra), $hedgesWon won by the hedge, " +
+                    "p99 time to first token ${primaryP99Millis}ms -> ${effectiveP99Millis}ms"
+    }
+
+    private class LatencyWindow {
+
+        private val samples = ArrayDeque<Sample>(WINDOW_SIZE)
+
+        @Synchronized
+        fun add(millis: Long, censored: Boolean = false) {
+            if (samples.size == WINDOW_SIZE) {
+                samples.removeFirst()
+            }
+            samples.addLast(Sample(millis, censored))
+        }
+
+        @Synchronized
+        fun size(): Int = samples.size
+
+        /**
+         * Estimates the percentile with the Kaplan-Meier estimator. A censored sample only leaves
+         * the set of requests still waiting, it doesn't count as a first token. Without censored
+         * samples this is the nearest-rank percentile.
+         *
+         * @return The percentile, or the longest sample if the censored samples leave too few
+         * observations to reach it.
+         */
+        @Synchronized
+        fun percentile(percentile: Int): Long? {
+            if (samples.isEmpty()) {
+                return null
+            }
+            // Censored samples sort after observations of the same time, they waited at least that
+            val sorted = samples.sortedWith(compareBy<Sample> { it.millis }.thenBy { it.censored })
+            val target = 1 - ceil(percentile / 100.0 * sorted.size) / sorted.size
+            var survival = 1.0
+            var waiting = sorted.size
+            for (sample in sorted) {
+                if (!sample.censored) {
+                    survival *= 1 - 1.0 / waiting
+                    if (survival <= target + 1e-9) {
+                        return sample.millis
+                    }
+                }
+                waiting--
+            }
+            return sorted.last().millis
+        }
+    }
+
+    private data class Sample(val millis: Long, val censored: Boolean)
+}
@@ -1,9 +1,8 @@
 package ee.carlrobert.codegpt.codecompletions
 
-import com.fasterxml.jackson.core.JsonProcessingException
-import com.fasterxml.jackson.databind.ObjectMapper
 import com.intellij.openapi.components.service
 import ee.carlrobert.codegpt.EncodingManager
+import ee.carlrobert.codegpt.completions.JsonRequestBody
 import ee.carlrobert.codegpt.completions.llama.LlamaModel
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
@@ -20,8 +19,6 @@ import ee.carlrobert.llm.client.ollama.completion.request.OllamaParameters
 import ee.carlrobert.llm.client.openai.completion.request.OpenAITextCompletionRequest
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.Request
-import okhttp3.RequestBody.Companion.toRequestBody
-import java.nio.charset.StandardCharsets
 
 object CodeCompletionRequestFactory {
 
@@ -87,16 +84,12 @@ object CodeCompletionRequestFactory {
             key to transformValue(value, infillTemplate, details)
         }
 
-        try {
-            val requestBody = ObjectMapper()
-                .writerWithDefaultPrettyPrinter()
-                .writeValueAsString(transformedBody)
-                .toByteArray(StandardCharsets.UTF_8)
-                .toRequestBody("application/json".toMediaType())
-            return requestBuilder.post(requestBody).build()
-        } catch (e: JsonProcessingException) {
-            throw RuntimeException(e)
-        }
+        val requestBody = JsonRequestBody(
+            transformedBody,
+            "application/json".toMediaType(),
+            JsonRequestBody.isGzipRequested(headers)
+        )
+        return requestBuilder.post(requestBody).build()
     }
 
     @JvmStatic
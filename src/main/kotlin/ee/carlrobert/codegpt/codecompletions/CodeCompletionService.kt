@@ -8,8 +8,14 @@ import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildL
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildOllamaRequest
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildOpenAIRequest
 import ee.carlrobert.codegpt.completions.CompletionClientProvider
+import ee.carlrobert.codegpt.completions.CompletionRequestScheduler
+import ee.carlrobert.codegpt.completions.CustomServiceEventSourceListener
+import ee.carlrobert.codegpt.completions.JsonCodec
+import ee.carlrobert.codegpt.completions.RequestPriority
+import ee.carlrobert.codegpt.completions.SingleFlightRequests
 import ee.carlrobert.codegpt.completions.llama.LlamaModel
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.settings.service.ServiceType.*
 import ee.carlrobert.codegpt.settings.service.codegpt.CodeGPTServiceSettings
@@ -17,7 +23,6 @@ import ee.carlrobert.codegpt.settings.service.custom.CustomServiceSettings
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
 import ee.carlrobert.codegpt.settings.service.ollama.OllamaSettings
 import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings
-import ee.carlrobert.llm.client.openai.completion.OpenAITextCompletionEventSourceListener
 import ee.carlrobert.llm.completion.CompletionEventListener
 import okhttp3.sse.EventSource
 import okhttp3.sse.EventSources.createFactory
@@ -54,8 +59,80 @@ class CodeCompletionService {
     fun getCodeCompletionAsync(
         requestDetails: InfillRequest,
         eventListener: CompletionEventListener<String>
+    ): EventSource {
+        val selectedService = GeneralSettings.getSelectedService()
+        return SingleFlightRequests.getInstance().stream(
+            getRequestKey(selectedService, requestDetails),
+            eventListener
+        ) { listener -> startCodeCompletionAsync(selectedService, requestDetails, listener) }
+    }
+
+    private fun startCodeCompletionAsync(
+        selectedService: ServiceType,
+        requestDetails: InfillRequest,
+        eventListener: CompletionEventListener<String>
+    ): EventSource {
+        val configuration = ConfigurationSettings.getState()
+        if (!configuration.autocompletionHedgingEnabled) {
+            return scheduleCodeCompletion(selectedService, requestDetails, eventListener)
+        }
+
+        return HedgedEventSource(
+            selectedService,
+            getHedgeService(selectedService),
+            configuration.autocompletionHedgingPercentile,
+            eventListener
+        ) { serviceType, listener ->
+            scheduleCodeCompletion(serviceType, requestDetails, listener)
+        }.start()
+    }
+
+    private fun getRequestKey(serviceType: ServiceType, requestDetails: InfillRequest): String {
+        val context = requestDetails.context
+        return SingleFlightRequests.hash(
+            "infill",
+            serviceType,
+            requestDetails.prefix,
+            requestDetails.suffix,
+            requestDetails.fileDetails,
+            requestDetails.vcsDetails,
+            context?.enclosingElement?.filePath(),
+            context?.contextElements
+                ?.map { "${it.filePath()}\n${it.text()}" }
+                ?.sorted()
+        )
+    }
+
+    /**
+     * Hedged requests go to the fallback provider when it can serve code completions, otherwise
+     * to the selected provider again.
+     */
+    private fun getHedgeService(selectedService: ServiceType): ServiceType {
+        val fallbackService = GeneralSettings.getCurrentState().fallbackService
+        return if (fallbackService != null && isCodeCompletionsEnabled(fallbackService)) {
+            fallbackService
+        } else {
+            selectedService
+        }
+    }
+
+    private fun scheduleCodeCompletion(
+        serviceType: ServiceType,
+        requestDetails: InfillRequest,
+        eventListener: CompletionEventListener<String>
     ): EventSource =
-        when (val selectedService = GeneralSettings.getSelectedService()) {
+        CompletionRequestScheduler.getInstance().schedule(
+            serviceType,
+            RequestPriority.INLINE_COMPLETION,
+            eventListener
+        ) { listener -> startCodeCompletion(serviceType, requestDetails, listener) }
+
+    private fun startCodeCompletion(
+        selectedService: ServiceType,
+        requestDetails: InfillRequest,
+        eventListener: CompletionEventListener<String>
+    ): EventSource =
+        when (selectedService) {
             CODEGPT -> CompletionClientProvider.getCodeGPTClient()
                 .getCodeCompletionAsync(buildCodeGPTRequest(requestDetails), eventListener)
 
@@ -63,10 +140,16 @@ class CodeCompletionService {
 //                .getCompletionAsync(buildOpenAIRequest(requestDetails), eventListener)
 
             CUSTOM_OPENAI -> createFactory(
-                CompletionClientProvider.getDefaultClientBuilder().build()
+                CompletionClientProvider.getDefaultClient(CUSTOM_OPENAI)
             ).newEventSource(
                 buildCustomRequest(requestDetails),
-                OpenAITextCompletionEventSourceListener(eventListener)
+                CustomServiceEventSourceListener(
+                    JsonCodec.getResponsePath(
+                        service<CustomServiceSettings>().state.codeCompletionSettings.responsePath,
+                        JsonCodec.TEXT_CONTENT
+                    ),
+                    eventListener
+                )
             )
 
 //            OLLAMA -> CompletionClientProvider.getOllamaClient()
@@ -11,6 +11,7 @@ import com.intellij.openapi.diagnostic.thisLogger
 import com.intellij.openapi.editor.Editor
 import ee.carlrobert.codegpt.CodeGPTKeys.IS_FETCHING_COMPLETION
 import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService
 import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.settings.service.codegpt.CodeGPTServiceSettings
@@ -103,6 +104,10 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         val containsActiveCompletion =
             REMAINING_EDITOR_COMPLETION.get(event.toRequest()?.editor)?.isNotEmpty() ?: false
 
+        if (event is InlineCompletionEvent.DocumentChange && codeCompletionsEnabled) {
+            service<ConnectionWarmupService>().warmUpAsync(selectedService, true)
+        }
+
         return (event is InlineCompletionEvent.DocumentChange && codeCompletionsEnabled)
                 || containsActiveCompletion
     }
@@ -0,0 +1,312 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.thisLogger
+import com.intellij.util.concurrency.AppExecutorUtil
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.Request
+import okhttp3.sse.EventSource
+import java.io.IOException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends a code completion request and, when its first token takes longer than the configured
+ * percentile of recent requests, sends a duplicate request as well. Whichever request streams
+ * first is forwarded to the listener, the other one is cancelled.
+ *
+ * Until there are enough samples to tell the percentile, requests are sent once. Once hedging is
+ * active, a primary request whose connection fails before streaming anything triggers the hedge
+ * right away instead of waiting for the timer. Other errors, e.g. invalid credentials, are
+ * reported as they are.
+ */
+class HedgedEventSource(
+    private val primaryService: ServiceType,
+    private val hedgeService: ServiceType,
+    private val percentile: Int,
+    private val eventListener: CompletionEventListener<String>,
+    private val stats: CodeCompletionHedgingStats = service(),
+    private val timer: ScheduledExecutorService = AppExecutorUtil.getAppScheduledExecutorService(),
+    private val nanoTime: () -> Long = System::nanoTime,
+    private val call: (ServiceType, CompletionEventListener<String>) -> EventSource
+) : EventSource {
+
+    companion object {
+        private val logger = thisLogger()
+
+        private fun isConnectionError(ex: Throwable?): Boolean {
+            var cause = ex
+            while (cause != null) {
+                if (cause is IOException) {
+                    return cause.message != "Canceled"
+                }
+                cause = cause.cause
+            }
+            return false
+        }
+    }
+
+    private val startedAtNanos = nanoTime()
+    private val attempts = mutableListOf<Attempt>()
+    private var winner: Attempt? = null
+    private var hedgeTimer: ScheduledFuture<*>? = null
+    private var hedgeDelayMillis: Long? = null
+    private var hedgeStarted = false
+    private var opened = false
+    private var cancelled = false
+    private var terminated = false
+
+    fun start(): HedgedEventSource {
+        val delay = stats.getHedgeDelayMillis(primaryService, percentile)
+        synchronized(this) {
+            hedgeDelayMillis = delay
+        }
+        startAttempt(primaryService, false)
+        if (delay != null) {
+            synchronized(this) {
+                if (winner == null && !cancelled && !terminated) {
+                    hedgeTimer = timer.schedule(::startHedge, delay, TimeUnit.MILLISECONDS)
+                }
+            }
+        }
+        return this
+    }
+
+    override fun request(): Request {
+        val attempt = synchronized(this) { winner ?: attempts.firstOrNull() }
+            ?: throw IllegalStateException("Request has not been started yet")
+        return attempt.eventSource?.request()
+            ?: throw IllegalStateException("Request has not been started yet")
+    }
+
+    override fun cancel() {
+        val toCancel: List<Attempt>
+        val streaming: Boolean
+        synchronized(this) {
+            if (cancelled) {
+                return
+            }
+            cancelled = true
+            hedgeTimer?.cancel(false)
+            toCancel = attempts.toList()
+            streaming = winner != null
+        }
+        if (!streaming) {
+            recordUnfinishedAttempts(toCancel)
+        }
+        toCancel.forEach { it.cancel() }
+    }
+
+    private fun startAttempt(serviceType: ServiceType, hedge: Boolean) {
+        val attempt = Attempt(serviceType, hedge)
+        synchronized(this) {
+            attempts.add(attempt)
+        }
+        try {
+            attempt.eventSource = call(serviceType, attempt)
+        } catch (ex: Throwable) {
+            synchronized(this) {
+                attempt.finish()
+            }
+            throw ex
+        }
+        if (synchronized(this) { cancelled || (winner != null && winner !== attempt) }) {
+            attempt.cancel()
+        }
+    }
+
+    private fun startHedge() {
+        synchronized(this) {
+            if (hedgeStarted || winner != null || cancelled || terminated) {
+                return
+            }
+            hedgeStarted = true
+            hedgeTimer?.cancel(false)
+        }
+
+        logger.debug("Sending a hedged code completion request to $hedgeService")
+        try {
+            startAttempt(hedgeService, true)
+        } catch (ex: Throwable) {
+            logger.warn("Unable to send a hedged code completion request", ex)
+            onAttemptFailed(null, ErrorDetails("Something went wrong"), ex)
+        }
+    }
+
+    private fun onFirstToken(attempt: Attempt): Boolean {
+        val primary: Attempt
+        val losers: List<Attempt>
+        val hedged: Boolean
+        synchronized(this) {
+            if (winner != null) {
+                return winner === attempt
+            }
+            winner = attempt
+            hedgeTimer?.cancel(false)
+            primary = attempts.first()
+            losers = attempts.filter { it !== attempt }
+            hedged = hedgeStarted
+        }
+        recordUnfinishedAttempts(losers)
+        losers.forEach { it.cancel() }
+
+        stats.recordTimeToFirstToken(attempt.serviceType, attempt.getElapsedMillis())
+        stats.recordRequest(
+            primaryMillis = primary.getElapsedMillis(),
+            effectiveMillis = TimeUnit.NANOSECONDS.toMillis(nanoTime() - startedAtNanos),
+            hedged = hedged,
+            hedgeWon = attempt.hedge
+        )
+        return true
+    }
+
+    /**
+     * Records the time the attempts that are about to be cancelled had been waiting as censored
+     * samples, their first token would have taken at least that long. Dropping them would only
+     * keep the faster requests and pull the hedge delay down.
+     */
+    private fun recordUnfinishedAttempts(attempts: List<Attempt>) {
+        attempts.filter { synchronized(this) { !it.finished } }.forEach {
+            stats.recordCensoredTimeToFirstToken(it.serviceType, it.getElapsedMillis())
+        }
+    }
+
+    /**
+     * Decides whether a terminal event of the given attempt is forwarded to the listener, which
+     * happens at most once per hedged request.
+     */
+    private fun shouldForwardTermination(attempt: Attempt): Boolean {
+        synchronized(this) {
+            if (terminated || (winner != null && winner !== attempt)) {
+                return false
+            }
+            terminated = true
+            return true
+        }
+    }
+
+    private fun onAttemptFailed(attempt: Attempt?, error: ErrorDetails, ex: Throwable?) {
+        val hedgeNow = synchronized(this) {
+            if (terminated || (winner != null && winner !== attempt)) {
+                return
+            }
+            attempt?.finish()
+            // Only when hedging is active, an error that isn't transient would just repeat
+            val hedgeNow = winner == null && !cancelled && !hedgeStarted
+                    && hedgeDelayMillis != null && isConnectionError(ex)
+            val waitingForOthers = winner == null && !cancelled
+                    && (attempts.any { !it.finished } || hedgeNow)
+            if (!waitingForOthers) {
+                terminated = true
+                hedgeTimer?.cancel(false)
+            } else if (!hedgeNow) {
+                return
+            }
+            hedgeNow
+        }
+
+        if (hedgeNow) {
+            startHedge()
+        } else {
+            eventListener.onError(error, ex)
+        }
+    }
+
+    private inner class Attempt(
+        val serviceType: ServiceType,
+        val hedge: Boolean
+    ) : CompletionEventListener<String> {
+
+        private val attemptStartedAtNanos = nanoTime()
+        private var finishedAtNanos = 0L
+        var eventSource: EventSource? = null
+        // Failed or cancelled
+        var finished = false
+            private set
+
+        /**
+         * Stops the attempt's clock, the elapsed time of a failed attempt doesn't grow any more.
+         */
+        fun finish() {
+            if (!finished) {
+                finished = true
+                finishedAtNanos = nanoTime()
+            }
+        }
+
+        fun getElapsedMillis(): Long {
+            val endNanos = synchronized(this@HedgedEventSource) {
+                if (finished) finishedAtNanos else nanoTime()
+            }
+            return TimeUnit.NANOSECONDS.toMillis(endNanos - attemptStartedAtNanos)
+        }
+
+        fun cancel() {
+            eventSource?.cancel()
+        }
+
+        override fun onOpen() {
+            val forward = synchronized(this@HedgedEventSource) {
+                !opened.also { opened = true }
+            }
+            if (forward) {
+                eventListener.onOpen()
+            }
+        }
+
+        override fun onEvent(data: String) {
+            if (synchronized(this@HedgedEventSource) { winner === this }) {
+                eventListener.onEvent(data)
+            }
+        }
+
+        override fun onMessage(message: String, eventSource: EventSource) {
+            if (onFirstToken(this)) {
+                eventListener.onMessage(message, eventSource)
+            }
+        }
+
+        override fun onComplete(messageBuilder: StringBuilder) {
+            if (onFirstToken(this) && shouldForwardTermination(this)) {
+                eventListener.onComplete(messageBuilder)
+            }
+        }
+
+        /**
+         * Besides the winner's and the caller's cancellations, attempts may be cancelled from the
+         * outside, e.g. by the request scheduler dropping stale requests. Once none of the
+         * attempts is left running, the cancellation is forwarded so that the caller isn't left
+         * waiting for a terminal event.
+         */
+        override fun onCancelled(messageBuilder: StringBuilder) {
+            val forward = synchronized(this@HedgedEventSource) {
+                finish()
+                if (terminated || (winner != null && winner !== this)) {
+                    return
+                }
+                val done = winner === this || cancelled || attempts.all { it.finished }
+                if (done) {
+                    terminated = true
+                    hedgeTimer?.cancel(false)
+                }
+                done
+            }
+            if (forward) {
+                eventListener.onCancelled(messageBuilder)
+            }
+        }
+
+        override fun onError(error: ErrorDetails, ex: Throwable) {
+            if (synchronized(this@HedgedEventSource) { winner === this }) {
+                if (shouldForwardTermination(this)) {
+                    eventListener.onError(error, ex)
+                }
+                return
+            }
+            onAttemptFailed(this, error, ex)
+        }
+    }
+}
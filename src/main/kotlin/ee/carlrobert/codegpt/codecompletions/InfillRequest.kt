@@ -2,7 +2,6 @@ package ee.carlrobert.codegpt.codecompletions
 
 import com.intellij.openapi.components.service
 import com.intellij.openapi.editor.Document
-import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiElement
 import ee.carlrobert.codegpt.EncodingManager
 import ee.carlrobert.codegpt.codecompletions.psi.filePath
@@ -38,16 +37,10 @@ class InfillRequest private constructor(
         }
 
         constructor(document: Document, caretOffset: Int) {
-            prefix =
-                document.getText(TextRange(0, caretOffset))
-                    .truncateText(MAX_PROMPT_TOKENS, false)
-            suffix =
-                document.getText(
-                    TextRange(
-                        caretOffset,
-                        document.textLength
-                    )
-                ).truncateText(MAX_PROMPT_TOKENS)
+            // Only the part of the document within the token budget is copied and encoded
+            val text = document.immutableCharSequence
+            prefix = text.subSequence(0, caretOffset).truncateText(MAX_PROMPT_TOKENS, false)
+            suffix = text.subSequence(caretOffset, text.length).truncateText(MAX_PROMPT_TOKENS)
         }
 
         fun fileDetails(fileDetails: FileDetails) = apply { this.fileDetails = fileDetails }
@@ -75,6 +68,6 @@ class ContextElement(val psiElement: PsiElement) {
     fun text() = this.psiElement.readText()
 }
 
-fun String.truncateText(maxTokens: Int, fromStart: Boolean = true): String {
+fun CharSequence.truncateText(maxTokens: Int, fromStart: Boolean = true): String {
     return service<EncodingManager>().truncateText(this, maxTokens, fromStart)
 }
\ No newline at end of file
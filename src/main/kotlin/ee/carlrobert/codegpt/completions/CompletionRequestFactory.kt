@@ -12,6 +12,23 @@ interface CompletionRequestFactory {
     fun createCommitMessageRequest(systemPrompt: String, gitDiff: String): CompletionRequest
     fun createLookupRequest(prompt: String): CompletionRequest
 
+    /**
+     * Creates a chat request which continues the given partial response, used for resuming a
+     * response whose stream was interrupted.
+     *
+     * @return The request, or `null` if the provider can't continue a partial response.
+     */
+    fun createChatContinuationRequest(
+        callParameters: CallParameters,
+        partialResponse: String
+    ): CompletionRequest? = null
+
+    /**
+     * @return The part of the partial response which the continuation request is created for, a
+     * prefix of it. The continuation is appended to exactly this text.
+     */
+    fun getContinuationPrefix(partialResponse: String): String = partialResponse
+
     companion object {
         @JvmStatic
         fun getFactory(serviceType: ServiceType): CompletionRequestFactory {
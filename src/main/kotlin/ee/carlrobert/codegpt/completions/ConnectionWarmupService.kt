@@ -0,0 +1,102 @@
+package ee.carlrobert.codegpt.completions
+
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.thisLogger
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.settings.service.ServiceType.*
+import ee.carlrobert.codegpt.settings.service.azure.AzureSettings
+import ee.carlrobert.codegpt.settings.service.custom.CustomServiceSettings
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.codegpt.settings.service.ollama.OllamaSettings
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Opens a connection to the selected provider's host ahead of the first real request, so that
+ * DNS resolution and the TCP/TLS handshake are already done by the time the user sends a message
+ * or an inline completion is requested.
+ *
+ * The warm-up goes through the provider's pooled client, which means it honours the configured
+ * proxy and leaves the connection in the shared pool. A host is warmed up at most once per
+ * [WARMUP_INTERVAL_SECONDS] while there is user activity; once the user goes idle, the connection
+ * is closed by the pool after its keep-alive expires.
+ */
+@Service
+class ConnectionWarmupService {
+
+    companion object {
+        private val logger = thisLogger()
+
+        private const val WARMUP_INTERVAL_SECONDS = 60L
+        private const val WARMUP_TIMEOUT_SECONDS = 10L
+    }
+
+    private val lastWarmups = ConcurrentHashMap<HttpUrl, Long>()
+
+    @JvmOverloads
+    fun warmUpAsync(
+        serviceType: ServiceType = GeneralSettings.getSelectedService(),
+        codeCompletion: Boolean = false
+    ) {
+        if (ApplicationManager.getApplication().isUnitTestMode) {
+            return
+        }
+
+        val url = getHostUrl(serviceType, codeCompletion) ?: return
+        val now = System.currentTimeMillis()
+        val lastWarmup = lastWarmups[url]
+        if (lastWarmup != null
+            && now - lastWarmup < TimeUnit.SECONDS.toMillis(WARMUP_INTERVAL_SECONDS)
+        ) {
+            return
+        }
+        lastWarmups[url] = now
+
+        val httpClient = CompletionClientProvider.getDefaultClientBuilder(serviceType)
+            .callTimeout(WARMUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build()
+        httpClient.newCall(Request.Builder().url(url).head().build())
+            .enqueue(object : Callback {
+                override fun onResponse(call: Call, response: Response) {
+                    response.close()
+                }
+
+                override fun onFailure(call: Call, e: IOException) {
+                    lastWarmups.remove(url)
+                    logger.debug("Unable to warm up connection to $url", e)
+                }
+            })
+    }
+
+    private fun getHostUrl(serviceType: ServiceType, codeCompletion: Boolean): HttpUrl? {
+        val url = when (serviceType) {
+            CODEGPT -> "https://codegpt-api.carlrobert.ee"
+            OPENAI -> "https://api.openai.com"
+            ANTHROPIC -> "https://api.anthropic.com"
+            GOOGLE -> "https://generativelanguage.googleapis.com"
+            AZURE -> AzureSettings.getCurrentState().resourceName
+                ?.takeIf { it.isNotBlank() }
+                ?.let { "https://$it.openai.azure.com" }
+
+            CUSTOM_OPENAI -> service<CustomServiceSettings>().state.run {
+                if (codeCompletion) codeCompletionSettings.url else chatCompletionSettings.url
+            }
+
+            OLLAMA -> service<OllamaSettings>().state.host
+            LLAMA_CPP -> LlamaSettings.getCurrentState().run {
+                if (isRunLocalServer) null else baseHost
+            }
+        }
+        return url?.toHttpUrlOrNull()?.resolve("/")
+    }
+}
@@ -0,0 +1,21 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.completions.JsonCodec.ResponsePath
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import ee.carlrobert.llm.completion.CompletionEventSourceListener
+
+/**
+ * Listens to the streamed responses of a custom service, taking the content of every chunk from
+ * the configured [responsePath].
+ */
+class CustomServiceEventSourceListener(
+    private val responsePath: ResponsePath,
+    listener: CompletionEventListener<String>
+) : CompletionEventSourceListener<String>(listener) {
+
+    override fun getMessage(data: String): String = responsePath.extract(data) ?: ""
+
+    override fun getErrorDetails(data: String): ErrorDetails =
+        ErrorDetails(JsonCodec.ERROR_MESSAGE.extract(data) ?: data)
+}
@@ -0,0 +1,180 @@
+package ee.carlrobert.codegpt.completions
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectReader
+import com.fasterxml.jackson.databind.ObjectWriter
+import com.intellij.openapi.diagnostic.thisLogger
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Shared JSON codec for request bodies and streamed responses.
+ *
+ * Building an [ObjectMapper] is expensive, and so is looking up the deserializer of a type, so
+ * both the mapper and the readers of each type are built once and reused. Readers and writers
+ * are immutable and can be used from any thread.
+ */
+object JsonCodec {
+
+    private val logger = thisLogger()
+    private val objectMapper = ObjectMapper()
+        .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+    private val readers = ConcurrentHashMap<Class<*>, ObjectReader>()
+    private val responsePaths = ConcurrentHashMap<String, ResponsePath>()
+    private val invalidResponsePaths = ConcurrentHashMap.newKeySet<String>()
+
+    /**
+     * Compact writer, which leaves the target open once written.
+     */
+    @JvmStatic
+    val writer: ObjectWriter = objectMapper.writer()
+
+    @JvmStatic
+    @Throws(JsonProcessingException::class)
+    fun <T> read(json: String, type: Class<T>): T =
+        readers.computeIfAbsent(type) { objectMapper.readerFor(it) }.readValue(json)
+
+    /**
+     * @param path A JSONPath-like expression such as `$.choices[0].delta.content`, compiled on
+     * first use.
+     * @throws IllegalArgumentException if the path is malformed.
+     */
+    @JvmStatic
+    fun getResponsePath(path: String): ResponsePath =
+        responsePaths.computeIfAbsent(path.trim()) { ResponsePath.compile(it) }
+
+    /**
+     * The settings forms don't accept malformed paths, so a malformed path can only come from
+     * settings saved before they were validated. It's logged once and replaced by [defaultPath].
+     *
+     * @return The compiled path, or [defaultPath] if the path is blank or malformed.
+     */
+    @JvmStatic
+    fun getResponsePath(path: String?, defaultPath: ResponsePath): ResponsePath {
+        if (path.isNullOrBlank()) {
+            return defaultPath
+        }
+        return try {
+            getResponsePath(path)
+        } catch (e: IllegalArgumentException) {
+            if (invalidResponsePaths.add(path)) {
+                logger.warn("${e.message}, using $defaultPath instead")
+            }
+            defaultPath
+        }
+    }
+
+    /**
+     * Path to the content of an OpenAI-compatible streamed chat completion chunk.
+     */
+    @JvmField
+    val CHAT_DELTA_CONTENT: ResponsePath = getResponsePath("choices[0].delta.content")
+
+    /**
+     * Path to the content of an OpenAI-compatible streamed text completion chunk.
+     */
+    @JvmField
+    val TEXT_CONTENT: ResponsePath = getResponsePath("choices[0].text")
+
+    /**
+     * Path to the message of an OpenAI-compatible error response.
+     */
+    @JvmField
+    val ERROR_MESSAGE: ResponsePath = getResponsePath("error.message")
+
+    /**
+     * A compiled path into a JSON document, evaluated with a streaming parser which skips
+     * everything that isn't on the path, without building a tree.
+     */
+    class ResponsePath private constructor(
+        private val expression: String,
+        // Either field names or array indices
+        private val steps: List<Any>
+    ) {
+
+        companion object {
+            internal fun compile(expression: String): ResponsePath {
+                val path = expression.removePrefix("$").removePrefix(".")
+                require(path.isNotEmpty()) { "Empty response path" }
+
+                val steps = mutableListOf<Any>()
+                for (part in path.split('.')) {
+                    val name = part.substringBefore('[')
+                    require(part.isNotEmpty() && (name.isNotEmpty() || steps.isNotEmpty())) {
+                        "Invalid response path: $expression"
+                    }
+                    if (name.isNotEmpty()) {
+                        steps.add(name)
+                    }
+
+                    var indices = part.substring(name.length)
+                    while (indices.isNotEmpty()) {
+                        val end = indices.indexOf(']')
+                        val index = if (indices.startsWith('[') && end != -1) {
+                            indices.substring(1, end).toIntOrNull()
+                        } else {
+                            null
+                        }
+                        require(index != null && index >= 0) {
+                            "Invalid response path: $expression"
+                        }
+                        steps.add(index)
+                        indices = indices.substring(end + 1)
+                    }
+                }
+                return ResponsePath(expression, steps)
+            }
+        }
+
+        /**
+         * @return The value at the path, or `null` if the document has no value there.
+         */
+        fun extract(json: String): String? =
+            objectMapper.factory.createParser(json).use { parser ->
+                if (parser.nextToken() == null) null else find(parser, 0)
+            }
+
+        private fun find(parser: JsonParser, depth: Int): String? {
+            if (depth == steps.size) {
+                return if (parser.currentToken().isScalarValue
+                    && parser.currentToken() != JsonToken.VALUE_NULL
+                ) parser.text else null
+            }
+
+            when (val step = steps[depth]) {
+                is String -> {
+                    if (parser.currentToken() != JsonToken.START_OBJECT) {
+                        return null
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        val name = parser.currentName()
+                        parser.nextToken()
+                        if (name == step) {
+                            return find(parser, depth + 1)
+                        }
+                        parser.skipChildren()
+                    }
+                }
+
+                is Int -> {
+                    if (parser.currentToken() != JsonToken.START_ARRAY) {
+                        return null
+                    }
+                    var index = 0
+                    while (parser.nextToken().let { it != null && it != JsonToken.END_ARRAY }) {
+                        if (index++ == step) {
+                            return find(parser, depth + 1)
+                        }
+                        parser.skipChildren()
+                    }
+                }
+            }
+            return null
+        }
+
+        override fun toString(): String = expression
+    }
+}
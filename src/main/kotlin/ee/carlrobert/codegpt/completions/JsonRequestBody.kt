@@ -0,0 +1,54 @@
+package ee.carlrobert.codegpt.completions
+
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.Buffer
+import okio.BufferedSink
+import okio.GzipSink
+import okio.buffer
+
+/**
+ * Request body which serializes the given value with a compact generator straight into an okio
+ * buffer, instead of building the whole JSON document as a string first.
+ *
+ * When [gzip] is set, the body is compressed on the fly into the request sink and sent with
+ * chunked transfer encoding. The caller is responsible for sending the matching
+ * `Content-Encoding: gzip` header. Otherwise the body is serialized once, so that its length is
+ * known and it can be written again on retries.
+ */
+class JsonRequestBody(
+    private val value: Any,
+    private val contentType: MediaType? = null,
+    private val gzip: Boolean = false
+) : RequestBody() {
+
+    companion object {
+        /**
+         * Whether the given headers ask for a gzip-compressed request body.
+         */
+        @JvmStatic
+        fun isGzipRequested(headers: Map<String, String>): Boolean =
+            headers.any { (key, value) ->
+                key.equals("Content-Encoding", true) && value.trim().equals("gzip", true)
+            }
+    }
+
+    private val serialized: Buffer by lazy {
+        Buffer().also { JsonCodec.writer.writeValue(it.outputStream(), value) }
+    }
+
+    override fun contentType(): MediaType? = contentType
+
+    override fun contentLength(): Long = if (gzip) -1 else serialized.size
+
+    override fun writeTo(sink: BufferedSink) {
+        if (gzip) {
+            GzipSink(sink).buffer().use { gzipSink ->
+                JsonCodec.writer.writeValue(gzipSink.outputStream(), value)
+            }
+        } else {
+            serialized.copyTo(sink.buffer, 0, serialized.size)
+            sink.emitCompleteSegments()
+        }
+    }
+}
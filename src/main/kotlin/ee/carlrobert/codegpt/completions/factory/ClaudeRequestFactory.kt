@@ -54,6 +54,20 @@ class ClaudeRequestFactory : BaseRequestFactory() {
         }
     }
 
+    override fun createChatContinuationRequest(
+        callParameters: CallParameters,
+        partialResponse: String
+    ): ClaudeCompletionRequest {
+        return createChatRequest(callParameters).apply {
+            messages.add(ClaudeCompletionStandardMessage("assistant", partialResponse))
+        }
+    }
+
+    // The API rejects a final assistant message ending with whitespace
+    override fun getContinuationPrefix(partialResponse: String): String {
+        return partialResponse.trimEnd()
+    }
+
     override fun createBasicCompletionRequest(
         systemPrompt: String,
         userPrompt: String,
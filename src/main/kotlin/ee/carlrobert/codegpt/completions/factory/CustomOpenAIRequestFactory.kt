@@ -1,9 +1,9 @@
 package ee.carlrobert.codegpt.completions.factory
 
-import com.fasterxml.jackson.databind.ObjectMapper
 import com.intellij.openapi.components.service
 import ee.carlrobert.codegpt.completions.BaseRequestFactory
 import ee.carlrobert.codegpt.completions.CallParameters
+import ee.carlrobert.codegpt.completions.JsonRequestBody
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.settings.service.custom.CustomServiceChatCompletionSettingsState
@@ -12,8 +12,6 @@ import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionMe
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionStandardMessage
 import ee.carlrobert.llm.completion.CompletionRequest
 import okhttp3.Request
-import okhttp3.RequestBody.Companion.toRequestBody
-import java.nio.charset.StandardCharsets
 
 class CustomOpenAIRequest(val request: Request) : CompletionRequest
 
@@ -94,15 +92,11 @@ class CustomOpenAIRequestFactory : BaseRequestFactory() {
                 }
             }
 
-            return try {
-                val requestBody = ObjectMapper().writerWithDefaultPrettyPrinter()
-                    .writeValueAsString(body)
-                    .toByteArray(StandardCharsets.UTF_8)
-                    .toRequestBody()
-                requestBuilder.post(requestBody).build()
-            } catch (e: Exception) {
-                throw RuntimeException(e)
-            }
+            val requestBody = JsonRequestBody(
+                body,
+                gzip = JsonRequestBody.isGzipRequested(settings.headers)
+            )
+            return requestBuilder.post(requestBody).build()
         }
     }
 }
@@ -16,17 +16,16 @@ class LlamaRequestFactory : BaseRequestFactory() {
 
     override fun createChatRequest(callParameters: CallParameters): LlamaCompletionRequest {
         val promptTemplate = getPromptTemplate()
-        val systemPrompt =
-            if (callParameters.conversationType == ConversationType.FIX_COMPILE_ERRORS)
-                FIX_COMPILE_ERRORS_SYSTEM_PROMPT
-            else
-                getSystemPrompt()
-        val prompt = promptTemplate.buildPrompt(
-            systemPrompt,
-            callParameters.message.prompt,
-            callParameters.conversation.messages
-        )
+        val prompt = buildChatPrompt(promptTemplate, callParameters)
+        return buildLlamaRequest(prompt, promptTemplate.stopTokens, true)
+    }
 
+    override fun createChatContinuationRequest(
+        callParameters: CallParameters,
+        partialResponse: String
+    ): LlamaCompletionRequest {
+        val promptTemplate = getPromptTemplate()
+        val prompt = buildChatPrompt(promptTemplate, callParameters) + partialResponse
         return buildLlamaRequest(prompt, promptTemplate.stopTokens, true)
     }
 
@@ -42,6 +41,22 @@ class LlamaRequestFactory : BaseRequestFactory() {
         return buildLlamaRequest(finalPrompt, emptyList(), stream)
     }
 
+    private fun buildChatPrompt(
+        promptTemplate: PromptTemplate,
+        callParameters: CallParameters
+    ): String {
+        val systemPrompt =
+            if (callParameters.conversationType == ConversationType.FIX_COMPILE_ERRORS)
+                FIX_COMPILE_ERRORS_SYSTEM_PROMPT
+            else
+                getSystemPrompt()
+        return promptTemplate.buildPrompt(
+            systemPrompt,
+            callParameters.message.prompt,
+            callParameters.conversation.messages
+        )
+    }
+
     private fun getPromptTemplate(): PromptTemplate {
         val settings = service<LlamaSettings>().state
         return if (settings.isRunLocalServer) {
@@ -19,12 +19,26 @@ import java.util.*
 class OllamaRequestFactory : BaseRequestFactory() {
 
     override fun createChatRequest(callParameters: CallParameters): OllamaChatCompletionRequest {
-        val configuration = service<ConfigurationSettings>().state
-        val settings = service<OllamaSettings>().state
-        return OllamaChatCompletionRequest.Builder(
-            settings.model,
+        return buildChatRequest(buildOllamaMessages(callParameters))
+    }
+
+    override fun createChatContinuationRequest(
+        callParameters: CallParameters,
+        partialResponse: String
+    ): OllamaChatCompletionRequest {
+        // A trailing assistant message is continued by the model instead of answered
+        return buildChatRequest(
             buildOllamaMessages(callParameters)
+                    + OllamaChatCompletionMessage("assistant", partialResponse, null)
         )
+    }
+
+    private fun buildChatRequest(
+        messages: List<OllamaChatCompletionMessage>
+    ): OllamaChatCompletionRequest {
+        val configuration = service<ConfigurationSettings>().state
+        val settings = service<OllamaSettings>().state
+        return OllamaChatCompletionRequest.Builder(settings.model, messages)
             .setStream(true)
             .setOptions(
                 OllamaParameters.Builder()
@@ -72,20 +72,15 @@ class OpenAIRequestFactory : CompletionRequestFactory {
             model: String?,
             callParameters: CallParameters
         ): List<OpenAIChatCompletionMessage> {
-            val messages = buildOpenAIMessages(callParameters)
-
             if (model == null) {
-                return messages
+                return buildOpenAIMessages(callParameters, null)
             }
 
-            val encodingManager = EncodingManager.getInstance()
-            val totalUsage = messages.parallelStream()
-                .mapToInt { message: OpenAIChatCompletionMessage? ->
-                    encodingManager.countMessageTokens(
-                        message
-                    )
-                }
-                .sum() + getState().maxTokens
+            // Token counts of the conversation's messages are stored with them, so only new or
+            // changed messages are encoded
+            val tokenCounts = mutableListOf<Int>()
+            val messages = buildOpenAIMessages(callParameters, tokenCounts)
+            val totalUsage = tokenCounts.sum() + getState().maxTokens
             val modelMaxTokens: Int
             try {
                 modelMaxTokens = OpenAIChatCompletionModel.findByCode(model).maxTokens
@@ -98,36 +93,44 @@ class OpenAIRequestFactory : CompletionRequestFactory {
             }
             return tryReducingMessagesOrThrow(
                 messages,
+                tokenCounts,
                 callParameters.conversation.isDiscardTokenLimit,
                 totalUsage,
                 modelMaxTokens
             )
         }
 
+        /**
+         * @param tokenCounts Receives the token count of each message, in order, if given.
+         */
         private fun buildOpenAIMessages(
-            callParameters: CallParameters
+            callParameters: CallParameters,
+            tokenCounts: MutableList<Int>?
         ): MutableList<OpenAIChatCompletionMessage> {
             val message = callParameters.message
             val messages = mutableListOf<OpenAIChatCompletionMessage>()
+            val encodingManager = EncodingManager.getInstance()
+            fun addMessage(chatMessage: OpenAIChatCompletionMessage, countTokens: () -> Int) {
+                messages.add(chatMessage)
+                tokenCounts?.add(countTokens())
+            }
+
             if (callParameters.conversationType == ConversationType.DEFAULT) {
                 val sessionPersonaDetails = callParameters.message.personaDetails
-                if (callParameters.message.personaDetails == null) {
-                    messages.add(
-                        OpenAIChatCompletionStandardMessage("system", getSystemPrompt())
-                    )
+                val systemMessage = if (callParameters.message.personaDetails == null) {
+                    OpenAIChatCompletionStandardMessage("system", getSystemPrompt())
                 } else {
-                    messages.add(
-                        OpenAIChatCompletionStandardMessage(
-                            "system",
-                            sessionPersonaDetails.instructions
-                        )
+                    OpenAIChatCompletionStandardMessage(
+                        "system",
+                        sessionPersonaDetails.instructions
                     )
                 }
+                addMessage(systemMessage) { encodingManager.countMessageTokens(systemMessage) }
             }
             if (callParameters.conversationType == ConversationType.FIX_COMPILE_ERRORS) {
-                messages.add(
+                val systemMessage =
                     OpenAIChatCompletionStandardMessage("system", FIX_COMPILE_ERRORS_SYSTEM_PROMPT)
-                )
+                addMessage(systemMessage) { encodingManager.countMessageTokens(systemMessage) }
             }
 
             for (prevMessage in callParameters.conversation.messages) {
@@ -140,7 +143,7 @@ class OpenAIRequestFactory : CompletionRequestFactory {
                         val imageFilePath = Path.of(prevMessageImageFilePath)
                         val imageData = Files.readAllBytes(imageFilePath)
                         val imageMediaType = getImageMediaType(imageFilePath.fileName.toString())
-                        messages.add(
+                        addMessage(
                             OpenAIChatCompletionDetailedMessage(
                                 "user",
                                 listOf(
@@ -153,20 +156,22 @@ class OpenAIRequestFactory : CompletionRequestFactory {
                                     OpenAIMessageTextContent(prevMessage.prompt)
                                 )
                             )
-                        )
+                        ) { encodingManager.countPromptMessageTokens("user", prevMessage) }
                     } catch (e: IOException) {
                         throw RuntimeException(e)
                     }
                 } else {
-                    messages.add(OpenAIChatCompletionStandardMessage("user", prevMessage.prompt))
+                    addMessage(OpenAIChatCompletionStandardMessage("user", prevMessage.prompt)) {
+                        encodingManager.countPromptMessageTokens("user", prevMessage)
+                    }
                 }
-                messages.add(
+                addMessage(
                     OpenAIChatCompletionStandardMessage("assistant", prevMessage.response)
-                )
+                ) { encodingManager.countResponseMessageTokens("assistant", prevMessage) }
             }
 
             if (callParameters.imageMediaType != null && callParameters.imageData.isNotEmpty()) {
-                messages.add(
+                addMessage(
                     OpenAIChatCompletionDetailedMessage(
                         "user",
                         listOf(
@@ -179,15 +184,18 @@ class OpenAIRequestFactory : CompletionRequestFactory {
                             OpenAIMessageTextContent(message.prompt)
                         )
                     )
-                )
+                ) { encodingManager.countPromptMessageTokens("user", message) }
             } else {
-                messages.add(OpenAIChatCompletionStandardMessage("user", message.prompt))
+                addMessage(OpenAIChatCompletionStandardMessage("user", message.prompt)) {
+                    encodingManager.countPromptMessageTokens("user", message)
+                }
             }
             return messages
         }
 
         private fun tryReducingMessagesOrThrow(
             messages: MutableList<OpenAIChatCompletionMessage>,
+            tokenCounts: List<Int>,
             discardTokenLimit: Boolean,
             totalInputUsage: Int,
             modelMaxTokens: Int
@@ -199,7 +207,6 @@ class OpenAIRequestFactory : CompletionRequestFactory {
                     throw TotalUsageExceededException()
                 }
             }
-            val encodingManager = EncodingManager.getInstance()
             // skip the system prompt
             for (i in 1 until result.size - 1) {
                 if (totalUsage <= modelMaxTokens) {
@@ -208,7 +215,7 @@ class OpenAIRequestFactory : CompletionRequestFactory {
 
                 val message = result[i]
                 if (message is OpenAIChatCompletionStandardMessage) {
-                    totalUsage -= encodingManager.countMessageTokens(message)
+                    totalUsage -= tokenCounts[i]
                     result[i] = null
                 }
             }
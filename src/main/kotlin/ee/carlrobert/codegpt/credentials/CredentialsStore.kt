@@ -3,7 +3,9 @@ package ee.carlrobert.codegpt.credentials
 import com.intellij.credentialStore.CredentialAttributes
 import com.intellij.credentialStore.generateServiceName
 import com.intellij.ide.passwordSafe.PasswordSafe
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.util.concurrency.annotations.RequiresBackgroundThread
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 
 object CredentialsStore {
 
@@ -28,6 +30,10 @@ object CredentialsStore {
             val credentialAttributes =
                 CredentialAttributes(generateServiceName("CodeGPT", key.name))
             PasswordSafe.instance.setPassword(credentialAttributes, password)
+
+            ApplicationManager.getApplication().messageBus
+                .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+                .providerSettingsChanged()
         }
     }
 
@@ -35,6 +35,10 @@ class ConfigurationSettingsState : BaseState() {
     var autocompletionPostProcessingEnabled by property(false)
     var autocompletionContextAwareEnabled by property(false)
     var autocompletionGitContextEnabled by property(true)
+    var autocompletionHedgingEnabled by property(false)
+    var autocompletionHedgingPercentile by property(90) { max(50, min(99, it)) }
+    var responseCacheEnabled by property(false)
+    var chatRenderIntervalMillis by property(33) { max(16, min(100, it)) }
     var tableData by map<String, String>()
 
     init {
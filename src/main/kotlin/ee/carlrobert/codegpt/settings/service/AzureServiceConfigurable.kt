@@ -1,5 +1,6 @@
 package ee.carlrobert.codegpt.settings.service
 
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.options.Configurable
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.AZURE_ACTIVE_DIRECTORY_TOKEN
@@ -7,6 +8,7 @@ import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.AZURE_OP
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.azure.AzureSettings
 import ee.carlrobert.codegpt.settings.service.azure.AzureSettingsForm
 import javax.swing.JComponent
@@ -35,6 +37,9 @@ class AzureServiceConfigurable : Configurable {
         service<AzureSettings>().loadState(component.currentState)
         setCredential(AZURE_OPENAI_API_KEY, component.getApiKey())
         setCredential(AZURE_ACTIVE_DIRECTORY_TOKEN, component.getActiveDirectoryToken())
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
@@ -1,5 +1,6 @@
 package ee.carlrobert.codegpt.settings.service
 
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.thisLogger
 import com.intellij.openapi.options.Configurable
@@ -7,6 +8,7 @@ import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.LLAMA_AP
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
 import ee.carlrobert.codegpt.settings.service.llama.form.LlamaSettingsForm
 import javax.swing.JComponent
@@ -33,6 +35,9 @@ class LlamaServiceConfigurable : Configurable {
         service<GeneralSettings>().state.selectedService = ServiceType.LLAMA_CPP
         setCredential(LLAMA_API_KEY, component.llamaServerPreferencesForm.getApiKey())
         service<LlamaSettings>().loadState(component.currentState)
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
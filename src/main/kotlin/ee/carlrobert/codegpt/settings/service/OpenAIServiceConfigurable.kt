@@ -1,11 +1,13 @@
 package ee.carlrobert.codegpt.settings.service
 
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.options.Configurable
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.OPENAI_API_KEY
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings
 import ee.carlrobert.codegpt.settings.service.openai.OpenAISettingsForm
 import javax.swing.JComponent
@@ -32,6 +34,9 @@ class OpenAIServiceConfigurable : Configurable {
         service<GeneralSettings>().state.selectedService = ServiceType.OPENAI
         setCredential(OPENAI_API_KEY, component.getApiKey())
         service<OpenAISettings>().loadState(component.getCurrentState())
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
@@ -0,0 +1,14 @@
+package ee.carlrobert.codegpt.settings.service
+
+import com.intellij.util.messages.Topic
+
+interface ProviderSettingsChangeNotifier {
+
+    fun providerSettingsChanged()
+
+    companion object {
+        @JvmStatic
+        val PROVIDER_SETTINGS_CHANGE_TOPIC =
+            Topic.create("providerSettingsChange", ProviderSettingsChangeNotifier::class.java)
+    }
+}
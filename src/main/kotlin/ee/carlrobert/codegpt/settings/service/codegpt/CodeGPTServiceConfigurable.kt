@@ -1,11 +1,13 @@
 package ee.carlrobert.codegpt.settings.service.codegpt
 
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.options.Configurable
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.CODEGPT_API_KEY
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.util.ApplicationUtil
 import javax.swing.JComponent
@@ -36,6 +38,9 @@ class CodeGPTServiceConfigurable : Configurable {
             ?.service<CodeGPTService>()
             ?.syncUserDetailsAsync(component.getApiKey())
         component.applyChanges()
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
@@ -1,11 +1,15 @@
 package ee.carlrobert.codegpt.settings.service.custom
 
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.options.Configurable
+import com.intellij.openapi.util.Disposer
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.CUSTOM_SERVICE_API_KEY
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.settings.service.custom.form.CustomServiceForm
 import javax.swing.JComponent
@@ -13,13 +17,16 @@ import javax.swing.JComponent
 class CustomServiceConfigurable : Configurable {
 
     private lateinit var component: CustomServiceForm
+    private var parentDisposable: Disposable? = null
 
     override fun getDisplayName(): String {
         return "CodeGPT: Custom Service"
     }
 
     override fun createComponent(): JComponent {
-        component = CustomServiceForm()
+        val disposable = Disposer.newDisposable()
+        parentDisposable = disposable
+        component = CustomServiceForm(disposable)
         return component.getForm()
     }
 
@@ -29,12 +36,21 @@ class CustomServiceConfigurable : Configurable {
     }
 
     override fun apply() {
+        component.validate()
         setCredential(CUSTOM_SERVICE_API_KEY, component.getApiKey())
         service<GeneralSettings>().state.selectedService = ServiceType.CUSTOM_OPENAI
         component.applyChanges()
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
         component.resetForm()
     }
+
+    override fun disposeUIResources() {
+        parentDisposable?.let { Disposer.dispose(it) }
+        parentDisposable = null
+    }
 }
\ No newline at end of file
@@ -50,8 +50,12 @@ class CustomServiceState : BaseState() {
     var body by map<String, Any>()
 }
 
+const val DEFAULT_CHAT_RESPONSE_PATH = "choices[0].delta.content"
+const val DEFAULT_CODE_RESPONSE_PATH = "choices[0].text"
+
 class CustomServiceChatCompletionSettingsState : BaseState() {
     var url by string(CustomServiceChatCompletionTemplate.OPENAI.url)
+    var responsePath by string(DEFAULT_CHAT_RESPONSE_PATH)
     var headers by map<String, String>()
 
     @get:OptionTag(converter = MapConverter::class)
@@ -67,6 +71,7 @@ class CustomServiceCodeCompletionSettingsState : BaseState() {
     var codeCompletionsEnabled by property(true)
     var infillTemplate by enum(InfillPromptTemplate.OPENAI)
     var url by string(CustomServiceCodeCompletionTemplate.OPENAI.url)
+    var responsePath by string(DEFAULT_CODE_RESPONSE_PATH)
     var headers by map<String, String>()
 
     @get:OptionTag(converter = MapConverter::class)
@@ -1,15 +1,19 @@
 package ee.carlrobert.codegpt.settings.service.custom.form
 
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.runInEdt
 import com.intellij.openapi.ui.MessageType
+import com.intellij.ui.components.JBTextField
 import com.intellij.util.ui.FormBuilder
 import ee.carlrobert.codegpt.CodeGPTBundle
 import ee.carlrobert.codegpt.completions.CompletionRequestService
 import ee.carlrobert.codegpt.completions.factory.CustomOpenAIRequestFactory
 import ee.carlrobert.codegpt.settings.service.custom.CustomServiceChatCompletionSettingsState
 import ee.carlrobert.codegpt.settings.service.custom.CustomServiceFormTabbedPane
+import ee.carlrobert.codegpt.settings.service.custom.DEFAULT_CHAT_RESPONSE_PATH
 import ee.carlrobert.codegpt.ui.OverlayUtil
 import ee.carlrobert.codegpt.ui.URLTextField
+import ee.carlrobert.codegpt.ui.UIUtil
 import ee.carlrobert.llm.client.openai.completion.ErrorDetails
 import ee.carlrobert.llm.completion.CompletionEventListener
 import okhttp3.sse.EventSource
@@ -19,10 +23,12 @@ import javax.swing.JPanel
 
 class CustomServiceChatCompletionForm(
     state: CustomServiceChatCompletionSettingsState,
+    parentDisposable: Disposable,
     val getApiKey: () -> String?
 ) {
 
     private val urlField = URLTextField(state.url, 30)
+    private val responsePathField = JBTextField(state.responsePath, 30)
     private val tabbedPane = CustomServiceFormTabbedPane(state.headers, state.body)
     private val testConnectionButton = JButton(
         CodeGPTBundle.get("settingsConfigurable.service.custom.openai.testConnection.label")
@@ -30,6 +36,7 @@ class CustomServiceChatCompletionForm(
 
     init {
         testConnectionButton.addActionListener { testConnection() }
+        installResponsePathValidator(parentDisposable, responsePathField)
     }
 
     var url: String
@@ -38,6 +45,12 @@ class CustomServiceChatCompletionForm(
             urlField.text = url
         }
 
+    var responsePath: String
+        get() = responsePathField.text.ifBlank { DEFAULT_CHAT_RESPONSE_PATH }
+        set(path) {
+            responsePathField.text = path
+        }
+
     var headers: MutableMap<String, String>
         get() = tabbedPane.headers
         set(value) {
@@ -60,17 +73,35 @@ class CustomServiceChatCompletionForm(
                     add(testConnectionButton, BorderLayout.EAST)
                 }
             )
+            .addLabeledComponent(
+                CodeGPTBundle.get("settingsConfigurable.service.custom.openai.responsePath.label"),
+                responsePathField
+            )
+            .addComponentToRightColumn(
+                UIUtil.createComment("settingsConfigurable.service.custom.openai.responsePath.comment")
+            )
             .addComponent(tabbedPane)
             .addComponentFillVertically(JPanel(), 0)
             .panel
 
     fun resetForm(settings: CustomServiceChatCompletionSettingsState) {
         urlField.text = settings.url
+        responsePathField.text = settings.responsePath
         tabbedPane.headers = settings.headers
         tabbedPane.body = settings.body
     }
 
+    /**
+     * @return The reason the form can't be applied, or `null` if it's valid.
+     */
+    fun getValidationError(): String? = getResponsePathError(responsePathField.text)
+
     private fun testConnection() {
+        val validationError = getValidationError()
+        if (validationError != null) {
+            OverlayUtil.showBalloon(validationError, MessageType.ERROR, testConnectionButton)
+            return
+        }
         CompletionRequestService.getInstance().getCustomOpenAIChatCompletionAsync(
             CustomOpenAIRequestFactory.buildCustomOpenAICompletionRequest(
                 "Test",
@@ -79,6 +110,7 @@ class CustomServiceChatCompletionForm(
                 tabbedPane.body,
                 getApiKey.invoke()
             ),
+            responsePath,
             TestConnectionEventListener()
         )
     }
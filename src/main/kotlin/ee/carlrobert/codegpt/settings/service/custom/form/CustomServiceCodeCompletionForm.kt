@@ -2,6 +2,7 @@ package ee.carlrobert.codegpt.settings.service.custom.form
 
 import com.intellij.icons.AllIcons.General
 import com.intellij.ide.HelpTooltip
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.runInEdt
 import com.intellij.openapi.ui.ComboBox
 import com.intellij.openapi.ui.MessageType
@@ -9,6 +10,7 @@ import com.intellij.openapi.ui.panel.ComponentPanelBuilder
 import com.intellij.ui.EnumComboBoxModel
 import com.intellij.ui.components.JBCheckBox
 import com.intellij.ui.components.JBLabel
+import com.intellij.ui.components.JBTextField
 import com.intellij.util.ui.FormBuilder
 import ee.carlrobert.codegpt.CodeGPTBundle
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory
@@ -18,8 +20,10 @@ import ee.carlrobert.codegpt.completions.CompletionRequestService
 import ee.carlrobert.codegpt.settings.configuration.Placeholder
 import ee.carlrobert.codegpt.settings.service.custom.CustomServiceCodeCompletionSettingsState
 import ee.carlrobert.codegpt.settings.service.custom.CustomServiceFormTabbedPane
+import ee.carlrobert.codegpt.settings.service.custom.DEFAULT_CODE_RESPONSE_PATH
 import ee.carlrobert.codegpt.ui.OverlayUtil
 import ee.carlrobert.codegpt.ui.URLTextField
+import ee.carlrobert.codegpt.ui.UIUtil
 import ee.carlrobert.llm.client.openai.completion.ErrorDetails
 import ee.carlrobert.llm.completion.CompletionEventListener
 import okhttp3.sse.EventSource
@@ -32,6 +36,7 @@ import javax.swing.JPanel
 
 class CustomServiceCodeCompletionForm(
     state: CustomServiceCodeCompletionSettingsState,
+    parentDisposable: Disposable,
     val getApiKey: () -> String?
 ) {
 
@@ -49,6 +54,7 @@ class CustomServiceCodeCompletionForm(
         }
     private val promptTemplateHelpText = JBLabel(General.ContextHelp)
     private val urlField = URLTextField(state.url, 30)
+    private val responsePathField = JBTextField(state.responsePath, 30)
     private val tabbedPane = CustomServiceFormTabbedPane(state.headers, state.body)
     private val testConnectionButton = JButton(
         CodeGPTBundle.get("settingsConfigurable.service.custom.openai.testConnection.label")
@@ -56,6 +62,7 @@ class CustomServiceCodeCompletionForm(
 
     init {
         testConnectionButton.addActionListener { testConnection() }
+        installResponsePathValidator(parentDisposable, responsePathField)
         updatePromptTemplateHelpTooltip(state.infillTemplate)
     }
 
@@ -77,6 +84,12 @@ class CustomServiceCodeCompletionForm(
             urlField.text = url
         }
 
+    var responsePath: String
+        get() = responsePathField.text.ifBlank { DEFAULT_CODE_RESPONSE_PATH }
+        set(path) {
+            responsePathField.text = path
+        }
+
     var headers: MutableMap<String, String>
         get() = tabbedPane.headers
         set(value) {
@@ -108,6 +121,13 @@ class CustomServiceCodeCompletionForm(
                     add(testConnectionButton, BorderLayout.EAST)
                 }
             )
+            .addLabeledComponent(
+                CodeGPTBundle.get("settingsConfigurable.service.custom.openai.responsePath.label"),
+                responsePathField
+            )
+            .addComponentToRightColumn(
+                UIUtil.createComment("settingsConfigurable.service.custom.openai.responsePath.comment")
+            )
             .addComponent(tabbedPane)
             .addComponent(
                 ComponentPanelBuilder.createCommentComponent(
@@ -142,12 +162,23 @@ class CustomServiceCodeCompletionForm(
         featureEnabledCheckBox.isSelected = settings.codeCompletionsEnabled
         promptTemplateComboBox.selectedItem = settings.infillTemplate
         urlField.text = settings.url
+        responsePathField.text = settings.responsePath
         tabbedPane.headers = settings.headers
         tabbedPane.body = settings.body
         updatePromptTemplateHelpTooltip(settings.infillTemplate)
     }
 
+    /**
+     * @return The reason the form can't be applied, or `null` if it's valid.
+     */
+    fun getValidationError(): String? = getResponsePathError(responsePathField.text)
+
     private fun testConnection() {
+        val validationError = getValidationError()
+        if (validationError != null) {
+            OverlayUtil.showBalloon(validationError, MessageType.ERROR, testConnectionButton)
+            return
+        }
         CompletionRequestService.getInstance().getCustomOpenAICompletionAsync(
             CodeCompletionRequestFactory.buildCustomRequest(
                 InfillRequest.Builder("Hello", "!").build(),
@@ -157,6 +188,7 @@ class CustomServiceCodeCompletionForm(
                 promptTemplateComboBox.selectedItem as InfillPromptTemplate,
                 getApiKey.invoke()
             ),
+            responsePath,
             TestConnectionEventListener()
         )
     }
@@ -2,7 +2,9 @@ package ee.carlrobert.codegpt.settings.service.custom.form
 
 import com.intellij.icons.AllIcons.General
 import com.intellij.ide.HelpTooltip
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.components.service
+import com.intellij.openapi.options.ConfigurationException
 import com.intellij.openapi.ui.ComboBox
 import com.intellij.ui.EnumComboBoxModel
 import com.intellij.ui.components.JBLabel
@@ -25,7 +27,7 @@ import javax.swing.Box
 import javax.swing.JPanel
 import javax.swing.JTabbedPane
 
-class CustomServiceForm {
+class CustomServiceForm(parentDisposable: Disposable) {
 
     private val apiKeyField = JBPasswordField().apply {
         columns = 30
@@ -42,9 +44,17 @@ class CustomServiceForm {
             getCredential(CredentialKey.CUSTOM_SERVICE_API_KEY)
         }
         chatCompletionsForm =
-            CustomServiceChatCompletionForm(state.chatCompletionSettings, this::getApiKey)
+            CustomServiceChatCompletionForm(
+                state.chatCompletionSettings,
+                parentDisposable,
+                this::getApiKey
+            )
         codeCompletionsForm =
-            CustomServiceCodeCompletionForm(state.codeCompletionSettings, this::getApiKey)
+            CustomServiceCodeCompletionForm(
+                state.codeCompletionSettings,
+                parentDisposable,
+                this::getApiKey
+            )
         tabbedPane = JTabbedPane().apply {
             add(CodeGPTBundle.get("shared.chatCompletions"), chatCompletionsForm.form)
             add(CodeGPTBundle.get("shared.codeCompletions"), codeCompletionsForm.form)
@@ -99,20 +109,35 @@ class CustomServiceForm {
     fun isModified() = service<CustomServiceSettings>().state.run {
         templateComboBox.selectedItem != template
                 || chatCompletionsForm.url != chatCompletionSettings.url
+                || chatCompletionsForm.responsePath != chatCompletionSettings.responsePath
                 || chatCompletionsForm.headers != chatCompletionSettings.headers
                 || chatCompletionsForm.body != chatCompletionSettings.body
                 || codeCompletionsForm.codeCompletionsEnabled != codeCompletionSettings.codeCompletionsEnabled
                 || codeCompletionsForm.infillTemplate != codeCompletionSettings.infillTemplate
                 || codeCompletionsForm.url != codeCompletionSettings.url
+                || codeCompletionsForm.responsePath != codeCompletionSettings.responsePath
                 || codeCompletionsForm.headers != codeCompletionSettings.headers
                 || codeCompletionsForm.body != codeCompletionSettings.body
     }
 
+    @Throws(ConfigurationException::class)
+    fun validate() {
+        chatCompletionsForm.getValidationError()?.let {
+            tabbedPane.selectedIndex = 0
+            throw ConfigurationException(it)
+        }
+        codeCompletionsForm.getValidationError()?.let {
+            tabbedPane.selectedIndex = 1
+            throw ConfigurationException(it)
+        }
+    }
+
     fun applyChanges() {
         service<CustomServiceSettings>().state.run {
             template = templateComboBox.item
             chatCompletionSettings = CustomServiceChatCompletionSettingsState().apply {
                 url = chatCompletionsForm.url
+                responsePath = chatCompletionsForm.responsePath
                 headers = chatCompletionsForm.headers
                 body = chatCompletionsForm.body
             }
@@ -120,6 +145,7 @@ class CustomServiceForm {
                 codeCompletionsEnabled = codeCompletionsForm.codeCompletionsEnabled
                 infillTemplate = codeCompletionsForm.infillTemplate
                 url = codeCompletionsForm.url
+                responsePath = codeCompletionsForm.responsePath
                 headers = codeCompletionsForm.headers
                 body = codeCompletionsForm.body
             }
@@ -0,0 +1,39 @@
+package ee.carlrobert.codegpt.settings.service.custom.form
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.ui.ComponentValidator
+import com.intellij.openapi.ui.ValidationInfo
+import com.intellij.ui.DocumentAdapter
+import com.intellij.ui.components.JBTextField
+import ee.carlrobert.codegpt.CodeGPTBundle
+import ee.carlrobert.codegpt.completions.JsonCodec
+import javax.swing.event.DocumentEvent
+
+/**
+ * @return The reason the response path can't be used, or `null` if it's valid. A blank path is
+ * valid, it falls back to the default path.
+ */
+internal fun getResponsePathError(path: String): String? {
+    if (path.isBlank()) {
+        return null
+    }
+    return try {
+        JsonCodec.getResponsePath(path)
+        null
+    } catch (e: IllegalArgumentException) {
+        CodeGPTBundle.get("validation.error.invalidResponsePath")
+    }
+}
+
+internal fun installResponsePathValidator(parentDisposable: Disposable, field: JBTextField) {
+    val validator = ComponentValidator(parentDisposable)
+        .withValidator { getResponsePathError(field.text)?.let { ValidationInfo(it, field) } }
+        .andStartOnFocusLost()
+        .installOn(field)
+    validator.enableValidation()
+    field.document.addDocumentListener(object : DocumentAdapter() {
+        override fun textChanged(e: DocumentEvent) {
+            validator.revalidate()
+        }
+    })
+}
@@ -1,11 +1,13 @@
 package ee.carlrobert.codegpt.settings.service.google;
 
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.options.Configurable
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.GOOGLE_API_KEY
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import javax.swing.JComponent
 
@@ -30,6 +32,9 @@ class GoogleSettingsConfigurable : Configurable {
         setCredential(GOOGLE_API_KEY, component.getApiKey())
         service<GeneralSettings>().state.selectedService = ServiceType.GOOGLE
         component.applyChanges()
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
@@ -1,9 +1,11 @@
 package ee.carlrobert.codegpt.settings.service.ollama
 
 
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.service
 import com.intellij.openapi.options.Configurable
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ProviderSettingsChangeNotifier.Companion.PROVIDER_SETTINGS_CHANGE_TOPIC
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import javax.swing.JComponent
 
@@ -27,6 +29,9 @@ class OllamaSettingsConfigurable : Configurable {
     override fun apply() {
         component.applyChanges()
         service<GeneralSettings>().state.selectedService = ServiceType.OLLAMA
+        ApplicationManager.getApplication().messageBus
+            .syncPublisher(PROVIDER_SETTINGS_CHANGE_TOPIC)
+            .providerSettingsChanged()
     }
 
     override fun reset() {
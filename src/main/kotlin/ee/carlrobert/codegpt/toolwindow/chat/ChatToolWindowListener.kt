@@ -1,14 +1,17 @@
 package ee.carlrobert.codegpt.toolwindow.chat
 
+import com.intellij.openapi.components.service
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.wm.ToolWindow
 import com.intellij.openapi.wm.ex.ToolWindowManagerListener
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService
 
 class ChatToolWindowListener : ToolWindowManagerListener {
 
     override fun toolWindowShown(toolWindow: ToolWindow) {
-        if ("CodeGPT" == toolWindow.id) {
+        if ("WeCode" == toolWindow.id) {
             requestFocusForTextArea(toolWindow.project)
+            service<ConnectionWarmupService>().warmUpAsync()
         }
     }
 
@@ -4,7 +4,6 @@ import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.PathManager
 import com.intellij.openapi.application.runUndoTransparentWriteAction
-import com.intellij.openapi.command.WriteCommandAction
 import com.intellij.openapi.components.service
 import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.Editor
@@ -46,25 +45,38 @@ object EditorUtil {
         )
     }
 
+    /**
+     * Updates the document to the given content. Streamed content usually extends the current
+     * one, in which case only the new part is appended, so that the editor only has to re-lex
+     * and lay out the end of the document.
+     */
     @JvmStatic
     fun updateEditorDocument(editor: Editor, content: String) {
         val document = editor.document
         val application = ApplicationManager.getApplication()
         val updateDocumentRunnable = Runnable {
-            application.runWriteAction {
-                WriteCommandAction.runWriteCommandAction(editor.project) {
-                    document.replaceString(
-                        0,
-                        document.textLength,
-                        StringUtil.convertLineSeparators(content)
+            val newText = StringUtil.convertLineSeparators(content)
+            val currentText = document.immutableCharSequence
+            if (newText.length == currentText.length && newText.contentEquals(currentText)) {
+                return@Runnable
+            }
+            runUndoTransparentWriteAction {
+                if (newText.length > currentText.length && newText.startsWith(currentText)) {
+                    document.insertString(
+                        currentText.length,
+                        newText.subSequence(currentText.length, newText.length)
                     )
-                    editor.component.repaint()
-                    editor.component.revalidate()
+                } else {
+                    document.replaceString(0, currentText.length, newText)
                 }
             }
+            editor.component.revalidate()
+            editor.component.repaint()
         }
 
-        if (application.isUnitTestMode) {
+        if (application.isDispatchThread) {
+            updateDocumentRunnable.run()
+        } else if (application.isUnitTestMode) {
             application.invokeAndWait(updateDocumentRunnable)
         } else {
             application.invokeLater(updateDocumentRunnable)
@@ -7,6 +7,14 @@ import ee.carlrobert.codegpt.toolwindow.chat.ResponseNodeRenderer
 import java.util.regex.Pattern
 
 object MarkdownUtil {
+
+  // Both are immutable and thread-safe once built
+  private val options = MutableDataSet().set(HtmlRenderer.SOFT_BREAK, "<br/>")
+  private val parser = Parser.builder(options).build()
+  private val htmlRenderer = HtmlRenderer.builder(options)
+    .nodeRendererFactory(ResponseNodeRenderer.Factory())
+    .build()
+
   /**
    * Splits a given string into a list of strings where each element is either a code block
    * surrounded by triple backticks or a non-code block text.
@@ -32,12 +40,6 @@ object MarkdownUtil {
 
   @JvmStatic
   fun convertMdToHtml(message: String): String {
-    val options = MutableDataSet()
-    options.set(HtmlRenderer.SOFT_BREAK, "<br/>")
-    val document = Parser.builder(options).build().parse(message)
-    return HtmlRenderer.builder(options)
-      .nodeRendererFactory(ResponseNodeRenderer.Factory())
-      .build()
-      .render(document)
+    return htmlRenderer.render(parser.parse(message))
   }
 }
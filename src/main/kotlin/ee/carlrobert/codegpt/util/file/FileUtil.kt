@@ -3,6 +3,7 @@ package ee.carlrobert.codegpt.util.file
 import com.fasterxml.jackson.core.JsonProcessingException
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.intellij.openapi.application.runReadAction
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.editor.Editor
@@ -11,6 +12,7 @@ import com.intellij.openapi.progress.ProgressIndicator
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.roots.ProjectFileIndex
 import com.intellij.openapi.util.io.FileUtil.createDirectory
+import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.openapi.vfs.VirtualFileFilter
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings.getLlamaModelsPath
@@ -150,6 +152,26 @@ object FileUtil {
         }
     }
 
+    /**
+     * Reads the current content of the file, including changes that haven't been saved yet.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun readContent(file: VirtualFile): String {
+        val document = FileDocumentManager.getInstance().getCachedDocument(file)
+            ?: return VfsUtilCore.loadText(file)
+        return runReadAction { document.text }
+    }
+
+    /**
+     * @return The modification stamp of the file's current content, which is the stamp of its
+     * document if the document is loaded.
+     */
+    @JvmStatic
+    fun getContentModificationStamp(file: VirtualFile): Long =
+        FileDocumentManager.getInstance().getCachedDocument(file)?.modificationStamp
+            ?: file.modificationStamp
+
     @JvmStatic
     fun getImageMediaType(fileName: String?): String {
         return when (val fileExtension = getFileExtension(fileName)) {
@@ -0,0 +1,106 @@
+package ee.carlrobert.codegpt
+
+import com.knuddels.jtokkit.Encodings
+import com.knuddels.jtokkit.api.EncodingType
+import com.knuddels.jtokkit.api.IntArrayList
+import ee.carlrobert.codegpt.tokenizer.Tokenizer
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class EncodingManagerTest {
+
+  private val encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE)
+  private val tokenizer = Tokenizer(encoding)
+
+  @Test
+  fun shouldTruncateLikeEncodingTheWholeText() {
+    SAMPLES.forEach { sample ->
+      val tokenCount = encoding.countTokensOrdinary(sample)
+      listOf(1, 2, 7, 33, 150, tokenCount - 1, tokenCount, tokenCount + 5).forEach { maxTokens ->
+        listOf(true, false).forEach { fromStart ->
+          assertThat(EncodingManager.findTruncationOffset(tokenizer, sample, maxTokens, fromStart))
+            .describedAs("%d tokens, from start: %s, of: %s", maxTokens, fromStart, sample.take(20))
+            .isEqualTo(truncateWholeText(sample, maxTokens, fromStart))
+        }
+      }
+    }
+  }
+
+  @Test
+  fun shouldKeepWholeTextWithinBudget() {
+    val text = SAMPLES[0]
+    val tokenCount = encoding.countTokensOrdinary(text)
+
+    assertThat(EncodingManager.findTruncationOffset(tokenizer, text, tokenCount, true))
+      .isEqualTo(text.length)
+    assertThat(EncodingManager.findTruncationOffset(tokenizer, text, tokenCount + 1, false))
+      .isZero()
+  }
+
+  @Test
+  fun shouldKeepNothingWithoutBudget() {
+    val text = SAMPLES[0]
+
+    assertThat(EncodingManager.findTruncationOffset(tokenizer, text, 0, true)).isZero()
+    assertThat(EncodingManager.findTruncationOffset(tokenizer, text, -1, true)).isZero()
+    assertThat(EncodingManager.findTruncationOffset(tokenizer, text, 0, false))
+      .isEqualTo(text.length)
+    assertThat(EncodingManager.findTruncationOffset(tokenizer, text, -1, false))
+      .isEqualTo(text.length)
+  }
+
+  @Test
+  fun shouldNotSplitCodePointsWhenCountingChars() {
+    assertThat(EncodingManager.getCharCount("a😀b", 2, false)).isEqualTo(1)
+    assertThat(EncodingManager.getCharCount("a😀b", 2, true)).isEqualTo(3)
+    assertThat(EncodingManager.getCharCount("a😀b", 5, false)).isEqualTo(3)
+    assertThat(EncodingManager.getCharCount("é", 1, false)).isZero()
+    assertThat(EncodingManager.getCharCount("é", 1, true)).isEqualTo(1)
+  }
+
+  // Reference: encodes the whole text and keeps the characters the kept tokens cover
+  private fun truncateWholeText(text: String, maxTokens: Int, fromStart: Boolean): Int {
+    val tokens = encoding.encodeOrdinary(text)
+    if (tokens.size() <= maxTokens) {
+      return if (fromStart) text.length else 0
+    }
+    if (fromStart) {
+      return countChars(text, decodedByteCount(tokens, maxTokens), false)
+    }
+    return countChars(text, decodedByteCount(tokens, tokens.size() - maxTokens), true)
+  }
+
+  private fun decodedByteCount(tokens: IntArrayList, count: Int): Int {
+    val leadingTokens = IntArrayList(count)
+    for (i in 0 until count) {
+      leadingTokens.add(tokens.get(i))
+    }
+    return encoding.decodeBytes(leadingTokens).size
+  }
+
+  private fun countChars(text: String, byteCount: Int, roundUp: Boolean): Int {
+    var bytes = 0
+    var offset = 0
+    while (offset < text.length && bytes < byteCount) {
+      val next = text.offsetByCodePoints(offset, 1)
+      val codePointBytes = text.substring(offset, next).toByteArray(Charsets.UTF_8).size
+      if (!roundUp && bytes + codePointBytes > byteCount) {
+        break
+      }
+      bytes += codePointBytes
+      offset = next
+    }
+    return offset
+  }
+
+  companion object {
+    private val SAMPLES = listOf(
+      "The quick brown fox jumps over the lazy dog. fun main() { println(\"Hello, world!\") }\n"
+        .repeat(40),
+      "流式响应的令牌计数必须与完整编码一致。".repeat(60),
+      "中文 文本 带 空格，以及 English words 混合 ".repeat(60),
+      "👋🏽 Hi 🎉🎉🎉 there 👩‍💻 done ".repeat(50),
+      "🎉".repeat(300),
+      "a" + " ".repeat(300) + "b\n\n\t\t" + "    x  y   z".repeat(30) + " ".repeat(100))
+  }
+}
@@ -0,0 +1,89 @@
+package ee.carlrobert.codegpt
+
+import com.knuddels.jtokkit.Encodings
+import com.knuddels.jtokkit.api.EncodingType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.math.abs
+import kotlin.random.Random
+
+class StreamingTokenCounterTest {
+
+  private val encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE)
+
+  @Test
+  fun shouldCountShortResponsesExactly() {
+    val counter = StreamingTokenCounter(encoding::countTokens)
+    val text = "Hello! Here is how you do it:\n```java\nint a = 1;\n```"
+
+    text.chunked(3).forEach { counter.append(it) }
+
+    assertThat(counter.count).isEqualTo(encoding.countTokens(text))
+  }
+
+  @Test
+  fun shouldStayWithinToleranceOfFullEncoding() {
+    val random = Random(42)
+    SAMPLES.forEach { sample ->
+      val text = sample.repeat(20)
+      val expected = encoding.countTokens(text)
+      repeat(20) {
+        val counter = StreamingTokenCounter(encoding::countTokens)
+        randomChunks(text, random).forEach { counter.append(it) }
+
+        assertThat(abs(counter.count - expected))
+          .describedAs("Counted %d tokens, expected %d", counter.count, expected)
+          .isLessThanOrEqualTo(maxOf(MIN_TOLERANCE, expected * RELATIVE_TOLERANCE / 100))
+      }
+    }
+  }
+
+  @Test
+  fun shouldTrackFullEncodingWhileStreaming() {
+    val text = SAMPLES.joinToString("\n\n").repeat(10)
+    val counter = StreamingTokenCounter(encoding::countTokens)
+    val streamed = StringBuilder()
+
+    text.chunked(5).forEach { chunk ->
+      streamed.append(chunk)
+      val count = counter.append(chunk)
+      val expected = encoding.countTokens(streamed.toString())
+
+      assertThat(abs(count - expected))
+        .isLessThanOrEqualTo(maxOf(MIN_TOLERANCE, expected * RELATIVE_TOLERANCE / 100))
+    }
+  }
+
+  @Test
+  fun shouldStartOverAfterReset() {
+    val counter = StreamingTokenCounter(encoding::countTokens)
+    counter.append(SAMPLES[0].repeat(10))
+
+    counter.reset()
+    counter.append("Hello world")
+
+    assertThat(counter.count).isEqualTo(encoding.countTokens("Hello world"))
+  }
+
+  private fun randomChunks(text: String, random: Random): List<String> {
+    val chunks = mutableListOf<String>()
+    var start = 0
+    while (start < text.length) {
+      val end = minOf(text.length, start + 1 + random.nextInt(16))
+      chunks.add(text.substring(start, end))
+      start = end
+    }
+    return chunks
+  }
+
+  companion object {
+    private const val MIN_TOLERANCE = 2
+    private const val RELATIVE_TOLERANCE = 1
+
+    private val SAMPLES = listOf(
+      "The quick brown fox jumps over the lazy dog, and then it doesn't stop running. ",
+      "fun main() {\n    val numbers = listOf(1, 2, 3)\n    println(numbers.sum())\n}\n",
+      "1. Install the plugin\n2. Open **Settings** > `Tools`\n\n    indented  code   block\n",
+      "Größe, naïve café — 東京 の 天気 は 晴れ です。 Emoji 🚀🚀 too!  ")
+  }
+}
@@ -0,0 +1,93 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class CodeCompletionHedgingStatsTest {
+
+  private val stats = CodeCompletionHedgingStats()
+
+  @Test
+  fun shouldNotHedgeUntilThereAreEnoughSamples() {
+    repeat(19) { stats.recordTimeToFirstToken(SERVICE, 100) }
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 95)).isNull()
+
+    stats.recordTimeToFirstToken(SERVICE, 100)
+
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 95)).isEqualTo(100L)
+    assertThat(stats.getHedgeDelayMillis(ServiceType.OPENAI, 95)).isNull()
+  }
+
+  @Test
+  fun shouldUseNearestRankPercentileWithoutCensoredSamples() {
+    (100 downTo 1).forEach { stats.recordTimeToFirstToken(SERVICE, it * 100L) }
+
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 50)).isEqualTo(5000L)
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 95)).isEqualTo(9500L)
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 100)).isEqualTo(10_000L)
+  }
+
+  @Test
+  fun shouldCountCensoredSamplesAsStillWaiting() {
+    repeat(5) { stats.recordTimeToFirstToken(SERVICE, 100) }
+    repeat(5) { stats.recordCensoredTimeToFirstToken(SERVICE, 200) }
+    repeat(5) { stats.recordTimeToFirstToken(SERVICE, 300) }
+    repeat(5) { stats.recordTimeToFirstToken(SERVICE, 400) }
+
+    // Counted as first tokens, the censored samples would make it 200
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 50)).isEqualTo(300L)
+  }
+
+  @Test
+  fun shouldReturnLongestSampleWhenCensoredSamplesHideThePercentile() {
+    repeat(20) { stats.recordTimeToFirstToken(SERVICE, 100) }
+    repeat(20) { stats.recordCensoredTimeToFirstToken(SERVICE, 1000) }
+
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 50)).isEqualTo(100L)
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 75)).isEqualTo(1000L)
+  }
+
+  @Test
+  fun shouldNotHedgeSoonerThanMinimumDelay() {
+    repeat(20) { stats.recordTimeToFirstToken(SERVICE, 10) }
+
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 95)).isEqualTo(50L)
+  }
+
+  @Test
+  fun shouldOnlyKeepRecentSamples() {
+    repeat(200) { stats.recordTimeToFirstToken(SERVICE, 1000) }
+    repeat(200) { stats.recordTimeToFirstToken(SERVICE, 100) }
+
+    assertThat(stats.getHedgeDelayMillis(SERVICE, 99)).isEqualTo(100L)
+  }
+
+  @Test
+  fun shouldSummarizeRecordedRequests() {
+    assertThat(stats.getSnapshot())
+      .extracting("requests", "primaryP99Millis", "extraRequestRate", "p99ImprovementMillis")
+      .containsExactly(0L, null, 0.0, null)
+
+    stats.recordRequest(primaryMillis = 300, effectiveMillis = 120, hedged = true, hedgeWon = true)
+    stats.recordRequest(primaryMillis = 100, effectiveMillis = 100, hedged = false, hedgeWon = false)
+    stats.recordRequest(primaryMillis = 150, effectiveMillis = 150, hedged = true, hedgeWon = false)
+    stats.recordRequest(primaryMillis = 80, effectiveMillis = 80, hedged = false, hedgeWon = false)
+
+    assertThat(stats.getSnapshot())
+      .extracting(
+        "requests",
+        "hedgedRequests",
+        "hedgesWon",
+        "primaryP99Millis",
+        "effectiveP99Millis",
+        "extraRequestRate",
+        "p99ImprovementMillis"
+      )
+      .containsExactly(4L, 2L, 1L, 300L, 150L, 0.5, 150L)
+  }
+
+  companion object {
+    private val SERVICE = ServiceType.CODEGPT
+  }
+}
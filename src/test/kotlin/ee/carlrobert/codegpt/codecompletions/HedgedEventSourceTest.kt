@@ -0,0 +1,171 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import testsupport.FakeEventSource
+import testsupport.ManualScheduledExecutorService
+import java.io.IOException
+
+class HedgedEventSourceTest {
+
+  private val timer = ManualScheduledExecutorService()
+  private val stats = CodeCompletionHedgingStats()
+  private val attempts = mutableListOf<Attempt>()
+  private val messages = mutableListOf<String>()
+  private val errors = mutableListOf<ErrorDetails>()
+
+  @Test
+  fun shouldSendRequestOnceUntilThereAreEnoughSamples() {
+    repeat(19) { stats.recordTimeToFirstToken(PRIMARY, 100) }
+
+    startHedgedEventSource()
+    timer.advanceBy(10_000)
+    attempts[0].listener.onError(CONNECTION_ERROR, IOException("Connection reset"))
+
+    assertThat(attempts).hasSize(1)
+    assertThat(timer.getScheduledDelaysMillis()).isEmpty()
+    assertThat(errors).containsExactly(CONNECTION_ERROR)
+  }
+
+  @Test
+  fun shouldHedgeOnceTheFirstTokenIsLate() {
+    warmUp(PRIMARY, 100)
+
+    startHedgedEventSource()
+    assertThat(timer.getScheduledDelaysMillis()).containsExactly(100L)
+    timer.advanceBy(99)
+    assertThat(attempts).hasSize(1)
+    timer.advanceBy(1)
+
+    assertThat(attempts.map { it.serviceType }).containsExactly(PRIMARY, HEDGE)
+  }
+
+  @Test
+  fun shouldCancelTheLoserAndForwardTheWinner() {
+    warmUp(PRIMARY, 100)
+    startHedgedEventSource()
+    timer.advanceBy(130)
+
+    val (primary, hedge) = attempts
+    hedge.listener.onMessage("foo", hedge.eventSource)
+    primary.listener.onMessage("bar", primary.eventSource)
+    hedge.listener.onMessage("baz", hedge.eventSource)
+
+    assertThat(messages).containsExactly("foo", "baz")
+    assertThat(primary.eventSource.cancelled).isTrue()
+    assertThat(hedge.eventSource.cancelled).isFalse()
+    assertThat(stats.getSnapshot())
+      .extracting("requests", "hedgedRequests", "hedgesWon", "primaryP99Millis")
+      .containsExactly(1L, 1L, 1L, 130L)
+  }
+
+  @Test
+  fun shouldRecordTheCancelledLoserAsCensoredSample() {
+    warmUp(PRIMARY, 200)
+    warmUp(HEDGE, 100)
+    startHedgedEventSource()
+    timer.advanceBy(230)
+
+    attempts[0].listener.onMessage("foo", attempts[0].eventSource)
+
+    assertThat(attempts[1].eventSource.cancelled).isTrue()
+    // Counted as a first token, the 30ms the hedge had been waiting would be the 1st percentile
+    assertThat(stats.getHedgeDelayMillis(HEDGE, 1)).isEqualTo(100L)
+    assertThat(stats.getSnapshot().hedgesWon).isZero()
+  }
+
+  @Test
+  fun shouldHedgeRightAwayWhenThePrimaryConnectionFails() {
+    warmUp(PRIMARY, 100)
+    startHedgedEventSource()
+    timer.advanceBy(20)
+
+    attempts[0].listener.onError(CONNECTION_ERROR, IOException("Connection reset"))
+
+    assertThat(attempts).hasSize(2)
+    assertThat(timer.getScheduledDelaysMillis()).isEmpty()
+    assertThat(errors).isEmpty()
+  }
+
+  @Test
+  fun shouldReportOtherErrorsWithoutHedging() {
+    warmUp(PRIMARY, 100)
+    startHedgedEventSource()
+
+    attempts[0].listener.onError(INVALID_API_KEY_ERROR, RuntimeException("401"))
+    timer.advanceBy(10_000)
+
+    assertThat(attempts).hasSize(1)
+    assertThat(errors).containsExactly(INVALID_API_KEY_ERROR)
+  }
+
+  @Test
+  fun shouldStopTheClockOfAFailedPrimary() {
+    warmUp(PRIMARY, 100)
+    startHedgedEventSource()
+    timer.advanceBy(20)
+    attempts[0].listener.onError(CONNECTION_ERROR, IOException("Connection reset"))
+    timer.advanceBy(200)
+
+    attempts[1].listener.onMessage("foo", attempts[1].eventSource)
+
+    assertThat(stats.getSnapshot())
+      .extracting("primaryP99Millis", "effectiveP99Millis")
+      .containsExactly(20L, 220L)
+  }
+
+  @Test
+  fun shouldReportTheLastErrorWhenBothRequestsFail() {
+    warmUp(PRIMARY, 100)
+    startHedgedEventSource()
+    timer.advanceBy(100)
+
+    attempts[0].listener.onError(CONNECTION_ERROR, IOException("Connection reset"))
+    assertThat(errors).isEmpty()
+    attempts[1].listener.onError(INVALID_API_KEY_ERROR, RuntimeException("401"))
+
+    assertThat(errors).containsExactly(INVALID_API_KEY_ERROR)
+  }
+
+  private fun warmUp(serviceType: ServiceType, millis: Long) {
+    repeat(20) { stats.recordTimeToFirstToken(serviceType, millis) }
+  }
+
+  private fun startHedgedEventSource(): HedgedEventSource =
+    HedgedEventSource(
+      PRIMARY,
+      HEDGE,
+      95,
+      object : CompletionEventListener<String> {
+        override fun onMessage(message: String, eventSource: EventSource) {
+          messages.add(message)
+        }
+
+        override fun onError(error: ErrorDetails, ex: Throwable) {
+          errors.add(error)
+        }
+      },
+      stats,
+      timer,
+      { timer.nanoTime }
+    ) { serviceType, listener ->
+      Attempt(serviceType, listener).also { attempts.add(it) }.eventSource
+    }.start()
+
+  private class Attempt(
+    val serviceType: ServiceType,
+    val listener: CompletionEventListener<String>,
+    val eventSource: FakeEventSource = FakeEventSource()
+  )
+
+  companion object {
+    private val PRIMARY = ServiceType.CODEGPT
+    private val HEDGE = ServiceType.OPENAI
+    private val CONNECTION_ERROR = ErrorDetails("Connection reset")
+    private val INVALID_API_KEY_ERROR = ErrorDetails("Incorrect API key provided")
+  }
+}
@@ -0,0 +1,212 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.conversations.ConversationService
+import ee.carlrobert.codegpt.conversations.message.Message
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.anthropic.completion.ClaudeCompletionRequest
+import ee.carlrobert.llm.client.ollama.completion.request.OllamaChatCompletionRequest
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import ee.carlrobert.llm.completion.CompletionRequest
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.FakeEventSource
+import testsupport.IntegrationTest
+import testsupport.ManualScheduledExecutorService
+import java.io.IOException
+import java.net.SocketTimeoutException
+import java.util.function.Consumer
+
+class CompletionRequestHandlerTest : IntegrationTest() {
+
+  private val executor = ManualScheduledExecutorService()
+  private val sender = RecordingRequestSender()
+  private val shownResponse = StringBuilder()
+  private var completedResponse: String? = null
+  private var reportedError: ErrorDetails? = null
+  private val message = Message("TEST_PROMPT")
+
+  fun testRetriesDroppedConnectionsWithExponentialBackoff() {
+    useOpenAIService()
+    callHandler()
+
+    repeat(3) { retry ->
+      sender.attempts[retry].listener.onError(ERROR, IOException("unexpected end of stream"))
+
+      val backoffMillis = 1000L shl retry
+      assertThat(executor.getScheduledDelaysMillis()).containsExactly(backoffMillis)
+      executor.advanceBy(backoffMillis - 1)
+      assertThat(sender.attempts).hasSize(retry + 1)
+      executor.advanceBy(1)
+      assertThat(sender.attempts).hasSize(retry + 2)
+    }
+    sender.attempts.last().listener.onError(ERROR, IOException("unexpected end of stream"))
+
+    assertThat(executor.getScheduledDelaysMillis()).isEmpty()
+    assertThat(sender.attempts).allMatch { it.continuationRequest == null }
+    assertThat(reportedError).isSameAs(ERROR)
+  }
+
+  fun testReportsOtherErrorsWithoutRetrying() {
+    useOpenAIService()
+    callHandler()
+
+    sender.attempts[0].listener.onError(ERROR, IOException("Canceled"))
+
+    assertThat(executor.getScheduledDelaysMillis()).isEmpty()
+    assertThat(reportedError).isSameAs(ERROR)
+  }
+
+  fun testRetriesTimeoutsOnlyBeforeAnythingWasReceived() {
+    useOllamaService()
+    callHandler()
+
+    sender.attempts[0].listener.onError(ERROR, SocketTimeoutException("timeout"))
+    executor.advanceBy(1000)
+    sender.attempts[1].listener.onMessage("Hel", sender.attempts[1].eventSource)
+    sender.attempts[1].listener.onError(ERROR, SocketTimeoutException("timeout"))
+
+    assertThat(sender.attempts).hasSize(2)
+    assertThat(executor.getScheduledDelaysMillis()).isEmpty()
+    assertThat(reportedError).isSameAs(ERROR)
+    assertThat(message.response).isEqualTo("Hel")
+  }
+
+  fun testResumesPartialResponseWithContinuation() {
+    useOllamaService()
+    callHandler()
+    val firstAttempt = sender.attempts[0]
+    firstAttempt.listener.onMessage("Hello", firstAttempt.eventSource)
+    firstAttempt.listener.onError(ERROR, IOException("unexpected end of stream"))
+
+    executor.advanceBy(1000)
+    val continuation = sender.attempts[1]
+    continuation.listener.onMessage(", world!", continuation.eventSource)
+    continuation.listener.onComplete(StringBuilder(", world!"))
+
+    assertThat(continuation.serviceType).isEqualTo(ServiceType.OLLAMA)
+    assertThat((continuation.continuationRequest as OllamaChatCompletionRequest).messages.last())
+      .extracting("role", "content")
+      .containsExactly("assistant", "Hello")
+    assertThat(completedResponse).isEqualTo("Hello, world!")
+    assertThat(shownResponse.toString()).isEqualTo("Hello, world!")
+    assertThat(message.response).isEqualTo("Hello, world!")
+  }
+
+  fun testShowsTheStitchedResponseWhenContinuationSkipsTrailingWhitespace() {
+    GeneralSettings.getCurrentState().selectedService = ServiceType.ANTHROPIC
+    callHandler()
+    val firstAttempt = sender.attempts[0]
+    firstAttempt.listener.onMessage("Hello", firstAttempt.eventSource)
+    firstAttempt.listener.onMessage(",\n\n", firstAttempt.eventSource)
+    assertThat(shownResponse.toString()).isEqualTo("Hello,")
+    firstAttempt.listener.onError(ERROR, IOException("unexpected end of stream"))
+
+    executor.advanceBy(1000)
+    val continuation = sender.attempts[1]
+    continuation.listener.onMessage("\nWorld ", continuation.eventSource)
+    continuation.listener.onComplete(StringBuilder("\nWorld "))
+
+    assertThat((continuation.continuationRequest as ClaudeCompletionRequest).messages.last())
+      .extracting("role", "content")
+      .containsExactly("assistant", "Hello,")
+    assertThat(completedResponse).isEqualTo("Hello,\nWorld ")
+    assertThat(shownResponse.toString()).isEqualTo(completedResponse)
+  }
+
+  fun testReportsPartialResponseOfProvidersWhichCanNotContinue() {
+    useOpenAIService()
+    callHandler()
+
+    sender.attempts[0].listener.onMessage("Hel", sender.attempts[0].eventSource)
+    sender.attempts[0].listener.onError(ERROR, IOException("unexpected end of stream"))
+
+    assertThat(executor.getScheduledDelaysMillis()).isEmpty()
+    assertThat(reportedError).isSameAs(ERROR)
+    assertThat(message.response).isEqualTo("Hel")
+  }
+
+  fun testCancelWhileWaitingForRetryCompletesWithPartialResponse() {
+    useOllamaService()
+    val handler = callHandler()
+    sender.attempts[0].listener.onMessage("Hel", sender.attempts[0].eventSource)
+    sender.attempts[0].listener.onError(ERROR, IOException("unexpected end of stream"))
+
+    handler.cancel()
+    executor.advanceBy(1000)
+
+    assertThat(sender.attempts).hasSize(1)
+    assertThat(executor.getScheduledDelaysMillis()).isEmpty()
+    assertThat(completedResponse).isEqualTo("Hel")
+  }
+
+  fun testCancelsTheRunningAttempt() {
+    useOllamaService()
+    val handler = callHandler()
+    sender.attempts[0].listener.onError(ERROR, IOException("unexpected end of stream"))
+    executor.advanceBy(1000)
+
+    handler.cancel()
+
+    assertThat(sender.attempts[0].eventSource.cancelled).isFalse()
+    assertThat(sender.attempts[1].eventSource.cancelled).isTrue()
+  }
+
+  private fun callHandler(): CompletionRequestHandler {
+    val conversation = ConversationService.getInstance().startConversation()
+    val handler = CompletionRequestHandler(
+      object : CompletionResponseEventListener {
+        override fun handleMessage(message: String) {
+          shownResponse.append(message)
+        }
+
+        override fun handleError(error: ErrorDetails, ex: Throwable?) {
+          reportedError = error
+        }
+
+        override fun handleCompleted(fullMessage: String, callParameters: CallParameters) {
+          completedResponse = fullMessage
+        }
+      },
+      sender,
+      executor)
+    handler.call(CallParameters(conversation, message))
+    return handler
+  }
+
+  private class Attempt(
+    val serviceType: ServiceType?,
+    val continuationRequest: CompletionRequest?,
+    val listener: CompletionEventListener<String>,
+    val eventSource: FakeEventSource = FakeEventSource()
+  )
+
+  private class RecordingRequestSender : CompletionRequestHandler.ChatRequestSender {
+
+    val attempts = mutableListOf<Attempt>()
+
+    override fun send(
+      callParameters: CallParameters,
+      eventListener: CompletionEventListener<String>,
+      routingListener: Consumer<RoutingDecision>
+    ): EventSource {
+      return Attempt(null, null, eventListener).also { attempts.add(it) }.eventSource
+    }
+
+    override fun resume(
+      serviceType: ServiceType,
+      callParameters: CallParameters,
+      continuationRequest: CompletionRequest,
+      eventListener: CompletionEventListener<String>
+    ): EventSource {
+      return Attempt(serviceType, continuationRequest, eventListener)
+        .also { attempts.add(it) }
+        .eventSource
+    }
+  }
+
+  companion object {
+    private val ERROR = ErrorDetails("Connection lost")
+  }
+}
@@ -0,0 +1,168 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.completions.ProviderHealthTracker.CircuitState
+import ee.carlrobert.codegpt.completions.RoutingDecision.Reason
+import ee.carlrobert.codegpt.conversations.ConversationService
+import ee.carlrobert.codegpt.conversations.message.Message
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.FakeEventSource
+import testsupport.IntegrationTest
+import java.io.IOException
+
+class CompletionRequestRouterTest : IntegrationTest() {
+
+  private var currentTimeMillis = 0L
+  private val healthTracker = ProviderHealthTracker { currentTimeMillis }
+  private val attempts = mutableListOf<Attempt>()
+  private val failingServices = mutableSetOf<ServiceType>()
+  private val router = CompletionRequestRouter(healthTracker) { serviceType, _, _, listener ->
+    if (serviceType in failingServices) {
+      throw IllegalStateException("Unable to create the client")
+    }
+    Attempt(serviceType, listener).also { attempts.add(it) }.eventSource
+  }
+  private val decisions = mutableListOf<RoutingDecision>()
+  private val messages = mutableListOf<String>()
+  private val errors = mutableListOf<ErrorDetails>()
+
+  override fun setUp() {
+    super.setUp()
+    useOpenAIService()
+  }
+
+  override fun tearDown() {
+    try {
+      GeneralSettings.getCurrentState().fallbackService = null
+    } finally {
+      super.tearDown()
+    }
+  }
+
+  fun testSendsToSelectedProviderWithoutFallback() {
+    open(ServiceType.OPENAI)
+
+    send()
+
+    assertThat(attempts.map { it.serviceType }).containsExactly(ServiceType.OPENAI)
+    assertThat(decisions).isEmpty()
+  }
+
+  fun testRoutesAroundOpenCircuit() {
+    GeneralSettings.getCurrentState().fallbackService = ServiceType.OLLAMA
+    open(ServiceType.OPENAI)
+
+    send()
+
+    assertThat(attempts.map { it.serviceType }).containsExactly(ServiceType.OLLAMA)
+    assertThat(decisions).containsExactly(
+      RoutingDecision(ServiceType.OPENAI, ServiceType.OLLAMA, Reason.CIRCUIT_OPEN))
+  }
+
+  fun testSendsTrialToSelectedProviderOnceOpenDurationIsOver() {
+    GeneralSettings.getCurrentState().fallbackService = ServiceType.OLLAMA
+    open(ServiceType.OPENAI)
+    currentTimeMillis += 30_000
+
+    send()
+    send()
+    attempts[0].listener.onMessage("Hello", attempts[0].eventSource)
+    attempts[0].listener.onComplete(StringBuilder("Hello"))
+
+    assertThat(attempts.map { it.serviceType })
+      .containsExactly(ServiceType.OPENAI, ServiceType.OLLAMA)
+    assertThat(healthTracker.getState(ServiceType.OPENAI)).isEqualTo(CircuitState.CLOSED)
+  }
+
+  fun testFailsOverWhenRequestFailsBeforeOutput() {
+    GeneralSettings.getCurrentState().fallbackService = ServiceType.OLLAMA
+
+    send()
+    attempts[0].listener.onError(ERROR, IOException("Connection refused"))
+    attempts[1].listener.onMessage("Hello", attempts[1].eventSource)
+
+    assertThat(attempts.map { it.serviceType })
+      .containsExactly(ServiceType.OPENAI, ServiceType.OLLAMA)
+    assertThat(decisions).containsExactly(
+      RoutingDecision(ServiceType.OPENAI, ServiceType.OLLAMA, Reason.REQUEST_FAILED))
+    assertThat(messages).containsExactly("Hello")
+    assertThat(errors).isEmpty()
+  }
+
+  fun testFailsOverWhenRequestCannotBeStarted() {
+    GeneralSettings.getCurrentState().fallbackService = ServiceType.OLLAMA
+    failingServices.add(ServiceType.OPENAI)
+
+    send()
+
+    assertThat(attempts.map { it.serviceType }).containsExactly(ServiceType.OLLAMA)
+    assertThat(decisions).containsExactly(
+      RoutingDecision(ServiceType.OPENAI, ServiceType.OLLAMA, Reason.REQUEST_FAILED))
+  }
+
+  fun testReportsErrorsAfterOutputWithoutFailingOver() {
+    GeneralSettings.getCurrentState().fallbackService = ServiceType.OLLAMA
+
+    send()
+    attempts[0].listener.onMessage("Hel", attempts[0].eventSource)
+    attempts[0].listener.onError(ERROR, IOException("unexpected end of stream"))
+
+    assertThat(attempts).hasSize(1)
+    assertThat(decisions).isEmpty()
+    assertThat(errors).containsExactly(ERROR)
+  }
+
+  fun testDoesNotFailOverToProviderWithOpenCircuit() {
+    GeneralSettings.getCurrentState().fallbackService = ServiceType.OLLAMA
+    open(ServiceType.OLLAMA)
+
+    send()
+    attempts[0].listener.onError(ERROR, IOException("Connection refused"))
+
+    assertThat(attempts).hasSize(1)
+    assertThat(errors).containsExactly(ERROR)
+  }
+
+  fun testFailuresOpenTheCircuit() {
+    repeat(3) {
+      send()
+      attempts.last().listener.onError(ERROR, IOException("Connection refused"))
+    }
+
+    assertThat(healthTracker.getState(ServiceType.OPENAI)).isEqualTo(CircuitState.OPEN)
+  }
+
+  private fun open(serviceType: ServiceType) {
+    repeat(3) { healthTracker.recordFailure(healthTracker.acquire(serviceType)) }
+  }
+
+  private fun send(): EventSource {
+    val conversation = ConversationService.getInstance().startConversation()
+    return router.getChatCompletionAsync(
+      CallParameters(conversation, Message("TEST_PROMPT")),
+      object : CompletionEventListener<String> {
+        override fun onMessage(message: String, eventSource: EventSource) {
+          messages.add(message)
+        }
+
+        override fun onError(error: ErrorDetails, ex: Throwable) {
+          errors.add(error)
+        }
+      },
+      { decisions.add(it) })
+  }
+
+  private class Attempt(
+    val serviceType: ServiceType,
+    val listener: CompletionEventListener<String>,
+    val eventSource: FakeEventSource = FakeEventSource()
+  )
+
+  companion object {
+    private val ERROR = ErrorDetails("Connection refused")
+  }
+}
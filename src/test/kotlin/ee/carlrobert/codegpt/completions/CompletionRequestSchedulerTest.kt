@@ -0,0 +1,173 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import testsupport.FakeEventSource
+import testsupport.ManualScheduledExecutorService
+import java.time.Duration
+
+class CompletionRequestSchedulerTest {
+
+  private val executor = ManualScheduledExecutorService()
+  private val scheduler = CompletionRequestScheduler(executor) { executor.nanoTime }
+  private val started = mutableListOf<String>()
+
+  @Test
+  fun shouldStartWaitingRequestsInPriorityOrder() {
+    val running = List(4) { schedule("running $it", RequestPriority.CHAT) }
+    schedule("background", RequestPriority.BACKGROUND)
+    schedule("first chat", RequestPriority.CHAT)
+    val inlineCompletion = schedule("inline completion", RequestPriority.INLINE_COMPLETION)
+    schedule("second chat", RequestPriority.CHAT)
+    schedule("edit code", RequestPriority.EDIT_CODE)
+    started.clear()
+
+    running.forEach { it.complete() }
+    assertThat(started)
+      .containsExactly("inline completion", "edit code", "first chat", "second chat")
+    inlineCompletion.complete()
+
+    assertThat(started).last().isEqualTo("background")
+  }
+
+  @Test
+  fun shouldDropStaleRequests() {
+    val running = List(4) { schedule("running $it", RequestPriority.CHAT) }
+    val inlineCompletion = schedule("inline completion", RequestPriority.INLINE_COMPLETION)
+    val background = schedule("background", RequestPriority.BACKGROUND)
+    val chat = schedule("chat", RequestPriority.CHAT)
+    started.clear()
+
+    executor.advanceBy(3001)
+    running[0].complete()
+    assertThat(inlineCompletion.cancelled).isTrue()
+    assertThat(started).containsExactly("chat")
+
+    executor.advanceBy(7000)
+    running[1].complete()
+    assertThat(background.cancelled).isTrue()
+    assertThat(chat.cancelled).isFalse()
+    assertThat(started).containsExactly("chat")
+  }
+
+  @Test
+  fun shouldNotDropRequestsWithinTheirQueueTime() {
+    val running = List(4) { schedule("running $it", RequestPriority.CHAT) }
+    val inlineCompletion = schedule("inline completion", RequestPriority.INLINE_COMPLETION)
+    started.clear()
+
+    executor.advanceBy(3000)
+    running[0].complete()
+
+    assertThat(inlineCompletion.cancelled).isFalse()
+    assertThat(started).containsExactly("inline completion")
+  }
+
+  @Test
+  fun shouldCancelWaitingRequestsWithoutStartingThem() {
+    val running = List(4) { schedule("running $it", RequestPriority.CHAT) }
+    val waiting = schedule("waiting", RequestPriority.CHAT)
+    started.clear()
+
+    waiting.eventSource.cancel()
+    running[0].complete()
+
+    assertThat(waiting.cancelled).isTrue()
+    assertThat(started).isEmpty()
+  }
+
+  @Test
+  fun shouldLimitConcurrentRequestsOfRemoteProviders() {
+    val running = List(5) { schedule("request $it", RequestPriority.CHAT) }
+    assertThat(started).hasSize(4)
+
+    running[0].listener!!.onError(ERROR, RuntimeException())
+
+    assertThat(started).hasSize(5)
+    assertThat(schedule("other provider", RequestPriority.CHAT, ServiceType.ANTHROPIC).listener)
+      .isNotNull()
+  }
+
+  @Test
+  fun shouldLimitConcurrentRequestsOfLocalProviders() {
+    val running = List(3) { schedule("request $it", RequestPriority.CHAT, ServiceType.OLLAMA) }
+    assertThat(started).containsExactly("request 0", "request 1")
+
+    running[1].listener!!.onCancelled(StringBuilder())
+
+    assertThat(started).containsExactly("request 0", "request 1", "request 2")
+  }
+
+  @Test
+  fun shouldLimitRequestRateOfRemoteProviders() {
+    repeat(20) { schedule("request $it", RequestPriority.CHAT).complete() }
+    val request = schedule("request 20", RequestPriority.CHAT)
+
+    assertThat(request.listener).isNull()
+    assertThat(executor.getScheduledDelaysMillis()).containsExactly(1000L)
+    executor.advanceBy(999)
+    assertThat(request.listener).isNull()
+    executor.advanceBy(1)
+    assertThat(request.listener).isNotNull()
+  }
+
+  @Test
+  fun shouldNotLimitRequestRateOfLocalProviders() {
+    repeat(30) { schedule("request $it", RequestPriority.CHAT, ServiceType.LLAMA_CPP).complete() }
+
+    assertThat(started).hasSize(30)
+    assertThat(executor.getScheduledDelaysMillis()).isEmpty()
+  }
+
+  @Test
+  fun shouldBlockProviderUntilRetryAfterIsOver() {
+    scheduler.onRetryAfter(ServiceType.OPENAI, Duration.ofSeconds(2))
+    val request = schedule("request", RequestPriority.CHAT)
+
+    assertThat(request.listener).isNull()
+    assertThat(schedule("other provider", RequestPriority.CHAT, ServiceType.OLLAMA).listener)
+      .isNotNull()
+    executor.advanceBy(1999)
+    assertThat(request.listener).isNull()
+    executor.advanceBy(1)
+    assertThat(request.listener).isNotNull()
+  }
+
+  private fun schedule(
+    name: String,
+    priority: RequestPriority,
+    serviceType: ServiceType = ServiceType.OPENAI
+  ): Request {
+    val request = Request()
+    request.eventSource = scheduler.schedule(
+      serviceType,
+      priority,
+      object : CompletionEventListener<String> {
+        override fun onCancelled(messageBuilder: StringBuilder) {
+          request.cancelled = true
+        }
+      }
+    ) { listener ->
+      started.add(name)
+      request.listener = listener
+      FakeEventSource()
+    }
+    return request
+  }
+
+  private class Request {
+    lateinit var eventSource: EventSource
+    var listener: CompletionEventListener<String>? = null
+    var cancelled = false
+
+    fun complete() = listener!!.onComplete(StringBuilder())
+  }
+
+  companion object {
+    private val ERROR = ErrorDetails("Server error")
+  }
+}
@@ -0,0 +1,98 @@
+package ee.carlrobert.codegpt.completions
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+
+class JsonCodecTest {
+
+  @Test
+  fun shouldRejectMalformedResponsePaths() {
+    listOf("", "$", "$.", "a..b", "a.", "[0]", "a[]", "a[x]", "a[-1]", "a[0", "a[0]b")
+      .forEach { path ->
+        assertThatThrownBy { JsonCodec.getResponsePath(path) }
+          .describedAs(path)
+          .isInstanceOf(IllegalArgumentException::class.java)
+      }
+  }
+
+  @Test
+  fun shouldCompileResponsePathOnce() {
+    val path = JsonCodec.getResponsePath("$.choices[0].delta.content")
+
+    assertThat(JsonCodec.getResponsePath(" $.choices[0].delta.content ")).isSameAs(path)
+    assertThat(path.toString()).isEqualTo("$.choices[0].delta.content")
+  }
+
+  @Test
+  fun shouldFallBackToDefaultPathOnlyForBlankOrMalformedPaths() {
+    val defaultPath = JsonCodec.TEXT_CONTENT
+
+    assertThat(JsonCodec.getResponsePath(null, defaultPath)).isSameAs(defaultPath)
+    assertThat(JsonCodec.getResponsePath(" ", defaultPath)).isSameAs(defaultPath)
+    assertThat(JsonCodec.getResponsePath("a[x]", defaultPath)).isSameAs(defaultPath)
+    assertThat(JsonCodec.getResponsePath("message.content", defaultPath).toString())
+      .isEqualTo("message.content")
+  }
+
+  @Test
+  fun shouldExtractValuesAtArrayIndices() {
+    val json = """{"choices":[{"text":"first"},{"text":"second"}],"matrix":[[1,2],[3,4]]}"""
+
+    assertThat(extract("choices[0].text", json)).isEqualTo("first")
+    assertThat(extract("choices[1].text", json)).isEqualTo("second")
+    assertThat(extract("choices[2].text", json)).isNull()
+    assertThat(extract("matrix[1][0]", json)).isEqualTo("3")
+    assertThat(extract("matrix[0][5]", json)).isNull()
+  }
+
+  @Test
+  fun shouldExtractScalarValuesAsText() {
+    val json = """{"text":"Hello","number":42,"decimal":0.5,"flag":true}"""
+
+    assertThat(extract("text", json)).isEqualTo("Hello")
+    assertThat(extract("number", json)).isEqualTo("42")
+    assertThat(extract("decimal", json)).isEqualTo("0.5")
+    assertThat(extract("flag", json)).isEqualTo("true")
+  }
+
+  @Test
+  fun shouldNotExtractNullOrNonScalarValues() {
+    val json = """{"content":null,"object":{"a":"b"},"array":["a"]}"""
+
+    assertThat(extract("content", json)).isNull()
+    assertThat(extract("object", json)).isNull()
+    assertThat(extract("array", json)).isNull()
+    assertThat(extract("missing", json)).isNull()
+    assertThat(extract("content.text", json)).isNull()
+  }
+
+  @Test
+  fun shouldNotExtractWhenDocumentHasDifferentShape() {
+    assertThat(extract("choices[0].text", """{"choices":{"0":{"text":"a"}}}""")).isNull()
+    assertThat(extract("choices.text", """{"choices":[{"text":"a"}]}""")).isNull()
+    assertThat(extract("text", "\"text\"")).isNull()
+    assertThat(extract("text", "")).isNull()
+  }
+
+  @Test
+  fun shouldSkipSiblingsBeforeValue() {
+    val json = """
+      {
+        "id": "chunk",
+        "usage": {"content": "nested", "tokens": [1, {"content": "deeper"}]},
+        "choices": [
+          {"delta": {"content": "skipped"}, "choices": [{"delta": {"content": "inner"}}]},
+          {"index": 1, "delta": {"role": "assistant", "content": "Hello"}}
+        ],
+        "content": "after"
+      }
+    """.trimIndent()
+
+    assertThat(extract("choices[1].delta.content", json)).isEqualTo("Hello")
+    assertThat(extract("content", json)).isEqualTo("after")
+  }
+
+  private fun extract(path: String, json: String): String? =
+    JsonCodec.getResponsePath(path).extract(json)
+}
@@ -0,0 +1,152 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.completions.ProviderHealthTracker.CircuitState
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class ProviderHealthTrackerTest {
+
+  private var currentTimeMillis = 0L
+  private val tracker = ProviderHealthTracker { currentTimeMillis }
+
+  @Test
+  fun shouldOpenAfterConsecutiveFailures() {
+    repeat(2) { recordFailure() }
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+
+    recordFailure()
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.OPEN)
+    assertThat(tracker.tryAcquire(SERVICE)).isNull()
+    assertThat(tracker.getState(ServiceType.OLLAMA)).isEqualTo(CircuitState.CLOSED)
+  }
+
+  @Test
+  fun shouldStayClosedWhileFailuresAreInterrupted() {
+    repeat(4) { recordSuccess() }
+    repeat(2) { recordFailure() }
+    recordSuccess()
+    repeat(2) { recordFailure() }
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+  }
+
+  @Test
+  fun shouldOpenOnceHalfOfTheWindowIsUnhealthy() {
+    recordSuccess(SLOW_MILLIS)
+    recordSuccess()
+    recordSuccess(SLOW_MILLIS)
+    recordSuccess()
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+    recordSuccess()
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+
+    recordFailure()
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.OPEN)
+  }
+
+  @Test
+  fun shouldLetSingleTrialThroughOnceOpenDurationIsOver() {
+    open()
+    currentTimeMillis += 29_999
+    assertThat(tracker.tryAcquire(SERVICE)).isNull()
+    currentTimeMillis += 1
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.HALF_OPEN)
+    assertThat(tracker.tryAcquire(SERVICE)?.trial()).isTrue()
+    assertThat(tracker.tryAcquire(SERVICE)).isNull()
+    assertThat(tracker.acquire(SERVICE).trial()).isFalse()
+  }
+
+  @Test
+  fun shouldCloseAfterSuccessfulTrial() {
+    open()
+    currentTimeMillis += 30_000
+
+    tracker.recordSuccess(tracker.tryAcquire(SERVICE)!!, 100)
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+    assertThat(tracker.tryAcquire(SERVICE)?.trial()).isFalse()
+    // The failures that opened the circuit are forgotten
+    repeat(2) { recordFailure() }
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+  }
+
+  @Test
+  fun shouldReopenAfterFailedTrial() {
+    open()
+    currentTimeMillis += 30_000
+
+    tracker.recordFailure(tracker.tryAcquire(SERVICE)!!)
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.OPEN)
+    currentTimeMillis += 30_000
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.HALF_OPEN)
+  }
+
+  @Test
+  fun shouldReopenAfterSlowTrial() {
+    open()
+    currentTimeMillis += 30_000
+
+    tracker.recordSuccess(tracker.tryAcquire(SERVICE)!!, SLOW_MILLIS)
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.OPEN)
+  }
+
+  @Test
+  fun shouldIgnoreOutcomesOfOtherRequestsUntilTrialDecides() {
+    val startedBeforeOpening = tracker.acquire(SERVICE)
+    open()
+    currentTimeMillis += 30_000
+    val trial = tracker.tryAcquire(SERVICE)!!
+
+    tracker.recordSuccess(startedBeforeOpening, 100)
+    tracker.recordSuccess(tracker.acquire(SERVICE), 100)
+
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.HALF_OPEN)
+    tracker.recordSuccess(trial, 100)
+    assertThat(tracker.getState(SERVICE)).isEqualTo(CircuitState.CLOSED)
+  }
+
+  @Test
+  fun shouldLetNextRequestThroughAsTrialWhenTrialIsCancelled() {
+    open()
+    currentTimeMillis += 30_000
+
+    tracker.recordCancelled(tracker.tryAcquire(SERVICE)!!)
+
+    assertThat(tracker.tryAcquire(SERVICE)?.trial()).isTrue()
+  }
+
+  @Test
+  fun shouldReturnMedianTimeToFirstTokenOfSuccessfulRequests() {
+    assertThat(tracker.getMedianTimeToFirstToken(SERVICE)).isEqualTo(-1L)
+
+    recordSuccess(300)
+    recordFailure()
+    recordSuccess(100)
+    recordSuccess(200)
+
+    assertThat(tracker.getMedianTimeToFirstToken(SERVICE)).isEqualTo(200L)
+  }
+
+  private fun open() {
+    repeat(3) { recordFailure() }
+  }
+
+  private fun recordSuccess(timeToFirstTokenMillis: Long = 100) {
+    tracker.recordSuccess(tracker.acquire(SERVICE), timeToFirstTokenMillis)
+  }
+
+  private fun recordFailure() {
+    tracker.recordFailure(tracker.acquire(SERVICE))
+  }
+
+  companion object {
+    private val SERVICE = ServiceType.OPENAI
+    private const val SLOW_MILLIS = 20_001L
+  }
+}
@@ -0,0 +1,176 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import testsupport.FakeEventSource
+import testsupport.ManualScheduledExecutorService
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Duration
+
+class ResponseCacheTest {
+
+  @TempDir
+  lateinit var cacheDirectory: Path
+
+  private val executor = ManualScheduledExecutorService()
+  private var currentTimeMillis = System.currentTimeMillis()
+  private var calls = 0
+
+  @Test
+  fun shouldReturnCachedResponse() {
+    val cache = createCache()
+
+    cache.getOrCompute("key", ::call)
+    val response = cache.getOrCompute("key", ::call)
+
+    assertThat(response).isEqualTo("response 1")
+    assertThat(calls).isEqualTo(1)
+    assertThat(cache.getOrCompute(null, ::call)).isEqualTo("response 2")
+  }
+
+  @Test
+  fun shouldEvictLeastRecentlyUsedEntriesFromMemory() {
+    val cache = createCache()
+    cache.getOrCompute("first", ::call)
+    cache.getOrCompute("second", ::call)
+    repeat(62) { cache.getOrCompute("key $it", ::call) }
+
+    cache.getOrCompute("first", ::call)
+    cache.getOrCompute("last", ::call)
+
+    // The disk tier isn't written before the executor runs
+    assertThat(cache.getOrCompute("first", ::call)).isEqualTo("response 1")
+    assertThat(cache.getOrCompute("second", ::call)).isEqualTo("response 66")
+  }
+
+  @Test
+  fun shouldKeepResponsesOnDisk() {
+    createCache().getOrCompute("key", ::call)
+    executor.runDueTasks()
+
+    val cache = createCache()
+    executor.runDueTasks()
+
+    assertThat(cache.getOrCompute("key", ::call)).isEqualTo("response 1")
+    assertThat(calls).isEqualTo(1)
+  }
+
+  @Test
+  fun shouldCapDiskTier() {
+    val cache = createCache()
+    repeat(11) {
+      cache.getOrCompute("key $it") { "x".repeat(1024 * 1024) }
+      currentTimeMillis += 1
+      executor.runDueTasks()
+    }
+
+    assertThat(Files.exists(cacheDirectory.resolve("key 0.txt"))).isFalse()
+    assertThat((1..10).map { Files.exists(cacheDirectory.resolve("key $it.txt")) })
+      .containsOnly(true)
+  }
+
+  @Test
+  fun shouldExpireEntries() {
+    val cache = createCache()
+    cache.getOrCompute("key", ::call)
+    executor.runDueTasks()
+
+    currentTimeMillis += TTL_MILLIS
+    assertThat(cache.getOrCompute("key", ::call)).isEqualTo("response 1")
+    currentTimeMillis += 1
+
+    assertThat(cache.getOrCompute("key", ::call)).isEqualTo("response 2")
+  }
+
+  @Test
+  fun shouldExpireEntriesOnDisk() {
+    createCache().getOrCompute("key", ::call)
+    executor.runDueTasks()
+    currentTimeMillis += TTL_MILLIS + 1
+
+    val cache = createCache()
+    executor.runDueTasks()
+
+    assertThat(Files.exists(cacheDirectory.resolve("key.txt"))).isFalse()
+    assertThat(cache.getOrCompute("key", ::call)).isEqualTo("response 2")
+  }
+
+  @Test
+  fun shouldReplayCachedResponseThroughListener() {
+    val cache = createCache()
+    val upstreams = mutableListOf<CompletionEventListener<String>>()
+    val first = RecordingListener()
+    cache.getOrStream("key", first) { upstreams.add(it); FakeEventSource() }
+    upstreams[0].onMessage("Hello\n", FakeEventSource())
+    upstreams[0].onMessage("World", FakeEventSource())
+    upstreams[0].onComplete(StringBuilder("Hello\nWorld"))
+
+    val second = RecordingListener()
+    cache.getOrStream("key", second) { upstreams.add(it); FakeEventSource() }
+    executor.runDueTasks()
+
+    assertThat(upstreams).hasSize(1)
+    assertThat(second.events)
+      .containsExactly("open", "message:Hello\n", "message:World", "complete:Hello\nWorld")
+  }
+
+  @Test
+  fun shouldNotCacheFailedResponses() {
+    val cache = createCache()
+    val upstreams = mutableListOf<CompletionEventListener<String>>()
+    cache.getOrStream("key", RecordingListener()) { upstreams.add(it); FakeEventSource() }
+    upstreams[0].onMessage("Hel", FakeEventSource())
+    upstreams[0].onError(ErrorDetails("Server error"), IOException())
+
+    cache.getOrStream("key", RecordingListener()) { upstreams.add(it); FakeEventSource() }
+
+    assertThat(upstreams).hasSize(2)
+  }
+
+  @Test
+  fun shouldStopReplayOnceCancelled() {
+    val cache = createCache()
+    cache.getOrCompute("key") { "Hello\nWorld" }
+    val listener = RecordingListener()
+
+    cache.getOrStream("key", listener) { FakeEventSource() }.cancel()
+    executor.runDueTasks()
+
+    assertThat(listener.events).containsExactly("open", "cancelled:")
+  }
+
+  private fun createCache() = ResponseCache(cacheDirectory, executor) { currentTimeMillis }
+
+  private fun call(): String = "response ${++calls}"
+
+  private class RecordingListener : CompletionEventListener<String> {
+
+    val events = mutableListOf<String>()
+
+    override fun onOpen() {
+      events.add("open")
+    }
+
+    override fun onMessage(message: String, eventSource: EventSource) {
+      events.add("message:$message")
+    }
+
+    override fun onComplete(messageBuilder: StringBuilder) {
+      events.add("complete:$messageBuilder")
+    }
+
+    override fun onCancelled(messageBuilder: StringBuilder) {
+      events.add("cancelled:$messageBuilder")
+    }
+  }
+
+  companion object {
+    private val TTL_MILLIS = Duration.ofDays(7).toMillis()
+  }
+}
@@ -0,0 +1,81 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import testsupport.FakeEventSource
+import testsupport.ManualScheduledExecutorService
+
+class RetryAfterInterceptorTest {
+
+  private val server = MockWebServer()
+  private val executor = ManualScheduledExecutorService()
+  private val scheduler = CompletionRequestScheduler(executor) { executor.nanoTime }
+  private val client = OkHttpClient.Builder()
+    .addInterceptor(RetryAfterInterceptor(ServiceType.OPENAI, scheduler))
+    .build()
+
+  @AfterEach
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun shouldBlockProviderForRetryAfterOfTooManyRequests() {
+    call(MockResponse().setResponseCode(429).setHeader("Retry-After", "3"))
+
+    assertThat(getBlockedMillis()).isEqualTo(3000L)
+  }
+
+  @Test
+  fun shouldBlockProviderByDefaultForTooManyRequestsWithoutRetryAfter() {
+    call(MockResponse().setResponseCode(429))
+
+    assertThat(getBlockedMillis()).isEqualTo(5000L)
+  }
+
+  @Test
+  fun shouldBlockProviderForRetryAfterOfServiceUnavailable() {
+    call(MockResponse().setResponseCode(503).setHeader("Retry-After", "2"))
+
+    assertThat(getBlockedMillis()).isEqualTo(2000L)
+  }
+
+  @Test
+  fun shouldNotBlockProviderForServiceUnavailableWithoutRetryAfter() {
+    call(MockResponse().setResponseCode(503))
+
+    assertThat(getBlockedMillis()).isZero()
+  }
+
+  @Test
+  fun shouldNotBlockProviderForOtherResponses() {
+    call(MockResponse().setResponseCode(500).setHeader("Retry-After", "3"))
+
+    assertThat(getBlockedMillis()).isZero()
+  }
+
+  private fun call(response: MockResponse) {
+    server.enqueue(response)
+    client.newCall(Request.Builder().url(server.url("/")).build()).execute().close()
+  }
+
+  /**
+   * @return How long a request to the provider has to wait before it's sent.
+   */
+  private fun getBlockedMillis(): Long {
+    var started = false
+    val listener = object : CompletionEventListener<String> {}
+    scheduler.schedule(ServiceType.OPENAI, RequestPriority.CHAT, listener) {
+      started = true
+      FakeEventSource()
+    }
+    return if (started) 0 else executor.getScheduledDelaysMillis().single()
+  }
+}
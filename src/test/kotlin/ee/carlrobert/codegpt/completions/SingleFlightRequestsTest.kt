@@ -0,0 +1,179 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import testsupport.FakeEventSource
+import java.io.IOException
+import java.util.Collections
+import kotlin.concurrent.thread
+
+class SingleFlightRequestsTest {
+
+  private val requests = SingleFlightRequests()
+  private val upstreams = mutableListOf<Upstream>()
+
+  @Test
+  fun shouldShareUpstreamBetweenIdenticalRequests() {
+    val first = RecordingListener()
+    val second = RecordingListener()
+    stream(first)
+    stream(second)
+
+    upstream().listener.onOpen()
+    upstream().listener.onMessage("Hello", upstream().eventSource)
+    upstream().listener.onComplete(StringBuilder("Hello"))
+
+    assertThat(upstreams).hasSize(1)
+    assertThat(first.events).containsExactly("open", "message:Hello", "complete:Hello")
+    assertThat(second.events).isEqualTo(first.events)
+  }
+
+  @Test
+  fun shouldNotShareUpstreamBetweenDifferentRequests() {
+    stream(RecordingListener(), "first")
+    stream(RecordingListener(), "second")
+
+    assertThat(upstreams).hasSize(2)
+  }
+
+  @Test
+  fun shouldStartNewUpstreamOnceTheCallFinished() {
+    stream(RecordingListener())
+    upstream().listener.onComplete(StringBuilder("Hello"))
+
+    stream(RecordingListener())
+
+    assertThat(upstreams).hasSize(2)
+  }
+
+  @Test
+  fun shouldReplayStreamedChunksToLateSubscribers() {
+    val first = RecordingListener()
+    stream(first)
+    upstream().listener.onOpen()
+    upstream().listener.onMessage("Hel", upstream().eventSource)
+    upstream().listener.onMessage("lo", upstream().eventSource)
+
+    val late = RecordingListener()
+    stream(late)
+    upstream().listener.onMessage(" world", upstream().eventSource)
+
+    assertThat(late.events).containsExactly("open", "message:Hello", "message: world")
+    assertThat(first.events)
+      .containsExactly("open", "message:Hel", "message:lo", "message: world")
+  }
+
+  @Test
+  fun shouldDeliverReplayWithoutBlockingTheUpstream() {
+    stream(RecordingListener())
+    upstream().listener.onMessage("Hello", upstream().eventSource)
+    var upstreamBlocked = false
+    val late = object : RecordingListener() {
+      override fun onMessage(message: String, eventSource: EventSource) {
+        if (events.isEmpty()) {
+          val chunk = thread { upstream().listener.onMessage(" world", upstream().eventSource) }
+          chunk.join(5000)
+          upstreamBlocked = chunk.isAlive
+        }
+        super.onMessage(message, eventSource)
+      }
+    }
+
+    stream(late)
+
+    assertThat(upstreamBlocked).isFalse()
+    assertThat(late.events).containsExactly("message:Hello", "message: world")
+  }
+
+  @Test
+  fun shouldCancelUpstreamOnceTheLastSubscriberLeaves() {
+    val first = RecordingListener()
+    val second = RecordingListener()
+    val firstSubscription = stream(first)
+    val secondSubscription = stream(second)
+    upstream().listener.onMessage("Hel", upstream().eventSource)
+
+    firstSubscription.cancel()
+    upstream().listener.onMessage("lo", upstream().eventSource)
+
+    assertThat(first.events).containsExactly("message:Hel", "cancelled:Hel")
+    assertThat(second.events).containsExactly("message:Hel", "message:lo")
+    assertThat(upstream().eventSource.cancelled).isFalse()
+
+    secondSubscription.cancel()
+
+    assertThat(second.events).last().isEqualTo("cancelled:Hello")
+    assertThat(upstream().eventSource.cancelled).isTrue()
+    stream(RecordingListener())
+    assertThat(upstreams).hasSize(2)
+  }
+
+  @Test
+  fun shouldFanOutFailuresToAllSubscribers() {
+    val first = RecordingListener()
+    val second = RecordingListener()
+    stream(first)
+    stream(second)
+
+    upstream().listener.onError(ErrorDetails("Server error"), IOException())
+
+    assertThat(first.events).containsExactly("error:Server error")
+    assertThat(second.events).containsExactly("error:Server error")
+  }
+
+  @Test
+  fun shouldRethrowFailureToStartTheCall() {
+    assertThatThrownBy {
+      requests.stream(KEY, RecordingListener()) { throw IllegalStateException("No client") }
+    }.isInstanceOf(IllegalStateException::class.java)
+
+    stream(RecordingListener())
+
+    assertThat(upstreams).hasSize(1)
+  }
+
+  private fun stream(listener: RecordingListener, key: String = KEY): EventSource =
+    requests.stream(key, listener) { flight ->
+      Upstream(flight).also { upstreams.add(it) }.eventSource
+    }
+
+  private fun upstream(): Upstream = upstreams.last()
+
+  private class Upstream(
+    val listener: CompletionEventListener<String>,
+    val eventSource: FakeEventSource = FakeEventSource()
+  )
+
+  private open class RecordingListener : CompletionEventListener<String> {
+
+    val events: MutableList<String> = Collections.synchronizedList(mutableListOf())
+
+    override fun onOpen() {
+      events.add("open")
+    }
+
+    override fun onMessage(message: String, eventSource: EventSource) {
+      events.add("message:$message")
+    }
+
+    override fun onComplete(messageBuilder: StringBuilder) {
+      events.add("complete:$messageBuilder")
+    }
+
+    override fun onCancelled(messageBuilder: StringBuilder) {
+      events.add("cancelled:$messageBuilder")
+    }
+
+    override fun onError(error: ErrorDetails, ex: Throwable) {
+      events.add("error:${error.message}")
+    }
+  }
+
+  companion object {
+    private const val KEY = "key"
+  }
+}
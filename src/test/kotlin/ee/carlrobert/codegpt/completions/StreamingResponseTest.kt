@@ -0,0 +1,78 @@
+package ee.carlrobert.codegpt.completions
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class StreamingResponseTest {
+
+  @Test
+  fun shouldCheckpointEachTimeTheResponseDoubles() {
+    val response = StreamingResponse()
+    val checkpointLengths = mutableListOf<Int>()
+
+    repeat(TOKENS) {
+      response.append(TOKEN)
+      if (response.checkpoint()) {
+        checkpointLengths.add(response.length())
+      }
+    }
+
+    // 1026, 2052, 4104, 8208, 16416 and 32832 of the 49152 characters
+    assertThat(checkpointLengths).hasSize(6)
+    assertThat(checkpointLengths.first())
+      .isGreaterThanOrEqualTo(StreamingResponse.FIRST_CHECKPOINT_LENGTH)
+    checkpointLengths.zipWithNext().forEach { (previous, next) ->
+      assertThat(next).isGreaterThanOrEqualTo(previous * 2)
+    }
+    // Reading the response at every checkpoint copies less than twice its length
+    assertThat(checkpointLengths.sum()).isLessThan(2 * response.length())
+  }
+
+  @Test
+  fun shouldNotCheckpointEmptyOrShortResponses() {
+    val response = StreamingResponse()
+
+    assertThat(response.checkpoint()).isFalse()
+    response.append(TOKEN)
+    response.append("")
+    response.append(null)
+
+    assertThat(response.checkpoint()).isFalse()
+    assertThat(response.length()).isEqualTo(TOKEN.length)
+  }
+
+  @Test
+  fun shouldReadTheWholeResponseAfterCheckpoints() {
+    val response = StreamingResponse()
+    val expected = StringBuilder()
+
+    repeat(TOKENS) {
+      response.append(TOKEN)
+      expected.append(TOKEN)
+      if (response.checkpoint()) {
+        assertThat(response.toString()).isEqualTo(expected.toString())
+      }
+    }
+
+    assertThat(response.length()).isEqualTo(expected.length)
+    assertThat(response.toString()).isEqualTo(expected.toString())
+  }
+
+  @Test
+  fun shouldAppendAfterTruncatedText() {
+    val response = StreamingResponse()
+    response.append("Hello")
+    response.append(", world \n")
+
+    response.truncate(12)
+    response.append("\nagain")
+
+    assertThat(response.length()).isEqualTo(18)
+    assertThat(response.toString()).isEqualTo("Hello, world\nagain")
+  }
+
+  companion object {
+    private const val TOKEN = "token "
+    private const val TOKENS = 8192
+  }
+}
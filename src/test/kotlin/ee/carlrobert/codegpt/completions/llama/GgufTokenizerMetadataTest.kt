@@ -0,0 +1,128 @@
+package ee.carlrobert.codegpt.completions.llama
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import java.nio.file.Path
+
+class GgufTokenizerMetadataTest {
+
+  @Test
+  fun shouldReadTokenizerModelAndVocabularySize() {
+    val file = writeGguf(keyValueCount = 4) {
+      string("general.architecture"); int(TYPE_STRING); string("llama")
+      string("general.alignment"); int(TYPE_UINT32); int(32)
+      string("tokenizer.ggml.model"); int(TYPE_STRING); string("gpt2")
+      string("tokenizer.ggml.tokens"); int(TYPE_ARRAY); int(TYPE_STRING); long(3)
+      string("a"); string("b"); string("c")
+    }
+
+    assertThat(GgufTokenizerMetadata.read(file)).isEqualTo(GgufTokenizerMetadata("gpt2", 3))
+  }
+
+  @Test
+  fun shouldSkipNumericAndNestedArrays() {
+    val file = writeGguf(keyValueCount = 5) {
+      string("tokenizer.ggml.scores"); int(TYPE_ARRAY); int(TYPE_FLOAT64); long(2)
+      long(0); long(0)
+      string("tokenizer.ggml.token_type"); int(TYPE_ARRAY); int(TYPE_UINT8); long(3)
+      bytes(byteArrayOf(1, 2, 3))
+      string("general.nested"); int(TYPE_ARRAY); int(TYPE_ARRAY); long(1)
+      int(TYPE_INT32); long(2); int(7); int(8)
+      string("tokenizer.ggml.tokens"); int(TYPE_ARRAY); int(TYPE_STRING); long(2)
+      string("<s>"); string("</s>")
+      string("tokenizer.ggml.model"); int(TYPE_STRING); string("llama")
+    }
+
+    assertThat(GgufTokenizerMetadata.read(file)).isEqualTo(GgufTokenizerMetadata("llama", 2))
+  }
+
+  @Test
+  fun shouldReturnNullWithoutTokenizerMetadata() {
+    val file = writeGguf(keyValueCount = 1) {
+      string("general.architecture"); int(TYPE_STRING); string("llama")
+    }
+
+    assertThat(GgufTokenizerMetadata.read(file)).isNull()
+  }
+
+  @Test
+  fun shouldRejectOtherFiles() {
+    val file = Files.createTempFile("model", ".bin")
+    file.toFile().deleteOnExit()
+    Files.write(file, "GGML and more".toByteArray())
+
+    assertThatThrownBy { GgufTokenizerMetadata.read(file) }.isInstanceOf(IOException::class.java)
+  }
+
+  @Test
+  fun shouldRejectFirstVersion() {
+    val file = writeGguf(version = 1, keyValueCount = 0) {}
+
+    assertThatThrownBy { GgufTokenizerMetadata.read(file) }.isInstanceOf(IOException::class.java)
+  }
+
+  @Test
+  fun shouldRejectTruncatedFiles() {
+    val file = writeGguf(keyValueCount = 1) {
+      string("tokenizer.ggml.tokens"); int(TYPE_ARRAY); int(TYPE_STRING); long(2)
+      string("<s>")
+    }
+
+    assertThatThrownBy { GgufTokenizerMetadata.read(file) }.isInstanceOf(IOException::class.java)
+  }
+
+  private fun writeGguf(
+    version: Int = 3,
+    keyValueCount: Long,
+    writeKeyValues: GgufWriter.() -> Unit
+  ): Path {
+    val writer = GgufWriter().apply {
+      int(MAGIC)
+      int(version)
+      long(0) // tensor count
+      long(keyValueCount)
+      writeKeyValues()
+    }
+    val file = Files.createTempFile("model", ".gguf")
+    file.toFile().deleteOnExit()
+    Files.write(file, writer.toByteArray())
+    return file
+  }
+
+  private class GgufWriter {
+
+    private val output = ByteArrayOutputStream()
+
+    fun int(value: Int) =
+      bytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array())
+
+    fun long(value: Long) =
+      bytes(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array())
+
+    fun string(value: String) {
+      val bytes = value.toByteArray(Charsets.UTF_8)
+      long(bytes.size.toLong())
+      bytes(bytes)
+    }
+
+    fun bytes(bytes: ByteArray) = output.write(bytes)
+
+    fun toByteArray(): ByteArray = output.toByteArray()
+  }
+
+  companion object {
+    private const val MAGIC = 0x46554747
+    private const val TYPE_UINT8 = 0
+    private const val TYPE_UINT32 = 4
+    private const val TYPE_INT32 = 5
+    private const val TYPE_STRING = 8
+    private const val TYPE_ARRAY = 9
+    private const val TYPE_FLOAT64 = 12
+  }
+}
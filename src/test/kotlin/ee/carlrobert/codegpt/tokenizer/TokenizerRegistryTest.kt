@@ -0,0 +1,59 @@
+package ee.carlrobert.codegpt.tokenizer
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class TokenizerRegistryTest {
+
+  private val registry = TokenizerRegistry()
+
+  @Test
+  fun shouldUseO200kForNewerOpenAIModels() {
+    listOf("o1", "o1-mini", "o3-mini", "gpt-4o", "gpt-4o-mini", "chatgpt-4o-latest", "gpt-4.1")
+      .forEach { model ->
+        assertThat(registry.getTokenizer(ServiceType.OPENAI, model).name)
+          .describedAs(model)
+          .isEqualTo("o200k_base")
+      }
+  }
+
+  @Test
+  fun shouldUseCl100kForOlderOpenAIModels() {
+    listOf("gpt-4", "gpt-4-turbo", "gpt-3.5-turbo").forEach { model ->
+      assertThat(registry.getTokenizer(ServiceType.OPENAI, model).name)
+        .describedAs(model)
+        .isEqualTo("cl100k_base")
+    }
+  }
+
+  @Test
+  fun shouldCountLargeVocabularyModelsWithoutCorrection() {
+    listOf("llama3:8b", "llama3.1:70b", "qwen2.5-coder:7b").forEach { model ->
+      val tokenizer = registry.getTokenizer(ServiceType.OLLAMA, model)
+
+      assertThat(tokenizer.isExact).describedAs(model).isTrue()
+      assertThat(tokenizer.name).describedAs(model).isEqualTo("cl100k_base")
+    }
+  }
+
+  @Test
+  fun shouldScaleModelsWithoutPublicTokenizer() {
+    assertThat(registry.getTokenizer(ServiceType.OLLAMA, "codellama:7b").correctionFactor())
+      .isEqualTo(TokenizerRegistry.SMALL_VOCABULARY_CORRECTION_FACTOR)
+    assertThat(registry.getTokenizer(ServiceType.OLLAMA, "gemma2:9b").correctionFactor())
+      .isEqualTo(TokenizerRegistry.GEMINI_CORRECTION_FACTOR)
+    assertThat(registry.getTokenizer(ServiceType.ANTHROPIC, "claude-3-5-sonnet").name)
+      .isEqualTo("cl100k_base*" + TokenizerRegistry.CLAUDE_CORRECTION_FACTOR)
+    assertThat(registry.getTokenizer(ServiceType.GOOGLE, "gemini-1.5-pro").name)
+      .isEqualTo("o200k_base*" + TokenizerRegistry.GEMINI_CORRECTION_FACTOR)
+  }
+
+  @Test
+  fun shouldCacheTokenizersPerModel() {
+    val tokenizer = registry.getTokenizer(ServiceType.OPENAI, "gpt-4o")
+
+    assertThat(registry.getTokenizer(ServiceType.OPENAI, "gpt-4o")).isSameAs(tokenizer)
+    assertThat(registry.getTokenizer(ServiceType.OPENAI, "gpt-4")).isNotSameAs(tokenizer)
+  }
+}
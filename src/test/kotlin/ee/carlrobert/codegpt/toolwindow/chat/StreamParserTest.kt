@@ -0,0 +1,137 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+import ee.carlrobert.codegpt.toolwindow.chat.StreamParser.StreamParseResponse
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.TEXT
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class StreamParserTest {
+
+  @Test
+  fun shouldSplitTextAndCodeSegments() {
+    val segments = parse(listOf("Intro\n```java:src/Main.java\nclass Main {}\n```\nOutro"))
+
+    assertThat(segments).containsExactly(
+      StreamParseResponse(TEXT, "Intro\n"),
+      StreamParseResponse(CODE, "```java:src/Main.java\nclass Main {}\n```\n"),
+      StreamParseResponse(TEXT, "Outro"))
+  }
+
+  @Test
+  fun shouldDetectFencesSplitAcrossChunks() {
+    val segments = parse(listOf("Intro\n`", "`", "`kot", "lin\nval a = 1\n``", "`\nOutro"))
+
+    assertThat(segments).containsExactly(
+      StreamParseResponse(TEXT, "Intro\n"),
+      StreamParseResponse(CODE, "```kotlin\nval a = 1\n```\n"),
+      StreamParseResponse(TEXT, "Outro"))
+  }
+
+  @Test
+  fun shouldHandleTildeNestedAndIndentedFences() {
+    val segments = parse(listOf(
+      "~~~md\n```java\nint a;\n```\n~~~\n",
+      "1. Step\n   ````python\n   print(1)\n   ```\n   ````\n",
+      "Use ``` for code.\n"))
+
+    assertThat(segments).containsExactly(
+      StreamParseResponse(TEXT, ""),
+      StreamParseResponse(CODE, "~~~md\n```java\nint a;\n```\n~~~\n"),
+      StreamParseResponse(TEXT, "1. Step\n"),
+      StreamParseResponse(CODE, "   ````python\n   print(1)\n   ```\n   ````\n"),
+      StreamParseResponse(TEXT, "Use ``` for code.\n"))
+  }
+
+  @Test
+  fun shouldHoldBackPossibleFenceUntilLineIsComplete() {
+    val parser = StreamParser()
+
+    assertThat(parser.parse("Intro\n``")).containsExactly(StreamParseResponse(TEXT, "Intro\n"))
+    assertThat(parser.parse("`j")).isEmpty()
+    assertThat(parser.flush()).containsExactly(StreamParseResponse(TEXT, "```j"))
+  }
+
+  @Test
+  fun shouldReturnOnlyTheAppendedText() {
+    val parser = StreamParser()
+
+    assertThat(parser.parse("Intro\nmore"))
+      .containsExactly(StreamParseResponse(TEXT, "Intro\nmore"))
+    assertThat(parser.parse(" text\n```kotlin\nval a")).containsExactly(
+      StreamParseResponse(TEXT, " text\n"),
+      StreamParseResponse(CODE, "```kotlin\nval a"))
+    assertThat(parser.parse(" = 1\n")).containsExactly(StreamParseResponse(CODE, " = 1\n"))
+  }
+
+  @Test
+  fun shouldNotCloseCodeBlockWithFenceIndentedByFourOrMoreColumns() {
+    val segments = parse(listOf(
+      "```md\n    ```\n\t```\nstill code\n   ```\n",
+      "- Item\n  ```\n      ```\n  ```\nOutro"))
+
+    assertThat(segments).containsExactly(
+      StreamParseResponse(TEXT, ""),
+      StreamParseResponse(CODE, "```md\n    ```\n\t```\nstill code\n   ```\n"),
+      StreamParseResponse(TEXT, "- Item\n"),
+      StreamParseResponse(CODE, "  ```\n      ```\n  ```\n"),
+      StreamParseResponse(TEXT, "Outro"))
+  }
+
+  @Test
+  fun shouldProduceSameSegmentsRegardlessOfChunking() {
+    val random = Random(42)
+    SAMPLES.forEach { sample ->
+      val expected = parse(listOf(sample))
+      repeat(500) {
+        val chunks = randomChunks(sample, random)
+
+        assertThat(parse(chunks))
+          .describedAs("Chunks: %s", chunks)
+          .isEqualTo(expected)
+      }
+    }
+  }
+
+  private fun parse(chunks: List<String>): List<StreamParseResponse> {
+    val parser = StreamParser()
+    val segments = mutableListOf<StreamParseResponse>()
+    chunks.forEach { chunk -> parser.parse(chunk).forEach { merge(segments, it) } }
+    parser.flush().forEach { merge(segments, it) }
+    return segments
+  }
+
+  // A later response for the same segment extends the earlier one
+  private fun merge(segments: MutableList<StreamParseResponse>, segment: StreamParseResponse) {
+    if (segments.isNotEmpty() && segments.last().type == segment.type) {
+      val last = segments.last()
+      segments[segments.lastIndex] = StreamParseResponse(last.type, last.response + segment.response)
+    } else {
+      segments.add(segment)
+    }
+  }
+
+  private fun randomChunks(text: String, random: Random): List<String> {
+    val chunks = mutableListOf<String>()
+    var start = 0
+    while (start < text.length) {
+      val end = minOf(text.length, start + 1 + random.nextInt(12))
+      chunks.add(text.substring(start, end))
+      start = end
+    }
+    return chunks
+  }
+
+  companion object {
+    private val SAMPLES = listOf(
+      "Plain text\nwithout any code.",
+      "Intro\n```java:src/Main.java\nclass Main {}\n```\nBetween\n~~~\nraw\n~~~\nOutro\n",
+      "````md\n```kotlin\nval a = 1\n```\n````\n",
+      "- Item\n  ```bash\n  echo 1\n  ```\n- Next ``` inline\n",
+      "Windows\r\n```py\r\nprint(1)\r\n```\r\n",
+      "Unclosed\n```js\nconsole.log(1)\n``",
+      "```\n```\n```\n```\n",
+      "```\n    ```\n   ```\n\t~~~\n")
+  }
+}
@@ -0,0 +1,211 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+import com.intellij.openapi.components.service
+import com.intellij.openapi.util.Disposer
+import com.intellij.testFramework.PlatformTestUtil
+import ee.carlrobert.codegpt.completions.CompletionClientCache
+import ee.carlrobert.codegpt.conversations.ConversationService
+import ee.carlrobert.codegpt.conversations.message.Message
+import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey.ANTHROPIC_API_KEY
+import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.settings.service.anthropic.AnthropicSettings
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.codegpt.settings.service.ollama.OllamaSettings
+import okhttp3.mockwebserver.MockWebServer
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.IntegrationTest
+import testsupport.StreamTranscript
+import testsupport.StreamTranscript.Format
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.concurrent.TimeUnit
+import com.sun.management.OperatingSystemMXBean as SunOperatingSystemMXBean
+import com.sun.management.ThreadMXBean as SunThreadMXBean
+
+/**
+ * Measures the end-to-end cost of a streamed chat response, from the HTTP client to the final
+ * render of the response, for each provider's wire format.
+ *
+ * The benchmarks take several runs each, so they aren't part of the `test` task and run with
+ * `./gradlew benchmark` instead. The transcripts are replayed by a local mock server at
+ * [TOKENS_PER_SECOND], which can be changed with the `codegpt.benchmark.tokensPerSecond` system
+ * property. The results are written to `build/reports/benchmark/streaming.properties` and
+ * compared with the baseline in `benchmark/streaming-baseline.properties`. A metric without a
+ * baseline fails the benchmark, unless the `codegpt.benchmark.recordBaseline` system property is
+ * set to only record the results.
+ */
+class StreamingPipelineBenchmarkTest : IntegrationTest() {
+
+  private val server = MockWebServer()
+  private val previousProperties = mutableMapOf<String, String?>()
+
+  override fun setUp() {
+    super.setUp()
+    server.start()
+  }
+
+  override fun tearDown() {
+    try {
+      previousProperties.forEach { (key, value) ->
+        if (value == null) System.clearProperty(key) else System.setProperty(key, value)
+      }
+      server.shutdown()
+    } finally {
+      super.tearDown()
+    }
+  }
+
+  fun testOpenAIStream() {
+    useOpenAIService()
+    overrideProperty("openai.baseUrl", serverUrl())
+
+    benchmark(Format.OPENAI)
+  }
+
+  fun testAnthropicStream() {
+    GeneralSettings.getCurrentState().selectedService = ServiceType.ANTHROPIC
+    setCredential(ANTHROPIC_API_KEY, "TEST_API_KEY")
+    AnthropicSettings.getCurrentState().model = "claude-3-opus-20240229"
+    overrideProperty("anthropic.baseUrl", serverUrl())
+
+    benchmark(Format.ANTHROPIC)
+  }
+
+  fun testOllamaStream() {
+    useOllamaService()
+    service<OllamaSettings>().state.host = serverUrl()
+
+    benchmark(Format.OLLAMA)
+  }
+
+  fun testLlamaStream() {
+    useLlamaService()
+    LlamaSettings.getCurrentState().apply {
+      isRunLocalServer = false
+      baseHost = serverUrl()
+    }
+
+    benchmark(Format.LLAMA_CPP)
+  }
+
+  private fun benchmark(format: Format) {
+    val transcript = StreamTranscript.of(format, RESPONSE)
+    repeat(WARMUP_RUNS) { replay(transcript) }
+    val runs = List(MEASURED_RUNS) { replay(transcript) }
+    val result = Metric.entries.associateWith { metric ->
+      runs.map { it.getValue(metric) }.sorted()[runs.size / 2]
+    }
+
+    report(format, result)
+    if (RECORD_BASELINE) {
+      return
+    }
+
+    val missing = result.keys.map { "${format.name}.${it.key}" }.filter { BASELINE[it] == null }
+    assertThat(missing)
+      .describedAs(
+        "Metrics without a baseline, run ./gradlew benchmark -Dcodegpt.benchmark.recordBaseline " +
+            "and copy build/reports/benchmark/streaming.properties to the baseline")
+      .isEmpty()
+
+    val regressions = result.mapNotNull { (metric, value) ->
+      val baseline = BASELINE.getProperty("${format.name}.${metric.key}").toLong()
+      val allowed = (baseline * (1 + metric.tolerance)).toLong()
+      if (value > allowed) "${metric.key}: $value, baseline $baseline, allowed $allowed" else null
+    }
+    assertThat(regressions).describedAs("Regressions of ${format.name}").isEmpty()
+  }
+
+  private fun replay(transcript: StreamTranscript): Map<Metric, Long> {
+    server.enqueue(transcript.toMockResponse(TOKENS_PER_SECOND))
+    CompletionClientCache.getInstance().invalidateAll()
+    val conversation = ConversationService.getInstance().startConversation()
+    val panel = ChatToolWindowTabPanel(project, conversation)
+    val threads = ManagementFactory.getThreadMXBean() as SunThreadMXBean
+    val os = ManagementFactory.getOperatingSystemMXBean() as SunOperatingSystemMXBean
+
+    try {
+      val allocatedBefore = allocatedBytes(threads)
+      val cpuBefore = os.processCpuTime
+      val start = System.nanoTime()
+      panel.sendMessage(Message("Count the words of a file"))
+
+      // The response is rendered in full once the token details are updated
+      var edtBusyNanos = 0L
+      val deadline = start + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS)
+      while (conversation.messages.firstOrNull()?.response != transcript.response
+        || panel.tokenDetails.conversationTokens == 0
+      ) {
+        assertThat(System.nanoTime())
+          .describedAs("Streaming ${transcript.format.name} timed out")
+          .isLessThan(deadline)
+        val dispatchStart = System.nanoTime()
+        PlatformTestUtil.dispatchAllInvocationEventsInIdeEventQueue()
+        edtBusyNanos += System.nanoTime() - dispatchStart
+        Thread.sleep(1)
+      }
+      val finalRenderNanos = System.nanoTime() - start
+
+      return mapOf(
+        Metric.CPU_TIME to TimeUnit.NANOSECONDS.toMillis(os.processCpuTime - cpuBefore),
+        Metric.ALLOCATIONS to (allocatedBytes(threads) - allocatedBefore) / 1024,
+        Metric.EDT_BUSY_TIME to TimeUnit.NANOSECONDS.toMillis(edtBusyNanos),
+        Metric.FINAL_RENDER_TIME to TimeUnit.NANOSECONDS.toMillis(finalRenderNanos))
+    } finally {
+      Disposer.dispose(panel)
+    }
+  }
+
+  // Allocations of threads that terminate during a run are missed, the pooled ones aren't
+  private fun allocatedBytes(threads: SunThreadMXBean): Long =
+    threads.getThreadAllocatedBytes(threads.allThreadIds).filter { it > 0 }.sum()
+
+  private fun report(format: Format, result: Map<Metric, Long>) {
+    val file = Path.of("build", "reports", "benchmark", "streaming.properties")
+    Files.createDirectories(file.parent)
+    val properties = Properties()
+    if (Files.exists(file)) {
+      Files.newBufferedReader(file).use { properties.load(it) }
+    }
+    result.forEach { (metric, value) ->
+      properties.setProperty("${format.name}.${metric.key}", value.toString())
+    }
+    Files.newBufferedWriter(file).use { properties.store(it, "Streaming benchmark results") }
+  }
+
+  private fun overrideProperty(key: String, value: String) {
+    previousProperties.putIfAbsent(key, System.getProperty(key))
+    System.setProperty(key, value)
+  }
+
+  private fun serverUrl(): String = server.url("/").toString().removeSuffix("/")
+
+  private enum class Metric(val key: String, val tolerance: Double) {
+    CPU_TIME("cpuMillis", 0.5),
+    ALLOCATIONS("allocatedKb", 0.25),
+    EDT_BUSY_TIME("edtBusyMillis", 0.5),
+    FINAL_RENDER_TIME("finalRenderMillis", 0.5)
+  }
+
+  companion object {
+    private const val WARMUP_RUNS = 1
+    private const val MEASURED_RUNS = 3
+    private const val TIMEOUT_SECONDS = 60L
+    private val TOKENS_PER_SECOND =
+      System.getProperty("codegpt.benchmark.tokensPerSecond")?.toInt() ?: 400
+    private val RECORD_BASELINE = System.getProperty("codegpt.benchmark.recordBaseline") != null
+    private val RESPONSE = readResource("/benchmark/streaming-response.md")
+    private val BASELINE = Properties().apply {
+      StreamingPipelineBenchmarkTest::class.java
+        .getResourceAsStream("/benchmark/streaming-baseline.properties")
+        ?.use { load(it) }
+    }
+
+    private fun readResource(name: String): String =
+      StreamingPipelineBenchmarkTest::class.java.getResource(name)!!.readText()
+  }
+}
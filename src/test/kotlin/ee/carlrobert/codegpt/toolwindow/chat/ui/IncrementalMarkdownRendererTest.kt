@@ -0,0 +1,126 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui
+
+import ee.carlrobert.codegpt.util.MarkdownUtil.convertMdToHtml
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import javax.swing.JTextPane
+import javax.swing.text.Element
+import javax.swing.text.ElementIterator
+import javax.swing.text.html.HTML
+import javax.swing.text.html.HTMLDocument
+import kotlin.random.Random
+
+class IncrementalMarkdownRendererTest {
+
+  @Test
+  fun shouldKeepFinalizedBlocksWhileStreaming() {
+    val textPane = createTextPane()
+    val renderer = IncrementalMarkdownRenderer(textPane)
+    renderer.render("# Title\n\nFirst")
+    val heading = findElement(textPane, "h1")
+
+    renderer.render("# Title\n\nFirst paragraph\n\nSecond")
+    renderer.render("# Title\n\nFirst paragraph\n\nSecond paragraph")
+
+    assertThat(findElement(textPane, "h1")).isSameAs(heading)
+    assertThat(describe(textPane))
+      .isEqualTo(describe(renderAll("# Title\n\nFirst paragraph\n\nSecond paragraph")))
+  }
+
+  @Test
+  fun shouldRenderAgainWhenMarkdownIsNotExtended() {
+    val textPane = createTextPane()
+    val renderer = IncrementalMarkdownRenderer(textPane)
+    renderer.render("# Title\n\nFirst paragraph\n\nSecond")
+
+    renderer.render("Replaced")
+
+    assertThat(describe(textPane)).isEqualTo(describe(renderAll("Replaced")))
+  }
+
+  @Test
+  fun shouldRenderSameDocumentAsFullRenderRegardlessOfChunking() {
+    val random = Random(42)
+    SAMPLES.forEach { sample ->
+      repeat(50) {
+        val chunks = randomChunks(sample, random)
+        val textPane = createTextPane()
+        val renderer = IncrementalMarkdownRenderer(textPane)
+        var markdown = ""
+
+        chunks.forEach { chunk ->
+          markdown += chunk
+          renderer.render(markdown)
+
+          assertThat(describe(textPane))
+            .describedAs("Chunks: %s", chunks)
+            .isEqualTo(describe(renderAll(markdown)))
+        }
+      }
+    }
+  }
+
+  private fun createTextPane(): JTextPane = JTextPane().apply { contentType = "text/html" }
+
+  private fun renderAll(markdown: String): JTextPane =
+    createTextPane().apply { text = convertMdToHtml(markdown) }
+
+  private fun findElement(textPane: JTextPane, name: String): Element? {
+    val iterator = ElementIterator(textPane.document)
+    return generateSequence(iterator.first()) { iterator.next() }.firstOrNull { it.name == name }
+  }
+
+  /**
+   * Describes each leaf of the document by its enclosing elements, inline tags and text, leaving
+   * out the element wrapping the open block.
+   */
+  private fun describe(textPane: JTextPane): List<String> {
+    val document = textPane.document as HTMLDocument
+    val leaves = mutableListOf<String>()
+
+    fun visit(element: Element, path: String) {
+      val attributes = element.attributes
+      if (element.isLeaf) {
+        val tags = attributes.attributeNames.toList().filterIsInstance<HTML.Tag>()
+          .map { it.toString() }
+          .sorted()
+        val text = document.getText(element.startOffset, element.endOffset - element.startOffset)
+        leaves.add("$path$tags: $text")
+        return
+      }
+      // The attributes of the enclosing elements are resolved too, so only check the own ones
+      val isOpenBlock = attributes.isDefined(HTML.Attribute.ID) &&
+          attributes.getAttribute(HTML.Attribute.ID) == "open-block"
+      val elementPath = if (isOpenBlock) path else "$path/${element.name}"
+      for (i in 0 until element.elementCount) {
+        visit(element.getElement(i), elementPath)
+      }
+    }
+
+    visit(document.defaultRootElement, "")
+    return leaves
+  }
+
+  private fun randomChunks(text: String, random: Random): List<String> {
+    val chunks = mutableListOf<String>()
+    var start = 0
+    while (start < text.length) {
+      val end = minOf(text.length, start + 1 + random.nextInt(12))
+      chunks.add(text.substring(start, end))
+      start = end
+    }
+    return chunks
+  }
+
+  companion object {
+    private val SAMPLES = listOf(
+      "Plain text\nwith a soft break.",
+      "# Heading\n\nFirst paragraph with `code` and **bold**.\nSecond line.\n\n"
+          + "Another paragraph.\n\n\n## Sub heading\n\nLast words",
+      "Steps:\n\n- first\n- second\n\n  continued\n\nThen:\n\n1. one\n2. two\n\nDone.",
+      "> Quote\n> more\n\nAfter the quote\n\n***\n\nAfter the rule",
+      "See [the docs][docs] and [this](https://example.com).\n\nMore text\n\n"
+          + "[docs]: https://example.com/docs\n\nEnd",
+      "Use `[not a link]` here.\n\nSetext heading\n===\n\nParagraph *with\nemphasis*")
+  }
+}
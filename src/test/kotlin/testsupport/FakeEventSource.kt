@@ -0,0 +1,20 @@
+package testsupport
+
+import okhttp3.Request
+import okhttp3.sse.EventSource
+
+/**
+ * An event source which doesn't send anything, it only records whether it was cancelled.
+ */
+class FakeEventSource : EventSource {
+
+  @Volatile
+  var cancelled = false
+    private set
+
+  override fun request(): Request = Request.Builder().url("http://localhost/").build()
+
+  override fun cancel() {
+    cancelled = true
+  }
+}
@@ -3,6 +3,7 @@ package testsupport
 import com.intellij.openapi.util.Key
 import com.intellij.testFramework.fixtures.BasePlatformTestCase
 import ee.carlrobert.codegpt.CodeGPTKeys
+import ee.carlrobert.codegpt.completions.CompletionClientCache
 import ee.carlrobert.llm.client.mixin.ExternalServiceTestMixin
 import testsupport.mixin.ShortcutsTestMixin
 
@@ -11,6 +12,7 @@ open class IntegrationTest : BasePlatformTestCase(), ExternalServiceTestMixin, S
   @Throws(Exception::class)
   override fun tearDown() {
     ExternalServiceTestMixin.clearAll()
+    CompletionClientCache.getInstance().invalidateAll()
     clearKeys()
     super.tearDown()
   }
@@ -0,0 +1,126 @@
+package testsupport
+
+import java.util.PriorityQueue
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.Callable
+import java.util.concurrent.Delayed
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * A scheduled executor with its own clock, which only runs tasks once the clock is advanced past
+ * their delay. Tasks run on the thread advancing the clock.
+ */
+class ManualScheduledExecutorService : AbstractExecutorService(), ScheduledExecutorService {
+
+  private val order = compareBy<ScheduledTask<*>>({ it.dueNanos }, { it.sequence })
+  private val tasks = PriorityQueue(order)
+  private var sequence = 0L
+  private var shutdown = false
+
+  @Volatile
+  var nanoTime = 0L
+    private set
+
+  fun currentTimeMillis(): Long = TimeUnit.NANOSECONDS.toMillis(nanoTime)
+
+  /**
+   * @return The remaining delays of the scheduled tasks, in the order they are due.
+   */
+  @Synchronized
+  fun getScheduledDelaysMillis(): List<Long> =
+    tasks.sortedWith(order).map { it.getDelay(TimeUnit.MILLISECONDS) }
+
+  /**
+   * Advances the clock by the given time, running the tasks that fall due in order.
+   */
+  fun advanceBy(millis: Long) {
+    val targetNanos = nanoTime + TimeUnit.MILLISECONDS.toNanos(millis)
+    while (true) {
+      val task = synchronized(this) {
+        val next = tasks.peek()
+        if (next == null || next.dueNanos > targetNanos) null else tasks.poll()
+      } ?: break
+      nanoTime = maxOf(nanoTime, task.dueNanos)
+      task.run()
+    }
+    nanoTime = targetNanos
+  }
+
+  /**
+   * Runs the tasks that are already due, without advancing the clock.
+   */
+  fun runDueTasks() = advanceBy(0)
+
+  override fun schedule(command: Runnable, delay: Long, unit: TimeUnit): ScheduledFuture<*> =
+    add(Executors.callable(command), delay, unit)
+
+  override fun <V> schedule(
+    callable: Callable<V>,
+    delay: Long,
+    unit: TimeUnit
+  ): ScheduledFuture<V> = add(callable, delay, unit)
+
+  override fun scheduleAtFixedRate(
+    command: Runnable,
+    initialDelay: Long,
+    period: Long,
+    unit: TimeUnit
+  ): ScheduledFuture<*> = throw UnsupportedOperationException()
+
+  override fun scheduleWithFixedDelay(
+    command: Runnable,
+    initialDelay: Long,
+    delay: Long,
+    unit: TimeUnit
+  ): ScheduledFuture<*> = throw UnsupportedOperationException()
+
+  override fun execute(command: Runnable) {
+    schedule(command, 0, TimeUnit.NANOSECONDS)
+  }
+
+  override fun shutdown() {
+    shutdown = true
+  }
+
+  override fun shutdownNow(): List<Runnable> {
+    shutdown = true
+    return synchronized(this) { tasks.toList().also { tasks.clear() } }
+  }
+
+  override fun isShutdown() = shutdown
+
+  override fun isTerminated() = shutdown && synchronized(this) { tasks.isEmpty() }
+
+  override fun awaitTermination(timeout: Long, unit: TimeUnit) = isTerminated
+
+  @Synchronized
+  private fun <V> add(callable: Callable<V>, delay: Long, unit: TimeUnit): ScheduledFuture<V> {
+    val task = ScheduledTask(callable, nanoTime + unit.toNanos(maxOf(delay, 0)), sequence++)
+    tasks.add(task)
+    return task
+  }
+
+  private inner class ScheduledTask<V>(
+    callable: Callable<V>,
+    val dueNanos: Long,
+    val sequence: Long
+  ) : FutureTask<V>(callable), ScheduledFuture<V> {
+
+    override fun getDelay(unit: TimeUnit): Long =
+      unit.convert(dueNanos - nanoTime, TimeUnit.NANOSECONDS)
+
+    override fun compareTo(other: Delayed): Int =
+      getDelay(TimeUnit.NANOSECONDS).compareTo(other.getDelay(TimeUnit.NANOSECONDS))
+
+    override fun cancel(mayInterruptIfRunning: Boolean): Boolean {
+      synchronized(this@ManualScheduledExecutorService) {
+        tasks.remove(this)
+      }
+      return super.cancel(mayInterruptIfRunning)
+    }
+  }
+}
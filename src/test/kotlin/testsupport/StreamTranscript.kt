@@ -0,0 +1,119 @@
+package testsupport
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import okhttp3.mockwebserver.MockResponse
+import okio.Buffer
+import java.util.concurrent.TimeUnit
+
+/**
+ * A streamed response in the wire format of a provider, replayed by a `MockWebServer` at a
+ * fixed token rate.
+ *
+ * Transcripts are built from a plain response, which is split into token-sized chunks of up to
+ * a few characters, the same way the providers stream them.
+ */
+class StreamTranscript private constructor(
+  val format: Format,
+  val response: String,
+  private val events: List<String>
+) {
+
+  val tokenCount: Int
+    get() = events.size
+
+  /**
+   * @param tokensPerSecond Rate at which the events are written, `0` writes them all at once.
+   */
+  fun toMockResponse(tokensPerSecond: Int): MockResponse {
+    val body = Buffer()
+    events.forEach { body.writeUtf8(it) }
+    body.writeUtf8(format.terminator())
+
+    val mockResponse = MockResponse()
+      .setHeader("Content-Type", format.contentType)
+      .setBody(body)
+    if (tokensPerSecond > 0) {
+      val bytesPerEvent = maxOf(1L, body.size / events.size)
+      mockResponse.throttleBody(bytesPerEvent, 1000L / tokensPerSecond, TimeUnit.MILLISECONDS)
+    }
+    return mockResponse
+  }
+
+  enum class Format(val contentType: String) {
+    OPENAI("text/event-stream") {
+      override fun event(token: String) = sse(null, mapOf(
+        "id" to "chatcmpl-1",
+        "object" to "chat.completion.chunk",
+        "choices" to listOf(mapOf("index" to 0, "delta" to mapOf("content" to token)))))
+
+      override fun terminator() = "data: [DONE]\n\n"
+    },
+
+    ANTHROPIC("text/event-stream") {
+      override fun preamble() = sse("message_start", mapOf(
+        "type" to "message_start",
+        "message" to mapOf(
+          "id" to "msg_1",
+          "type" to "message",
+          "role" to "assistant",
+          "content" to emptyList<Any>()))) +
+          sse("content_block_start", mapOf(
+            "type" to "content_block_start",
+            "index" to 0,
+            "content_block" to mapOf("type" to "text", "text" to "")))
+
+      override fun event(token: String) = sse("content_block_delta", mapOf(
+        "type" to "content_block_delta",
+        "index" to 0,
+        "delta" to mapOf("type" to "text_delta", "text" to token)))
+
+      override fun terminator() =
+        sse("content_block_stop", mapOf("type" to "content_block_stop", "index" to 0)) +
+            sse("message_stop", mapOf("type" to "message_stop"))
+    },
+
+    OLLAMA("application/x-ndjson") {
+      override fun event(token: String) = json(mapOf(
+        "model" to "llama3",
+        "message" to mapOf("role" to "assistant", "content" to token),
+        "done" to false)) + "\n"
+
+      override fun terminator() = json(mapOf(
+        "model" to "llama3",
+        "message" to mapOf("role" to "assistant", "content" to ""),
+        "done" to true)) + "\n"
+    },
+
+    LLAMA_CPP("text/event-stream") {
+      override fun event(token: String) = sse(null, mapOf("content" to token, "stop" to false))
+
+      override fun terminator() = sse(null, mapOf("content" to "", "stop" to true))
+    };
+
+    open fun preamble(): String = ""
+
+    abstract fun event(token: String): String
+
+    abstract fun terminator(): String
+
+    protected fun sse(event: String?, data: Map<String, Any>): String =
+      (if (event == null) "" else "event: $event\n") + "data: ${json(data)}\n\n"
+
+    protected fun json(value: Any): String = objectMapper.writeValueAsString(value)
+  }
+
+  companion object {
+    private val objectMapper = ObjectMapper()
+    private val TOKEN_PATTERN = Regex("""\s*[^\s]{1,4}|\s+""")
+
+    fun of(format: Format, response: String): StreamTranscript {
+      val tokens = TOKEN_PATTERN.findAll(response).map { it.value }.toList()
+      val events = tokens.map { format.event(it) }.toMutableList()
+      val preamble = format.preamble()
+      if (preamble.isNotEmpty()) {
+        events[0] = preamble + events[0]
+      }
+      return StreamTranscript(format, response, events)
+    }
+  }
+}